@@ -0,0 +1,199 @@
+package com.example.jueldemo;
+
+import com.example.jueldemo.SimpleConditionExpressionParser.*;
+
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * 合成条件语料生成器
+ * 按接近线上流程定义的分布生成1.0条件表单和对应的变量表，同一种子生成的语料相同，便于不同构建之间对比：
+ * 或公式数：1个55%、2个25%、3个12%、4~6个8%；每个或公式的原子条件数：1个30%、2个35%、3个20%、4~8个15%；
+ * 条件类型：数值40%、字符串35%、日期15%、布尔10%；值类型：固定值85%、参数10%、对象参数5%；
+ * 变量按Zipf分布选取，少数热点变量出现在大多数条件中；变量取值有3%为null。
+ * 非线程安全
+ * @author hu
+ */
+public class CorpusGenerator {
+
+    private static final LocalDate EPOCH = LocalDate.of(2015, 1, 1);
+    private static final int DATE_RANGE = 4000;
+    private static final int NUMBER_RANGE = 10000;
+    private static final int STRING_VOCABULARY = 20;
+    // 对象参数的变量名
+    private static final String OBJECT_PARAM = "objectparam";
+
+    private final Random random;
+    private final int variablesPerClass;
+    // Zipf分布的累积权重
+    private final double[] zipf;
+
+    /**
+     * @param seed 随机种子
+     * @param variablesPerClass 每种条件类型的变量个数
+     */
+    public CorpusGenerator(long seed, int variablesPerClass) {
+        this.random = new Random(seed);
+        this.variablesPerClass = variablesPerClass;
+        this.zipf = new double[variablesPerClass];
+        double total = 0;
+        for (int i = 0; i < variablesPerClass; i++) {
+            total += 1.0 / (i + 1);
+            zipf[i] = total;
+        }
+        for (int i = 0; i < variablesPerClass; i++) {
+            zipf[i] /= total;
+        }
+    }
+
+    /**
+     * @return 一个条件表单
+     */
+    public List<List<ConditionNode>> nextCondition() {
+        int clauseCount = pick(55, 25, 12) + 1;
+        if (clauseCount == 4) {
+            clauseCount += random.nextInt(3);
+        }
+        List<List<ConditionNode>> nodeList = new ArrayList<>(clauseCount);
+        for (int c = 0; c < clauseCount; c++) {
+            int atomCount = pick(30, 35, 20) + 1;
+            if (atomCount == 4) {
+                atomCount += random.nextInt(5);
+            }
+            List<ConditionNode> andNodes = new ArrayList<>(atomCount);
+            for (int a = 0; a < atomCount; a++) {
+                andNodes.add(nextNode());
+            }
+            nodeList.add(andNodes);
+        }
+        return nodeList;
+    }
+
+    private ConditionNode nextNode() {
+        ConditionClass conditionClass = ConditionClass.values()[pick(35, 40, 15)];
+        String variable = variable(conditionClass, zipfIndex());
+        int valueType = pick(85, 10);
+        // 空值判断
+        if (random.nextInt(100) < 5) {
+            return new ConditionNode(variable, random.nextBoolean() ? MyOperator.EQ : MyOperator.NE, null, conditionClass, ConditionValueType.FIXED);
+        }
+        MyOperator operator = operator(conditionClass);
+        if (operator.isList()) {
+            int size = operator == MyOperator.BETWEEN ? 2 : 2 + random.nextInt(4);
+            List<String> values = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                values.add(literal(conditionClass));
+            }
+            if (operator == MyOperator.BETWEEN) {
+                values.sort(conditionClass == ConditionClass.NUMBER ? Comparator.comparingInt(Integer::parseInt) : Comparator.naturalOrder());
+            }
+            return new ConditionNode(variable, operator, SimpleConditionExpressionParser.joinValues(values), conditionClass, ConditionValueType.FIXED);
+        }
+        if (valueType == 1) {
+            return new ConditionNode(variable, operator, "p" + variable(conditionClass, random.nextInt(variablesPerClass)), conditionClass, ConditionValueType.PARAM);
+        }
+        if (valueType == 2) {
+            return new ConditionNode(variable, operator, OBJECT_PARAM + "." + variable(conditionClass, random.nextInt(variablesPerClass)),
+                    conditionClass, ConditionValueType.OBJECTPARAM);
+        }
+        return new ConditionNode(variable, operator, literal(conditionClass), conditionClass, ConditionValueType.FIXED);
+    }
+
+    private MyOperator operator(ConditionClass conditionClass) {
+        switch (conditionClass) {
+            case STRING:
+                return new MyOperator[]{MyOperator.EQ, MyOperator.NE, MyOperator.IN, MyOperator.NOT_IN}[pick(65, 15, 15)];
+            case NUMBER:
+                return new MyOperator[]{MyOperator.GT, MyOperator.GE, MyOperator.LT, MyOperator.LE, MyOperator.EQ, MyOperator.NE,
+                        MyOperator.BETWEEN, MyOperator.IN}[pick(20, 15, 15, 15, 15, 5, 10)];
+            case DATE:
+                return new MyOperator[]{MyOperator.LT, MyOperator.GT, MyOperator.EQ, MyOperator.BETWEEN}[pick(40, 35, 10)];
+            default:
+                return MyOperator.EQ;
+        }
+    }
+
+    private String literal(ConditionClass conditionClass) {
+        switch (conditionClass) {
+            case STRING:
+                return "v" + random.nextInt(STRING_VOCABULARY);
+            case NUMBER:
+                return String.valueOf(random.nextInt(NUMBER_RANGE));
+            case DATE:
+                return EPOCH.plusDays(random.nextInt(DATE_RANGE)).toString();
+            default:
+                return String.valueOf(random.nextBoolean());
+        }
+    }
+
+    private Object value(ConditionClass conditionClass) {
+        if (random.nextInt(100) < 3) {
+            return null;
+        }
+        switch (conditionClass) {
+            case STRING:
+                return "v" + random.nextInt(STRING_VOCABULARY);
+            case NUMBER:
+                return random.nextInt(NUMBER_RANGE);
+            case DATE:
+                return EPOCH.plusDays(random.nextInt(DATE_RANGE));
+            default:
+                return random.nextBoolean();
+        }
+    }
+
+    /**
+     * @return 一个变量表：全部变量、参数变量和对象参数
+     */
+    public Map<String, Object> nextVariables() {
+        Map<String, Object> variables = new HashMap<>();
+        Map<String, Object> objectParam = new HashMap<>();
+        for (int c = 0; c < 4; c++) {
+            ConditionClass conditionClass = ConditionClass.values()[c];
+            for (int i = 0; i < variablesPerClass; i++) {
+                String name = variable(conditionClass, i);
+                variables.put(name, value(conditionClass));
+                variables.put("p" + name, value(conditionClass));
+                objectParam.put(name, value(conditionClass));
+            }
+        }
+        variables.put(OBJECT_PARAM, objectParam);
+        return variables;
+    }
+
+    /**
+     * 变量表转换成juel求值用的变量参数
+     * @param variables
+     * @return
+     */
+    public static List<ExpressionVariable<?>> toExpressionVariables(Map<String, Object> variables) {
+        List<ExpressionVariable<?>> params = new ArrayList<>(variables.size());
+        for (Map.Entry<String, Object> entry : variables.entrySet()) {
+            params.add(new ExpressionVariable<>("${" + entry.getKey() + "}", Object.class, entry.getValue()));
+        }
+        return params;
+    }
+
+    private static String variable(ConditionClass conditionClass, int index) {
+        return conditionClass.name().toLowerCase().charAt(0) + String.valueOf(index);
+    }
+
+    private int zipfIndex() {
+        int index = Arrays.binarySearch(zipf, random.nextDouble());
+        return Math.min(index >= 0 ? index : -(index + 1), variablesPerClass - 1);
+    }
+
+    /**
+     * 按百分比选择下标，最后一个下标取剩余的比例
+     */
+    private int pick(int... percents) {
+        int roll = random.nextInt(100);
+        for (int i = 0; i < percents.length; i++) {
+            roll -= percents[i];
+            if (roll < 0) {
+                return i;
+            }
+        }
+        return percents.length;
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.jueldemo;
+
+import de.odysseus.el.tree.impl.Builder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 关键字识别的微基准：原来截取子串查HashMap，现在按长度、首字符在原文上直接比较；
+ * 标识符按实际条件表达式的比例混合，大部分是变量名
+ * @author hu
+ */
+public class KeywordBenchmark {
+
+    /**
+     * @param args 轮数，默认20
+     */
+    public static void main(String[] args) {
+        int rounds = args != null && args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        String[] names = {"amount", "region", "date3", "objectparam", "owner", "string1", "number2", "bool4", "varhelloworld", "level",
+                "vip", "status", "and", "or", "not", "true", "false", "null", "empty", "eq", "in", "between", "instanceof", "a", "le"};
+        StringBuilder text = new StringBuilder();
+        int[] starts = new int[names.length * 40];
+        int[] ends = new int[starts.length];
+        Random random = new Random(1);
+        for (int i = 0; i < starts.length; i++) {
+            // 大约四分之三是变量名
+            String name = random.nextInt(4) > 0 ? names[random.nextInt(12)] : names[12 + random.nextInt(names.length - 12)];
+            starts[i] = text.length();
+            text.append(name);
+            ends[i] = text.length();
+            text.append(' ');
+        }
+        String input = text.toString();
+        Scanner scanner = new ConditionParser(new Builder(), input).createScanner(input);
+        Map<String, Scanner.Token> keymap = new HashMap<>();
+        for (String name : names) {
+            Scanner.Token token = scanner.keyword(name, 0, name.length());
+            if (token != null) {
+                keymap.put(name, token);
+            }
+        }
+        String expression = "${(amount>1000 && amount<=5000 && region=='east') || (level>=3 && vip==true) || (date3<'2022-01-01' && owner==objectparam.owner)"
+                + " || (not empty status and region in ('A', 'B')) || (number2 between (1, 10))}";
+        for (int round = 0; round < rounds; round++) {
+            int hits = 0;
+            long start = System.nanoTime();
+            for (int repeat = 0; repeat < 1000; repeat++) {
+                for (int i = 0; i < starts.length; i++) {
+                    hits += keymap.get(input.substring(starts[i], ends[i])) == null ? 0 : 1;
+                }
+            }
+            long hashed = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int repeat = 0; repeat < 1000; repeat++) {
+                for (int i = 0; i < starts.length; i++) {
+                    hits -= scanner.keyword(input, starts[i], ends[i]) == null ? 0 : 1;
+                }
+            }
+            long switched = System.nanoTime() - start;
+            start = System.nanoTime();
+            int tokens = 0;
+            for (int repeat = 0; repeat < 10000; repeat++) {
+                Scanner expressionScanner = new ConditionParser(new Builder(), expression).createScanner(expression);
+                try {
+                    while (expressionScanner.next().getSymbol() != Scanner.Symbol.EOF) {
+                        tokens++;
+                    }
+                } catch (Scanner.ScanException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            long scanned = System.nanoTime() - start;
+            if (round == rounds - 1) {
+                long count = 1000L * starts.length;
+                System.out.println("\n*****关键字识别（每个标识符）:\n子串+HashMap=" + String.format("%.1f", (double) hashed / count) + "ns"
+                        + " 长度+首字符=" + String.format("%.1f", (double) switched / count) + "ns 校验=" + hits);
+                System.out.println("\n*****表达式扫描:\n每个token=" + String.format("%.1f", (double) scanned / tokens) + "ns");
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.jueldemo;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 延迟直方图（纳秒）
+ * 对数-线性分桶：128以下每个值一个桶，以上每个2的幂区间分64个桶，相对误差不超过1/64，
+ * 覆盖全部long范围，固定3712个桶。每个压测线程一个实例，结束后合并，记录时没有竞争。非线程安全
+ * @author hu
+ */
+public class LatencyHistogram {
+
+    // 尾数位数，每个2的幂区间的桶数是2^SUB_BITS
+    private static final int SUB_BITS = 6;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    // 小于这个值的每个值一个桶
+    private static final int LINEAR_LIMIT = SUB_COUNT * 2;
+    private static final int BUCKET_COUNT = LINEAR_LIMIT + (63 - SUB_BITS - 1) * SUB_COUNT;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    /**
+     * 记录一次延迟
+     * @param nanos 纳秒，负数按0记录
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts[index(value)]++;
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    static int index(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        int top = (int) (value >>> shift);
+        return LINEAR_LIMIT + (shift - 1) * SUB_COUNT + (top - SUB_COUNT);
+    }
+
+    /**
+     * @return 桶的上界（含）
+     */
+    static long highestValue(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int shift = (index - LINEAR_LIMIT) / SUB_COUNT + 1;
+        long top = (index - LINEAR_LIMIT) % SUB_COUNT + SUB_COUNT;
+        return ((top + 1) << shift) - 1;
+    }
+
+    /**
+     * 合并另一个直方图
+     * @param other
+     */
+    public void merge(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * @param percentile 百分位，0到100
+     * @return 不小于这个百分位的延迟上界，按桶的上界计算，不超过最大值；没有记录时为0
+     */
+    public long percentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * @return 报告用的摘要：min、p50、p90、p99、p99.9、p99.99、max、mean
+     */
+    public Map<String, Object> summary() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("count", count);
+        summary.put("min", getMin());
+        summary.put("p50", percentile(50));
+        summary.put("p90", percentile(90));
+        summary.put("p99", percentile(99));
+        summary.put("p999", percentile(99.9));
+        summary.put("p9999", percentile(99.99));
+        summary.put("max", max);
+        summary.put("mean", Math.round(getMean()));
+        return summary;
+    }
+}
@@ -0,0 +1,321 @@
+package com.example.jueldemo;
+
+import com.example.jueldemo.SimpleConditionExpressionParser.*;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 条件求值压测驱动
+ * 生成合成语料后多线程求值，先预热再计时：
+ * closed模式每个线程连续求值（固定并发）；open模式按总速率均匀安排每次求值的计划时间，延迟从计划时间算起，
+ * 求值跟不上时排队的时间也计入延迟（避免协调遗漏），更接近线上请求按到达速率进入的情况。
+ * 输出延迟直方图（p50/p99/p99.9/max）、吞吐、每次求值的分配字节数和分配速率，报告是json，便于不同构建之间对比。
+ * 参数：--engine compiled|matcher|juel --mode closed|open --threads 8 --rate 100000 --warmup 5 --duration 20
+ * --conditions 10000 --inputs 1000 --variables 50 --seed 1 --label 构建标识 --report report.json
+ * @author hu
+ */
+public class LoadDriver {
+
+    /**
+     * 求值引擎
+     */
+    enum Engine {
+        /**
+         * 随机取一个条件，编译后求值
+         */
+        COMPILED,
+        /**
+         * 规则匹配器一次匹配全部条件
+         */
+        MATCHER,
+        /**
+         * 随机取一个条件，生成的表达式按juel求值
+         */
+        JUEL
+    }
+
+    enum Mode {
+        CLOSED,
+        OPEN
+    }
+
+    private final Map<String, String> options;
+    private final Engine engine;
+    private final Mode mode;
+    private final int threads;
+    private final double rate;
+    private final long warmupNanos;
+    private final long durationNanos;
+
+    private CompiledCondition[] compiled;
+    private String[] expressions;
+    private RuleMatcher matcher;
+    private Map<String, Object>[] inputs;
+    private List<ExpressionVariable<?>>[] params;
+    private final Map<String, Object> corpusStats = new LinkedHashMap<>();
+
+    LoadDriver(Map<String, String> options) {
+        this.options = options;
+        this.engine = Engine.valueOf(option("engine", "compiled").toUpperCase());
+        this.mode = Mode.valueOf(option("mode", "closed").toUpperCase());
+        this.threads = Integer.parseInt(option("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        this.rate = Double.parseDouble(option("rate", "100000"));
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(option("warmup", "5")));
+        this.durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(option("duration", "20")));
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    /**
+     * 生成语料和输入，统计分布
+     */
+    @SuppressWarnings("unchecked")
+    void prepare() throws Exception {
+        int conditionCount = Integer.parseInt(option("conditions", "10000"));
+        int inputCount = Integer.parseInt(option("inputs", "1000"));
+        CorpusGenerator generator = new CorpusGenerator(Long.parseLong(option("seed", "1")), Integer.parseInt(option("variables", "50")));
+        compiled = new CompiledCondition[conditionCount];
+        expressions = new String[conditionCount];
+        long clauses = 0;
+        long atoms = 0;
+        Map<String, Long> classes = new TreeMap<>();
+        Map<String, Long> valueTypes = new TreeMap<>();
+        Map<String, Long> operators = new TreeMap<>();
+        for (int i = 0; i < conditionCount; i++) {
+            List<List<ConditionNode>> nodeList = generator.nextCondition();
+            compiled[i] = CompiledCondition.compile(nodeList);
+            expressions[i] = SimpleConditionExpressionParser.generateSimpleExpression(nodeList);
+            clauses += nodeList.size();
+            for (List<ConditionNode> andNodes : nodeList) {
+                atoms += andNodes.size();
+                for (ConditionNode node : andNodes) {
+                    classes.merge(node.getConditionClass().name(), 1L, Long::sum);
+                    valueTypes.merge(node.getValueType().name(), 1L, Long::sum);
+                    operators.merge(node.getOperator().name(), 1L, Long::sum);
+                }
+            }
+        }
+        if (engine == Engine.MATCHER) {
+            matcher = new RuleMatcher(Arrays.asList(compiled));
+        }
+        inputs = new Map[inputCount];
+        params = new List[inputCount];
+        for (int i = 0; i < inputCount; i++) {
+            inputs[i] = generator.nextVariables();
+            params[i] = CorpusGenerator.toExpressionVariables(inputs[i]);
+        }
+        corpusStats.put("conditions", conditionCount);
+        corpusStats.put("inputs", inputCount);
+        corpusStats.put("averageClauses", (double) clauses / conditionCount);
+        corpusStats.put("averageAtoms", (double) atoms / conditionCount);
+        corpusStats.put("conditionClasses", classes);
+        corpusStats.put("valueTypes", valueTypes);
+        corpusStats.put("operators", operators);
+        if (matcher != null) {
+            corpusStats.put("distinctAtoms", matcher.getAtomCount());
+        }
+    }
+
+    /**
+     * 一次求值
+     * @return 满足的条件数，防止求值被优化掉
+     */
+    private int evaluate(SplittableRandom random) throws Exception {
+        int input = random.nextInt(inputs.length);
+        switch (engine) {
+            case MATCHER:
+                return matcher.match(inputs[input]).cardinality();
+            case JUEL:
+                int condition = random.nextInt(expressions.length);
+                return Boolean.parseBoolean(SimpleConditionExpressionParser.getExpressionValue(params[input], expressions[condition])) ? 1 : 0;
+            default:
+                return compiled[random.nextInt(compiled.length)].evaluate(inputs[input]) ? 1 : 0;
+        }
+    }
+
+    /**
+     * 一个压测线程：预热后计时，记录延迟、分配字节数
+     */
+    private final class Worker implements Runnable {
+        private final int id;
+        private final long start;
+        private final CountDownLatch done;
+        final LatencyHistogram histogram = new LatencyHistogram();
+        long allocatedBytes = -1;
+        long matched;
+        long errors;
+        Throwable failure;
+
+        Worker(int id, long start, CountDownLatch done) {
+            this.id = id;
+            this.start = start;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            try {
+                SplittableRandom random = new SplittableRandom(id * 31L + 7);
+                long measureStart = start + warmupNanos;
+                long end = measureStart + durationNanos;
+                // 开环：每个线程分到总速率的1/threads，计划时间错开
+                long interval = mode == Mode.OPEN ? (long) (1e9 * threads / rate) : 0;
+                long intended = start + interval * id / threads;
+                long allocatedAtStart = -1;
+                while (true) {
+                    long now = System.nanoTime();
+                    if (mode == Mode.OPEN) {
+                        while (now < intended) {
+                            LockSupport.parkNanos(intended - now);
+                            now = System.nanoTime();
+                        }
+                    }
+                    long begin = mode == Mode.OPEN ? intended : now;
+                    if (begin >= end) {
+                        break;
+                    }
+                    if (allocatedAtStart < 0 && begin >= measureStart) {
+                        allocatedAtStart = allocatedBytes();
+                    }
+                    try {
+                        matched += evaluate(random);
+                    } catch (Exception e) {
+                        errors++;
+                    }
+                    long latency = System.nanoTime() - begin;
+                    if (begin >= measureStart) {
+                        histogram.record(latency);
+                    }
+                    intended += interval;
+                }
+                if (allocatedAtStart >= 0) {
+                    long allocatedAtEnd = allocatedBytes();
+                    allocatedBytes = allocatedAtEnd < 0 ? -1 : allocatedAtEnd - allocatedAtStart;
+                }
+            } catch (Throwable e) {
+                failure = e;
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+
+    /**
+     * @return 当前线程累计分配的字节数，JVM不支持时返回-1
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+            if (threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled()) {
+                return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 运行压测
+     * @return 报告
+     */
+    Map<String, Object> run() throws Exception {
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        CountDownLatch done = new CountDownLatch(threads);
+        List<Worker> workers = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            Worker worker = new Worker(i, start, done);
+            workers.add(worker);
+            Thread thread = new Thread(worker, "load-driver-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        long allocated = 0;
+        long matched = 0;
+        long errors = 0;
+        for (Worker worker : workers) {
+            if (worker.failure != null) {
+                throw new IllegalStateException("压测线程失败：" + worker.id, worker.failure);
+            }
+            histogram.merge(worker.histogram);
+            allocated = allocated < 0 || worker.allocatedBytes < 0 ? -1 : allocated + worker.allocatedBytes;
+            matched += worker.matched;
+            errors += worker.errors;
+        }
+        double seconds = durationNanos / 1e9;
+        long operations = histogram.getCount();
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("label", option("label", ""));
+        report.put("timestamp", Instant.now().toString());
+        Map<String, Object> environment = new LinkedHashMap<>();
+        environment.put("javaVersion", System.getProperty("java.version"));
+        environment.put("vmName", System.getProperty("java.vm.name"));
+        environment.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+        environment.put("maxHeapBytes", Runtime.getRuntime().maxMemory());
+        environment.put("jvmArguments", ManagementFactory.getRuntimeMXBean().getInputArguments());
+        report.put("environment", environment);
+        Map<String, Object> config = new LinkedHashMap<>();
+        config.put("engine", engine.name().toLowerCase());
+        config.put("mode", mode.name().toLowerCase());
+        config.put("threads", threads);
+        config.put("targetRate", mode == Mode.OPEN ? rate : null);
+        config.put("warmupSeconds", warmupNanos / 1e9);
+        config.put("durationSeconds", seconds);
+        config.put("seed", Long.parseLong(option("seed", "1")));
+        report.put("config", config);
+        report.put("corpus", corpusStats);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("operations", operations);
+        result.put("errors", errors);
+        result.put("matched", matched);
+        result.put("throughput", operations / seconds);
+        result.put("latencyNanos", histogram.summary());
+        Map<String, Object> allocation = new LinkedHashMap<>();
+        allocation.put("supported", allocated >= 0);
+        // 分配字节数包含预热结束后的全部求值，计数按计时区间内的求值
+        allocation.put("bytes", allocated);
+        allocation.put("bytesPerOperation", allocated < 0 || operations == 0 ? null : (double) allocated / operations);
+        allocation.put("megabytesPerSecond", allocated < 0 ? null : allocated / seconds / (1024 * 1024));
+        result.put("allocation", allocation);
+        report.put("result", result);
+        return report;
+    }
+
+    /**
+     * 解析--name value形式的参数
+     */
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("参数格式：--name value，错误的参数：" + args[i]);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadDriver driver = new LoadDriver(parseOptions(args));
+        driver.prepare();
+        Map<String, Object> report = driver.run();
+        String reportPath = driver.options.get("report");
+        if (reportPath == null) {
+            System.out.println(ConditionJson.mapper().writerWithDefaultPrettyPrinter().writeValueAsString(report));
+        } else {
+            ConditionJson.mapper().writerWithDefaultPrettyPrinter().writeValue(new File(reportPath), report);
+            System.out.println("报告已写入：" + reportPath);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.jueldemo;
+
+import com.example.jueldemo.SimpleConditionExpressionParser.*;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * 堆外规则存储的基准：堆内、堆外两种表示的内存占用和GC停顿对比，以及堆外求值耗时
+ * @author hu
+ */
+public class OffHeapBenchmark {
+
+    /**
+     * @param args 规则数量，默认1000000
+     */
+    public static void main(String[] args) throws Exception {
+        int count = args != null && args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        List<List<ConditionNode>> template = SimpleConditionExpressionParser.parseSimpleExpression(
+                "${(amount>1000 && amount<=5000 && region=='east') || (level>=3 && vip==true) || (date3<'2022-01-01' && owner==objectparam.owner)}");
+
+        long base = usedHeap();
+        List<CompiledCondition> onHeap = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            onHeap.add(CompiledCondition.compile(tenantRule(template, i)));
+        }
+        long onHeapBytes = usedHeap() - base;
+        long onHeapGc = gcPause();
+        System.out.println("\n*****堆内规则:\n数量=" + count + " 堆占用=" + onHeapBytes / 1024 / 1024 + "MB Full GC耗时=" + onHeapGc + "ms");
+
+        OffHeapRuleStore store = new OffHeapRuleStore();
+        for (int i = 0; i < onHeap.size(); i++) {
+            store.add(onHeap.get(i));
+        }
+        onHeap.clear();
+        base = usedHeap();
+        long offHeapGc = gcPause();
+        System.out.println("\n*****堆外规则:\n数量=" + store.size() + " 堆外占用=" + store.offHeapBytes() / 1024 / 1024 + "MB 剩余堆占用=" + base / 1024 / 1024 + "MB Full GC耗时=" + offHeapGc + "ms");
+
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("amount", 3000);
+        variables.put("region", "east0");
+        variables.put("level", 2);
+        variables.put("vip", Boolean.TRUE);
+        variables.put("date3", "2021-08-11");
+        variables.put("owner", "hu");
+        variables.put("objectparam", Collections.singletonMap("owner", "hu"));
+        long start = System.nanoTime();
+        int matched = 0;
+        for (int i = 0; i < store.size(); i++) {
+            if (store.evaluate(i, variables)) {
+                matched++;
+            }
+        }
+        System.out.println("\n*****堆外求值:\n命中=" + matched + " 耗时=" + (System.nanoTime() - start) / 1000000 + "ms");
+    }
+
+    private static List<List<ConditionNode>> tenantRule(List<List<ConditionNode>> template, int tenant) {
+        List<List<ConditionNode>> rule = new ArrayList<>(template.size());
+        for (List<ConditionNode> andNodes : template) {
+            List<ConditionNode> copy = new ArrayList<>(andNodes.size());
+            for (ConditionNode node : andNodes) {
+                String value = node.getValue();
+                if (node.getConditionClass() == ConditionClass.NUMBER) {
+                    value = String.valueOf(Long.parseLong(value) + tenant % 1000);
+                } else if (node.getConditionClass() == ConditionClass.STRING) {
+                    value = value + tenant;
+                }
+                copy.add(new ConditionNode(node.getVariable(), node.getOperator(), value, node.getConditionClass(), node.getValueType()));
+            }
+            rule.add(copy);
+        }
+        return rule;
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long gcPause() {
+        long before = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            before += gc.getCollectionTime();
+        }
+        System.gc();
+        long after = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            after += gc.getCollectionTime();
+        }
+        return after - before;
+    }
+}
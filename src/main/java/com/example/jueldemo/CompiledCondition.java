@@ -0,0 +1,759 @@
+package com.example.jueldemo;
+
+import com.example.jueldemo.SimpleConditionExpressionParser.*;
+import de.odysseus.el.misc.BooleanOperations;
+import de.odysseus.el.misc.LocalMessages;
+import de.odysseus.el.misc.TypeConverter;
+import de.odysseus.el.util.SimpleContext;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.el.BeanELResolver;
+import javax.el.PropertyNotFoundException;
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * 编译后的1.0条件表单
+ * 条件表单是“或”连接的多个“与”公式（析取范式），编译时把每个节点转换成原子条件，
+ * 相同的原子条件只保留一份，固定值预先转换成juel字面量的类型，求值时直接按juel的比较语义计算，
+ * 不再经过表达式工厂、上下文和语法树。
+ * 求值顺序与1.0条件表单的juel求值顺序一致，读取的变量不在变量表中时与juel一样抛出PropertyNotFoundException
+ * @author hu
+ */
+public class CompiledCondition implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final TypeConverter CONVERTER = TypeConverter.DEFAULT;
+    // bean属性读取器线程安全，按类缓存属性描述，所有对象参数共用
+    private static final BeanELResolver BEAN_RESOLVER = new BeanELResolver(true);
+
+    // 原子条件，去重后的
+    private final Atom[] atoms;
+    // 或公式，每个或公式是原子条件下标数组
+    private final int[][] clauses;
+    // 条件标识，由原子条件规范文本组成
+    private final String id;
+    // 条件读取的全部变量名
+    private final String[] variables;
+
+    private CompiledCondition(Atom[] atoms, int[][] clauses, String id) {
+        this.atoms = atoms;
+        this.clauses = clauses;
+        this.id = id;
+        this.variables = getVariables().toArray(new String[0]);
+    }
+
+    /**
+     * 编译1.0条件表单
+     * @param nodeList
+     * @return
+     */
+    public static CompiledCondition compile(List<List<ConditionNode>> nodeList) {
+        ConditionEvents.CompileEvent event = new ConditionEvents.CompileEvent();
+        event.begin();
+        CompiledCondition condition = null;
+        try {
+            Compiler compiler = new Compiler(nodeList.size());
+            for (List<ConditionNode> andNodes : nodeList) {
+                compiler.startClause(andNodes.size());
+                for (ConditionNode node : andNodes) {
+                    compiler.add(new Atom(node.getVariable(), node.getOperator(), node.getValue(), node.getConditionClass(), node.getValueType()));
+                }
+            }
+            condition = compiler.build();
+            return condition;
+        } finally {
+            event.record(condition);
+        }
+    }
+
+    /**
+     * 编译简单条件表达式
+     * @param expression
+     * @return
+     * @throws Exception
+     */
+    public static CompiledCondition compile(String expression) throws Exception {
+        return compile(SimpleConditionExpressionParser.parseSimpleExpression(expression));
+    }
+
+    /**
+     * 把条件表达式变量参数转换成变量表，变量名去掉#{}、${}
+     * @param params 条件表达式变量参数，原来的List<ExpressionVariable>也可以直接传入
+     * @return
+     */
+    public static <V extends ExpressionVariable<?>> Map<String, Object> toVariableMap(List<V> params) {
+        Map<String, Object> variables = new HashMap<>();
+        for (ExpressionVariable<?> exp : params) {
+            variables.put(variableName(exp.getVariable()), exp.getValue());
+        }
+        return variables;
+    }
+
+    static String variableName(String variable) {
+        if ((variable.startsWith("#{") || variable.startsWith("${")) && variable.endsWith("}")) {
+            return variable.substring(2, variable.length() - 1).trim();
+        }
+        return variable;
+    }
+
+    /**
+     * 计算条件的值
+     * @param variables 变量表
+     * @return
+     */
+    public boolean evaluate(Map<String, ?> variables) {
+        if (!ConditionEvents.isRecording()) {
+            return matches(variables);
+        }
+        ConditionEvents.EvaluateEvent event = new ConditionEvents.EvaluateEvent();
+        event.begin();
+        Boolean result = null;
+        try {
+            result = matches(variables);
+            return result;
+        } finally {
+            event.record(this, result);
+        }
+    }
+
+    private boolean matches(Map<String, ?> variables) {
+        for (int[] clause : clauses) {
+            boolean matched = true;
+            for (int index : clause) {
+                if (!atoms[index].test(variables)) {
+                    matched = false;
+                    break;
+                }
+            }
+            if (matched) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 条件读取的全部变量名，包括参数、对象参数的根变量
+     * @return
+     */
+    public Set<String> getVariables() {
+        Set<String> variables = new LinkedHashSet<>();
+        for (Atom atom : atoms) {
+            atom.collectVariables(variables);
+        }
+        return variables;
+    }
+
+    /**
+     * @param variables 变量表
+     * @return 条件读取的变量是否都在变量表中，不在时求值可能抛出PropertyNotFoundException
+     */
+    public boolean isBound(Map<String, ?> variables) {
+        return containsAll(variables, this.variables);
+    }
+
+    static boolean containsAll(Map<String, ?> variables, String[] names) {
+        for (String name : names) {
+            if (!variables.containsKey(name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 按juel标识符的规则读取变量：值为null时区分变量不存在，不存在时抛出PropertyNotFoundException
+     */
+    static Object variable(Map<String, ?> variables, String name) {
+        Object value = variables.get(name);
+        if (value == null && !variables.containsKey(name)) {
+            throw new PropertyNotFoundException(LocalMessages.get("error.identifier.property.notfound", name));
+        }
+        return value;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public int getAtomCount() {
+        return atoms.length;
+    }
+
+    public Atom getAtom(int index) {
+        return atoms[index];
+    }
+
+    public int getClauseCount() {
+        return clauses.length;
+    }
+
+    /**
+     * @param clause 或公式下标
+     * @return 或公式包含的原子条件下标
+     */
+    public int[] getClause(int clause) {
+        return clauses[clause].clone();
+    }
+
+    @Override
+    public String toString() {
+        return id;
+    }
+
+    /**
+     * 按juel语义比较两个值
+     */
+    static boolean apply(MyOperator operator, Object left, Object right) {
+        switch (operator) {
+            case EQ:
+                return BooleanOperations.eq(CONVERTER, left, right);
+            case NE:
+                return BooleanOperations.ne(CONVERTER, left, right);
+            case LT:
+                return BooleanOperations.lt(CONVERTER, left, right);
+            case LE:
+                return BooleanOperations.le(CONVERTER, left, right);
+            case GT:
+                return BooleanOperations.gt(CONVERTER, left, right);
+            case GE:
+                return BooleanOperations.ge(CONVERTER, left, right);
+            default:
+                throw new IllegalStateException("不支持的操作符：" + operator.name());
+        }
+    }
+
+    /**
+     * 比较结果转换成操作符的值
+     */
+    static boolean compare(MyOperator operator, int cmp) {
+        switch (operator) {
+            case EQ:
+                return cmp == 0;
+            case NE:
+                return cmp != 0;
+            case LT:
+                return cmp < 0;
+            case LE:
+                return cmp <= 0;
+            case GT:
+                return cmp > 0;
+            case GE:
+                return cmp >= 0;
+            default:
+                throw new IllegalStateException("不支持的操作符：" + operator.name());
+        }
+    }
+
+    /**
+     * 把固定值文本转换成juel解析字面量后的类型：整数Long、小数Double、布尔Boolean、其余字符串
+     */
+    static Object literal(String value, ConditionClass conditionClass) {
+        if (value == null) {
+            return null;
+        }
+        switch (conditionClass) {
+            case NUMBER:
+                Object numberValue = number(value);
+                return numberValue == null ? value : numberValue;
+            case BOOL:
+                return Boolean.valueOf(value);
+            case STRING:
+            case DATE:
+                return value;
+            default:
+                if ("true".equals(value) || "false".equals(value)) {
+                    return Boolean.valueOf(value);
+                }
+                Object number = number(value);
+                return number == null ? value : number;
+        }
+    }
+
+    static boolean isIntegral(Object value) {
+        return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+    }
+
+    private static Object number(String value) {
+        try {
+            if (value.indexOf('.') >= 0 || value.indexOf('e') >= 0 || value.indexOf('E') >= 0) {
+                return Double.valueOf(value);
+            }
+            return Long.valueOf(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 编译过程：合并同一变量的或等式，原子条件去重，生成或公式下标数组和条件标识
+     */
+    private static final class Compiler {
+        private final List<List<Atom>> clauseList;
+
+        Compiler(int clauseCount) {
+            this.clauseList = new ArrayList<>(clauseCount);
+        }
+
+        void startClause(int atomCount) {
+            clauseList.add(new ArrayList<>(atomCount));
+        }
+
+        void add(Atom atom) {
+            clauseList.get(clauseList.size() - 1).add(atom);
+        }
+
+        CompiledCondition build() {
+            List<List<Atom>> clauseAtoms = collapseEqualities(clauseList);
+            Map<String, Integer> atomIndex = new HashMap<>();
+            List<Atom> atomList = new ArrayList<>();
+            int[][] clauses = new int[clauseAtoms.size()][];
+            StringBuilder id = new StringBuilder();
+            for (int c = 0; c < clauses.length; c++) {
+                List<Atom> atoms = clauseAtoms.get(c);
+                if (c > 0) {
+                    id.append(" || ");
+                }
+                id.append('(');
+                clauses[c] = new int[atoms.size()];
+                for (int position = 0; position < atoms.size(); position++) {
+                    Atom atom = atoms.get(position);
+                    Integer index = atomIndex.get(atom.key);
+                    if (index == null) {
+                        index = atomList.size();
+                        atomIndex.put(atom.key, index);
+                        atomList.add(atom);
+                    }
+                    if (position > 0) {
+                        id.append(" && ");
+                    }
+                    id.append(atom.key);
+                    clauses[c][position] = index;
+                }
+                id.append(')');
+            }
+            return new CompiledCondition(atomList.toArray(new Atom[0]), clauses, id.toString());
+        }
+
+        /**
+         * 只有一个固定值等式的或公式，相邻且同一变量、同一变量类型的合并成一个in：
+         * (region=='A') || (region=='B') || ... 变成 (region in ('A', 'B', ...))。
+         * 只合并相邻的或公式，求值顺序不变，中间的或公式抛出异常（如变量不存在）时结果与juel一致
+         */
+        private static List<List<Atom>> collapseEqualities(List<List<Atom>> clauseList) {
+            List<List<Atom>> result = new ArrayList<>(clauseList.size());
+            int from = 0;
+            while (from < clauseList.size()) {
+                List<Atom> atoms = clauseList.get(from);
+                int to = from + 1;
+                if (collapsible(atoms)) {
+                    String key = groupKey(atoms.get(0));
+                    while (to < clauseList.size() && collapsible(clauseList.get(to)) && key.equals(groupKey(clauseList.get(to).get(0)))) {
+                        to++;
+                    }
+                }
+                if (to - from == 1) {
+                    result.add(atoms);
+                } else {
+                    Atom atom = atoms.get(0);
+                    Set<String> values = new LinkedHashSet<>();
+                    for (int c = from; c < to; c++) {
+                        values.add(clauseList.get(c).get(0).value);
+                    }
+                    result.add(Collections.singletonList(new Atom(atom.variable, MyOperator.IN,
+                            SimpleConditionExpressionParser.joinValues(values), atom.conditionClass, ConditionValueType.FIXED)));
+                }
+                from = to;
+            }
+            return clauseList.size() == result.size() ? clauseList : result;
+        }
+
+        private static String groupKey(Atom atom) {
+            return atom.variable + ' ' + atom.conditionClass;
+        }
+
+        private static boolean collapsible(List<Atom> atoms) {
+            if (atoms.size() != 1) {
+                return false;
+            }
+            Atom atom = atoms.get(0);
+            // 拆分值列表时会去掉字符串以外的值的首尾空白
+            return atom.operator == MyOperator.EQ && atom.path == null && atom.value != null
+                    && (atom.conditionClass == ConditionClass.STRING || atom.value.equals(atom.value.trim()));
+        }
+    }
+
+    /**
+     * 原子条件：变量 操作符 值
+     */
+    public static final class Atom implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String variable;
+        private final MyOperator operator;
+        private final ConditionClass conditionClass;
+        private final ConditionValueType valueType;
+        private final String value;
+        // 固定值的字面量
+        private final Object literal;
+        // 参数、对象参数的变量路径
+        private final String[] path;
+        // 规范文本，用于去重
+        private final String key;
+        // 固定值是规范日期时的纪元日，日期按纪元日比较
+        private final int epochDay;
+        // in、not in、between的值列表
+        private final ListValue list;
+
+        Atom(String variable, MyOperator operator, String value, ConditionClass conditionClass, ConditionValueType valueType) {
+            if (operator == null || operator == MyOperator.UNKNOWN) {
+                throw new IllegalArgumentException("不支持的条件节点：" + variable + " " + operator);
+            }
+            this.variable = variable;
+            this.operator = operator;
+            this.conditionClass = conditionClass == null ? ConditionClass.UNKNOWN : conditionClass;
+            this.valueType = valueType == null ? ConditionValueType.FIXED : valueType;
+            this.value = value;
+            if (operator.isList()) {
+                this.list = new ListValue(value == null ? Collections.emptyList() : SimpleConditionExpressionParser.splitValues(value, this.conditionClass),
+                        this.conditionClass, this.valueType);
+                if (operator == MyOperator.BETWEEN && list.size() != 2) {
+                    throw new IllegalArgumentException("between需要两个值：" + variable + " " + value);
+                }
+                this.literal = null;
+                this.path = null;
+                this.epochDay = DateLiterals.NO_DATE;
+                this.key = variable + operator + list.text();
+                return;
+            }
+            this.list = null;
+            if (this.valueType == ConditionValueType.FIXED || value == null) {
+                this.literal = literal(value, this.conditionClass);
+                this.path = null;
+            } else {
+                this.literal = null;
+                this.path = path(value);
+            }
+            this.epochDay = literal instanceof String ? DateLiterals.parse((String) literal) : DateLiterals.NO_DATE;
+            this.key = variable + operator + (path != null ? value : literal instanceof String ? "'" + literal + "'" : String.valueOf(literal));
+        }
+
+        /**
+         * 计算原子条件的值
+         * @param variables 变量表
+         * @return
+         */
+        public boolean test(Map<String, ?> variables) {
+            Object left = variable(variables, this.variable);
+            if (list != null) {
+                switch (operator) {
+                    case IN:
+                        return list.contains(left, variables);
+                    case NOT_IN:
+                        return !list.contains(left, variables);
+                    default:
+                        return list.between(left, variables);
+                }
+            }
+            return test(operator, left, path == null ? literal : resolve(path, variables), epochDay);
+        }
+
+        /**
+         * 按juel语义比较，固定值是规范日期时按纪元日比较，整数之间直接比较
+         */
+        static boolean test(MyOperator operator, Object left, Object right, int epochDay) {
+            if (epochDay != DateLiterals.NO_DATE && left != null) {
+                // juel把日期转成字符串比较，规范日期的字符串顺序与纪元日顺序一致
+                int day = DateLiterals.epochDay(left);
+                if (day != DateLiterals.NO_DATE) {
+                    return compare(operator, Integer.compare(day, epochDay));
+                }
+                if (left instanceof LocalDate) {
+                    return apply(operator, DateLiterals.format((LocalDate) left), right);
+                }
+            }
+            if (right instanceof Long && isIntegral(left)) {
+                return compare(operator, Long.compare(((Number) left).longValue(), (Long) right));
+            }
+            return apply(operator, left, right);
+        }
+
+        /**
+         * 解析右值：固定值直接返回字面量，参数、对象参数从变量表读取
+         */
+        public Object resolveValue(Map<String, ?> variables) {
+            return path == null ? literal : resolve(path, variables);
+        }
+
+        static String[] path(String value) {
+            return StringUtils.split(value.startsWith("#") ? value.substring(1) : value, MySymbol.DOT.toString());
+        }
+
+        static Object resolve(String[] path, Map<String, ?> variables) {
+            Object base = variable(variables, path[0]);
+            for (int i = 1; i < path.length && base != null; i++) {
+                base = property(variables, base, path[i]);
+            }
+            return base;
+        }
+
+        /**
+         * 读取对象参数的属性：变量表实现了{@link PropertyResolver}时由变量表读取
+         */
+        static Object property(Map<String, ?> variables, Object base, String property) {
+            return variables instanceof PropertyResolver ? ((PropertyResolver) variables).property(base, property) : property(base, property);
+        }
+
+        static Object property(Object base, String property) {
+            if (base instanceof Map) {
+                return ((Map<?, ?>) base).get(property);
+            }
+            return BEAN_RESOLVER.getValue(new SimpleContext(), base, property);
+        }
+
+        /**
+         * 原子条件读取的变量名：左边的变量，参数、对象参数的根变量
+         */
+        void collectVariables(Set<String> variables) {
+            variables.add(variable);
+            if (path != null) {
+                variables.add(path[0]);
+            }
+            if (list != null && list.paths != null) {
+                for (String[] listPath : list.paths) {
+                    variables.add(listPath[0]);
+                }
+            }
+        }
+
+        public boolean isFixed() {
+            return list == null ? path == null : list.literals != null;
+        }
+
+        /**
+         * @return 参数、对象参数的变量路径，固定值、值列表返回null
+         */
+        String[] getPath() {
+            return path;
+        }
+
+        /**
+         * @return 固定值是规范日期时的纪元日，否则返回{@link DateLiterals#NO_DATE}
+         */
+        int getEpochDay() {
+            return epochDay;
+        }
+
+        /**
+         * @return in、not in、between的值列表，其余操作符返回null
+         */
+        ListValue getList() {
+            return list;
+        }
+
+        public String getVariable() {
+            return variable;
+        }
+
+        public MyOperator getOperator() {
+            return operator;
+        }
+
+        public ConditionClass getConditionClass() {
+            return conditionClass;
+        }
+
+        public ConditionValueType getValueType() {
+            return valueType;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public Object getLiteral() {
+            return literal;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public String toString() {
+            return key;
+        }
+    }
+
+    /**
+     * 自己读取对象参数属性的变量表，比如按juel上下文的ELResolver读取；其余变量表按Map条目或bean属性读取
+     */
+    interface PropertyResolver {
+        /**
+         * @param base 非null的对象
+         * @param property 属性名
+         * @return
+         */
+        Object property(Object base, String property);
+    }
+
+    /**
+     * in、not in、between的值列表
+     * 固定值预先转换成字面量：全部是字符串或全部是布尔值时放进哈希集合，全部是数值时放进排序数组二分查找，
+     * 其余情况逐个按juel语义比较；between的两个值按区间比较一次
+     */
+    static final class ListValue implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        // 固定值字面量，参数列表为null
+        final Object[] literals;
+        // 参数、对象参数的变量路径，固定值列表为null
+        final String[][] paths;
+        // 固定值是规范日期时的纪元日
+        private final int[] epochDays;
+        // 字符串或布尔值集合
+        private final Set<Object> hashed;
+        // 整数值，已排序
+        private final long[] longs;
+        // 小数值，已排序
+        private final double[] doubles;
+        // 全部数值转成double，已排序
+        private final double[] allDoubles;
+        private final String text;
+
+        ListValue(List<String> values, ConditionClass conditionClass, ConditionValueType valueType) {
+            StringJoiner joiner = new StringJoiner(", ", "(", ")");
+            if (valueType == ConditionValueType.FIXED) {
+                literals = new Object[values.size()];
+                epochDays = new int[values.size()];
+                for (int i = 0; i < literals.length; i++) {
+                    literals[i] = literal(values.get(i), conditionClass);
+                    epochDays[i] = literals[i] instanceof String ? DateLiterals.parse((String) literals[i]) : DateLiterals.NO_DATE;
+                    joiner.add(literals[i] instanceof String ? "'" + literals[i] + "'" : String.valueOf(literals[i]));
+                }
+                paths = null;
+            } else {
+                literals = null;
+                epochDays = null;
+                paths = new String[values.size()][];
+                for (int i = 0; i < paths.length; i++) {
+                    paths[i] = Atom.path(values.get(i));
+                    joiner.add(values.get(i));
+                }
+            }
+            text = joiner.toString();
+            Set<Object> hashed = null;
+            long[] longs = null;
+            double[] doubles = null;
+            double[] allDoubles = null;
+            if (literals != null && literals.length > 0) {
+                Class<?> type = literals[0].getClass();
+                boolean uniform = true;
+                boolean numbers = true;
+                int longCount = 0;
+                for (Object literal : literals) {
+                    uniform &= literal.getClass() == type;
+                    numbers &= literal instanceof Long || literal instanceof Double;
+                    longCount += literal instanceof Long ? 1 : 0;
+                }
+                if (uniform && (type == String.class || type == Boolean.class)) {
+                    hashed = new HashSet<>(Arrays.asList(literals));
+                } else if (numbers) {
+                    longs = new long[longCount];
+                    doubles = new double[literals.length - longCount];
+                    allDoubles = new double[literals.length];
+                    int l = 0;
+                    int d = 0;
+                    for (int i = 0; i < literals.length; i++) {
+                        Number number = (Number) literals[i];
+                        if (number instanceof Long) {
+                            longs[l++] = number.longValue();
+                        } else {
+                            doubles[d++] = number.doubleValue();
+                        }
+                        allDoubles[i] = number.doubleValue();
+                    }
+                    Arrays.sort(longs);
+                    Arrays.sort(doubles);
+                    Arrays.sort(allDoubles);
+                }
+            }
+            this.hashed = hashed;
+            this.longs = longs;
+            this.doubles = doubles;
+            this.allDoubles = allDoubles;
+        }
+
+        int size() {
+            return literals != null ? literals.length : paths.length;
+        }
+
+        String text() {
+            return text;
+        }
+
+        int epochDay(int index) {
+            return epochDays[index];
+        }
+
+        /**
+         * 与逐个==的结果一致
+         */
+        boolean contains(Object left, Map<String, ?> variables) {
+            if (left == null) {
+                // 固定值不会是null；参数可能是null，juel中null==null成立
+                if (literals != null) {
+                    return false;
+                }
+            } else if (hashed != null) {
+                // 字符串与布尔值比较时juel会先转换类型，只有类型相同才能直接查集合
+                if (left.getClass() == literals[0].getClass()) {
+                    return hashed.contains(left);
+                }
+                if (left instanceof LocalDate && literals[0] instanceof String) {
+                    return hashed.contains(DateLiterals.format((LocalDate) left));
+                }
+            } else if (longs != null) {
+                if (isIntegral(left)) {
+                    long value = ((Number) left).longValue();
+                    return Arrays.binarySearch(longs, value) >= 0 || Arrays.binarySearch(doubles, (double) value) >= 0;
+                }
+                if (left instanceof Double || left instanceof Float) {
+                    return Arrays.binarySearch(allDoubles, ((Number) left).doubleValue()) >= 0;
+                }
+            }
+            Object[] values = literals != null ? literals : resolve(variables);
+            for (Object value : values) {
+                if (apply(MyOperator.EQ, left, value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 与 left >= low && left <= high 的结果一致
+         */
+        boolean between(Object left, Map<String, ?> variables) {
+            if (literals != null) {
+                return Atom.test(MyOperator.GE, left, literals[0], epochDays[0]) && Atom.test(MyOperator.LE, left, literals[1], epochDays[1]);
+            }
+            Object[] values = resolve(variables);
+            return Atom.test(MyOperator.GE, left, values[0], DateLiterals.NO_DATE) && Atom.test(MyOperator.LE, left, values[1], DateLiterals.NO_DATE);
+        }
+
+        /**
+         * juel先计算列表中的全部参数再比较，变量不存在时在比较前抛出异常
+         */
+        private Object[] resolve(Map<String, ?> variables) {
+            Object[] values = new Object[paths.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = Atom.resolve(paths[i], variables);
+            }
+            return values;
+        }
+    }
+}
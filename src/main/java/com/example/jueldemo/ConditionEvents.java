@@ -0,0 +1,202 @@
+package com.example.jueldemo;
+
+import jdk.jfr.*;
+
+/**
+ * JFR事件
+ * 生产环境用JFR剖析时，条件表达式的解析、编译、缓存未命中和求值在录制中看不到。这里定义自定义事件，
+ * 记录表达式哈希、长度、原子条件数和结果，持续时间由JFR记录，可以与GC、锁事件放在同一时间线上对照。
+ * 默认只记录超过阈值的慢事件，阈值可以在录制配置中按事件名调整，比如com.example.jueldemo.Evaluate#threshold=0 ms。
+ * 没有开始录制时事件不提交；调用点多态后事件对象不一定能被JIT消除，最热的求值路径先检查{@link #isRecording()}
+ * @author hu
+ */
+public final class ConditionEvents {
+
+    private static final String CATEGORY = "JUEL";
+
+    // 是否有正在进行的录制，录制状态变化时更新
+    private static volatile boolean recording;
+
+    static {
+        FlightRecorder.addListener(new FlightRecorderListener() {
+            @Override
+            public void recordingStateChanged(Recording changed) {
+                updateRecording();
+            }
+        });
+        updateRecording();
+    }
+
+    private ConditionEvents() {
+    }
+
+    private static void updateRecording() {
+        boolean running = false;
+        if (FlightRecorder.isInitialized()) {
+            for (Recording each : FlightRecorder.getFlightRecorder().getRecordings()) {
+                running |= each.getState() == RecordingState.RUNNING;
+            }
+        }
+        recording = running;
+    }
+
+    /**
+     * @return 是否有正在进行的JFR录制，没有时热点路径不创建事件对象
+     */
+    static boolean isRecording() {
+        return recording;
+    }
+
+    private static String outcome(Boolean result) {
+        return result == null ? "error" : result.toString();
+    }
+
+    /**
+     * Scanner/JuelParser解析表达式生成语法树
+     */
+    @Name("com.example.jueldemo.Parse")
+    @Label("条件表达式解析")
+    @Category(CATEGORY)
+    @Threshold("1 ms")
+    public static final class ParseEvent extends Event {
+        @Label("表达式哈希")
+        int expressionHash;
+        @Label("表达式长度")
+        int expressionLength;
+        @Label("结果")
+        String outcome;
+
+        /**
+         * 结束计时，超过阈值时提交
+         * @param expression 表达式
+         * @param parsed 是否解析成功
+         */
+        void record(String expression, boolean parsed) {
+            end();
+            if (shouldCommit()) {
+                expressionHash = expression.hashCode();
+                expressionLength = expression.length();
+                outcome = parsed ? "ok" : "error";
+                commit();
+            }
+        }
+    }
+
+    /**
+     * 条件表单编译成{@link CompiledCondition}
+     */
+    @Name("com.example.jueldemo.Compile")
+    @Label("条件编译")
+    @Category(CATEGORY)
+    @Threshold("1 ms")
+    public static final class CompileEvent extends Event {
+        @Label("条件标识哈希")
+        int expressionHash;
+        @Label("条件标识长度")
+        int expressionLength;
+        @Label("原子条件数")
+        int atomCount;
+        @Label("或公式数")
+        int clauseCount;
+        @Label("结果")
+        String outcome;
+
+        /**
+         * @param condition 编译结果，编译失败时为null
+         */
+        void record(CompiledCondition condition) {
+            end();
+            if (shouldCommit()) {
+                if (condition != null) {
+                    expressionHash = condition.getId().hashCode();
+                    expressionLength = condition.getId().length();
+                    atomCount = condition.getAtomCount();
+                    clauseCount = condition.getClauseCount();
+                }
+                outcome = condition == null ? "error" : "ok";
+                commit();
+            }
+        }
+    }
+
+    /**
+     * 缓存未命中，持续时间包括填充缓存（解析、求值）
+     */
+    @Name("com.example.jueldemo.CacheMiss")
+    @Label("条件缓存未命中")
+    @Category(CATEGORY)
+    @Threshold("1 ms")
+    public static final class CacheMissEvent extends Event {
+        @Label("缓存")
+        String cache;
+        @Label("表达式哈希")
+        int expressionHash;
+        @Label("表达式长度")
+        int expressionLength;
+
+        /**
+         * @param cache 缓存名称
+         * @param expression 未命中的表达式或条件标识
+         */
+        void record(String cache, String expression) {
+            end();
+            if (shouldCommit()) {
+                this.cache = cache;
+                expressionHash = expression.hashCode();
+                expressionLength = expression.length();
+                commit();
+            }
+        }
+    }
+
+    /**
+     * 条件求值：编译后的条件、getExpressionValue
+     */
+    @Name("com.example.jueldemo.Evaluate")
+    @Label("条件求值")
+    @Category(CATEGORY)
+    @Threshold("100 us")
+    public static final class EvaluateEvent extends Event {
+        @Label("表达式哈希")
+        int expressionHash;
+        @Label("表达式长度")
+        int expressionLength;
+        @Label("原子条件数")
+        int atomCount;
+        @Label("是否编译")
+        boolean compiled;
+        @Label("结果")
+        String outcome;
+
+        /**
+         * @param condition 编译后的条件
+         * @param result 求值结果，抛出异常时为null
+         */
+        void record(CompiledCondition condition, Boolean result) {
+            end();
+            if (shouldCommit()) {
+                expressionHash = condition.getId().hashCode();
+                expressionLength = condition.getId().length();
+                atomCount = condition.getAtomCount();
+                compiled = true;
+                outcome = outcome(result);
+                commit();
+            }
+        }
+
+        /**
+         * @param expression 按juel求值的表达式，原子条件数为-1
+         * @param result 求值结果，抛出异常时为null
+         */
+        void record(String expression, Boolean result) {
+            end();
+            if (shouldCommit()) {
+                expressionHash = expression.hashCode();
+                expressionLength = expression.length();
+                atomCount = -1;
+                outcome = outcome(result);
+                commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,373 @@
+package com.example.jueldemo;
+
+import com.example.jueldemo.SimpleConditionExpressionParser.*;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 条件求值解释
+ * 网关走错连线或者求值慢时，getExpressionValue只返回"true"/"false"，看不到内部。解释模式按编译后的求值顺序逐个计算，
+ * 记录每个或公式、原子条件的结果，左右两边解析出的值，是否因短路没有计算，以及纳秒耗时。
+ * 抽样求值每个线程每N次求值解释一次，其余直接求值，只多一次线程内计数，可以在生产环境常开；解释结果交给回调输出。
+ * 不能编译的条件（含函数、算术等）按juel求值，只记录结果和总耗时。
+ * 线程安全
+ * @author hu
+ */
+public class ConditionExplainer {
+
+    /**
+     * 原子条件、或公式的结果
+     */
+    public enum Outcome {
+        PASSED,
+        FAILED,
+        /**
+         * 短路，没有计算
+         */
+        SKIPPED,
+        /**
+         * 计算时抛出异常
+         */
+        ERROR
+    }
+
+    private final int sampleEvery;
+    private final Consumer<Explanation> sink;
+    // 每个线程距离下一次解释的求值次数，线程之间不竞争
+    private final ThreadLocal<int[]> countdown;
+    private final LongAdder sampled = new LongAdder();
+
+    /**
+     * @param sampleEvery 每个线程每N次求值解释一次，1为每次都解释
+     * @param sink 解释结果的输出，比如写日志
+     */
+    public ConditionExplainer(int sampleEvery, Consumer<Explanation> sink) {
+        if (sampleEvery <= 0) {
+            throw new IllegalArgumentException("抽样间隔必须大于0：" + sampleEvery);
+        }
+        this.sampleEvery = sampleEvery;
+        this.sink = sink;
+        this.countdown = ThreadLocal.withInitial(() -> new int[]{sampleEvery});
+    }
+
+    /**
+     * 抽样求值：抽中时解释并输出，结果与直接求值相同
+     * @param condition 编译后的条件
+     * @param variables 变量表
+     * @return
+     */
+    public boolean evaluate(CompiledCondition condition, Map<String, ?> variables) {
+        int[] remaining = countdown.get();
+        if (--remaining[0] > 0) {
+            return condition.evaluate(variables);
+        }
+        remaining[0] = sampleEvery;
+        sampled.increment();
+        Explanation explanation = explain(condition, variables);
+        sink.accept(explanation);
+        if (explanation.error != null) {
+            // 按原来的方式求值，抛出原来的异常
+            return condition.evaluate(variables);
+        }
+        return explanation.result;
+    }
+
+    /**
+     * @return 解释过的求值次数
+     */
+    public long getSampled() {
+        return sampled.sum();
+    }
+
+    /**
+     * 解释条件表达式的求值，与getConditionExpressionValue的结果一致
+     * @param params 条件表达式变量参数
+     * @param expression 条件表达式
+     * @return
+     * @throws Exception juel求值失败
+     */
+    public static <V extends ExpressionVariable<?>> Explanation explain(List<V> params, String expression) throws Exception {
+        CompiledCondition condition = GatewayEvaluator.compile(expression);
+        if (condition != null) {
+            return explain(condition, CompiledCondition.toVariableMap(params), expression);
+        }
+        long start = System.nanoTime();
+        boolean result = Boolean.parseBoolean(SimpleConditionExpressionParser.getConditionExpressionValue(params, expression));
+        return new Explanation(expression, true, result, null, System.nanoTime() - start, Collections.emptyList());
+    }
+
+    /**
+     * 解释编译后的条件的求值
+     * @param condition 编译后的条件
+     * @param variables 变量表
+     * @return
+     */
+    public static Explanation explain(CompiledCondition condition, Map<String, ?> variables) {
+        return explain(condition, variables, condition.getId());
+    }
+
+    private static Explanation explain(CompiledCondition condition, Map<String, ?> variables, String expression) {
+        long start = System.nanoTime();
+        List<ClauseTrace> clauses = new ArrayList<>(condition.getClauseCount());
+        boolean result = false;
+        String error = null;
+        for (int c = 0; c < condition.getClauseCount(); c++) {
+            int[] clause = condition.getClause(c);
+            List<AtomTrace> atoms = new ArrayList<>(clause.length);
+            if (result || error != null) {
+                for (int index : clause) {
+                    atoms.add(AtomTrace.skipped(condition.getAtom(index)));
+                }
+                clauses.add(new ClauseTrace(c, Outcome.SKIPPED, 0, atoms));
+                continue;
+            }
+            long clauseStart = System.nanoTime();
+            Outcome clauseOutcome = Outcome.PASSED;
+            for (int index : clause) {
+                CompiledCondition.Atom atom = condition.getAtom(index);
+                if (clauseOutcome != Outcome.PASSED) {
+                    atoms.add(AtomTrace.skipped(atom));
+                    continue;
+                }
+                AtomTrace trace = AtomTrace.evaluate(atom, variables);
+                atoms.add(trace);
+                if (trace.outcome != Outcome.PASSED) {
+                    clauseOutcome = trace.outcome;
+                    if (trace.outcome == Outcome.ERROR) {
+                        error = trace.error;
+                    }
+                }
+            }
+            clauses.add(new ClauseTrace(c, clauseOutcome, System.nanoTime() - clauseStart, atoms));
+            result = clauseOutcome == Outcome.PASSED;
+        }
+        return new Explanation(expression, false, error == null ? result : null, error, System.nanoTime() - start, clauses);
+    }
+
+    /**
+     * 一次求值的解释
+     */
+    public static final class Explanation {
+        private final String expression;
+        private final boolean interpreted;
+        private final Boolean result;
+        private final String error;
+        private final long nanos;
+        private final List<ClauseTrace> clauses;
+
+        Explanation(String expression, boolean interpreted, Boolean result, String error, long nanos, List<ClauseTrace> clauses) {
+            this.expression = expression;
+            this.interpreted = interpreted;
+            this.result = result;
+            this.error = error;
+            this.nanos = nanos;
+            this.clauses = Collections.unmodifiableList(clauses);
+        }
+
+        /**
+         * @return 条件表达式，直接解释编译后的条件时是条件标识
+         */
+        public String getExpression() {
+            return expression;
+        }
+
+        /**
+         * @return 是否按juel求值，按juel求值时没有或公式明细
+         */
+        public boolean isInterpreted() {
+            return interpreted;
+        }
+
+        /**
+         * @return 求值结果，计算出错时为null
+         */
+        public Boolean getResult() {
+            return result;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * @return 总耗时，包括解析左右两边的值
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        public List<ClauseTrace> getClauses() {
+            return clauses;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(expression).append(" => ").append(error != null ? "ERROR " + error : result)
+                    .append(" (").append(nanos).append("ns").append(interpreted ? ", juel" : "").append(")");
+            for (ClauseTrace clause : clauses) {
+                builder.append("\n  或公式").append(clause.index).append(' ').append(clause.outcome);
+                if (clause.outcome != Outcome.SKIPPED) {
+                    builder.append(' ').append(clause.nanos).append("ns");
+                }
+                for (AtomTrace atom : clause.atoms) {
+                    builder.append("\n    ").append(atom);
+                }
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * 或公式的解释
+     */
+    public static final class ClauseTrace {
+        private final int index;
+        private final Outcome outcome;
+        private final long nanos;
+        private final List<AtomTrace> atoms;
+
+        ClauseTrace(int index, Outcome outcome, long nanos, List<AtomTrace> atoms) {
+            this.index = index;
+            this.outcome = outcome;
+            this.nanos = nanos;
+            this.atoms = Collections.unmodifiableList(atoms);
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public List<AtomTrace> getAtoms() {
+            return atoms;
+        }
+    }
+
+    /**
+     * 原子条件的解释
+     */
+    public static final class AtomTrace {
+        private final String atom;
+        private final String variable;
+        private final MyOperator operator;
+        private final Object left;
+        private final Object right;
+        private final Outcome outcome;
+        private final String error;
+        private final long nanos;
+
+        private AtomTrace(String atom, String variable, MyOperator operator, Object left, Object right, Outcome outcome, String error, long nanos) {
+            this.atom = atom;
+            this.variable = variable;
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+            this.outcome = outcome;
+            this.error = error;
+            this.nanos = nanos;
+        }
+
+        static AtomTrace skipped(CompiledCondition.Atom atom) {
+            return new AtomTrace(atom.getKey(), atom.getVariable(), atom.getOperator(), null, null, Outcome.SKIPPED, null, 0);
+        }
+
+        /**
+         * 先解析左右两边的值，计时只包括原子条件本身的计算
+         */
+        static AtomTrace evaluate(CompiledCondition.Atom atom, Map<String, ?> variables) {
+            Object left = variables.get(atom.getVariable());
+            Object right;
+            try {
+                right = resolveRight(atom, variables);
+            } catch (RuntimeException e) {
+                return new AtomTrace(atom.getKey(), atom.getVariable(), atom.getOperator(), left, null, Outcome.ERROR, String.valueOf(e.getMessage()), 0);
+            }
+            long start = System.nanoTime();
+            try {
+                boolean passed = atom.test(variables);
+                return new AtomTrace(atom.getKey(), atom.getVariable(), atom.getOperator(), left, right,
+                        passed ? Outcome.PASSED : Outcome.FAILED, null, System.nanoTime() - start);
+            } catch (RuntimeException e) {
+                return new AtomTrace(atom.getKey(), atom.getVariable(), atom.getOperator(), left, right,
+                        Outcome.ERROR, String.valueOf(e.getMessage()), System.nanoTime() - start);
+            }
+        }
+
+        /**
+         * 右值：固定值、参数值，值列表按顺序解析成列表
+         */
+        private static Object resolveRight(CompiledCondition.Atom atom, Map<String, ?> variables) {
+            CompiledCondition.ListValue list = atom.getList();
+            if (list == null) {
+                return atom.resolveValue(variables);
+            }
+            if (list.literals != null) {
+                return Arrays.asList(list.literals);
+            }
+            List<Object> values = new ArrayList<>(list.paths.length);
+            for (String[] path : list.paths) {
+                values.add(CompiledCondition.Atom.resolve(path, variables));
+            }
+            return values;
+        }
+
+        /**
+         * @return 原子条件的规范文本
+         */
+        public String getAtom() {
+            return atom;
+        }
+
+        public String getVariable() {
+            return variable;
+        }
+
+        public MyOperator getOperator() {
+            return operator;
+        }
+
+        /**
+         * @return 变量的值，短路时为null
+         */
+        public Object getLeft() {
+            return left;
+        }
+
+        /**
+         * @return 比较的值：固定值、参数的值、值列表，短路时为null
+         */
+        public Object getRight() {
+            return right;
+        }
+
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        @Override
+        public String toString() {
+            if (outcome == Outcome.SKIPPED) {
+                return atom + " SKIPPED";
+            }
+            return atom + " [" + variable + "=" + left + ", 值=" + right + "] " + outcome + (error != null ? " " + error : "") + " " + nanos + "ns";
+        }
+    }
+}
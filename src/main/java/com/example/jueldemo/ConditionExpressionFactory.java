@@ -0,0 +1,307 @@
+package com.example.jueldemo;
+
+import com.example.jueldemo.SimpleConditionExpressionParser.*;
+import de.odysseus.el.ExpressionFactoryImpl;
+import de.odysseus.el.misc.LocalMessages;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.el.*;
+import java.util.*;
+
+/**
+ * 使用条件编译引擎的javax.el表达式工厂
+ * Activiti表达式管理器等只认javax.el的组件自己创建ExpressionFactoryImpl，用不到这里的优化。
+ * 这个工厂通过META-INF/services/javax.el.ExpressionFactory注册，ExpressionFactory.newInstance()按标准查找得到它，
+ * 使用方不用改代码。默认使用juel原来的语法，in、between不是关键字，{@link #withConditionOperators()}才使用条件表达式解析器
+ * （支持in、not in、between，与getConditionExpressionValue共用语法树缓存）。
+ * 期望类型是boolean/Boolean/Object的1.0简单条件表达式（解析后再生成的表达式与原文一致）编译后求值，
+ * 变量按juel的规则解析：先取创建时变量映射中的表达式，再经过上下文的ELResolver，没有解析到时抛出PropertyNotFoundException；
+ * 对象参数的属性同样经过上下文的ELResolver。编译后的求值顺序与juel相同，结果、异常一致；
+ * 做不到一致的（左边不是单个标识符、值列表含参数、数值超出Long）不编译。其余表达式和全部方法表达式交给juel。
+ * 注册文件与juel-spi冲突（查找时只用类路径上第一个），不要同时依赖juel-spi。
+ * 线程安全
+ * @author hu
+ */
+public class ConditionExpressionFactory extends ExpressionFactory {
+
+    private static final int DEFAULT_CACHE_SIZE = 1000;
+    // 不能编译的表达式
+    private static final CompiledCondition NOT_COMPILABLE = CompiledCondition.compile(Collections.emptyList());
+
+    private final ExpressionFactory delegate;
+    // 表达式 -> 编译后的条件，不能编译的为NOT_COMPILABLE
+    private final LinkedHashMap<String, CompiledCondition> compiled;
+
+    /**
+     * 与juel的ExpressionFactoryImpl()一样读取el.properties等配置
+     */
+    public ConditionExpressionFactory() {
+        this(new ExpressionFactoryImpl(), DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * ExpressionFactory.newInstance(Properties)使用的构造方法，属性与juel的ExpressionFactoryImpl(Properties)相同
+     * @param properties
+     */
+    public ConditionExpressionFactory(Properties properties) {
+        this(new ExpressionFactoryImpl(properties), cacheSize(properties));
+    }
+
+    /**
+     * 使用条件表达式解析器，支持in、not in、between，in、between成为关键字，不能再作变量名；
+     * 与getConditionExpressionValue共用表达式工厂和语法树缓存
+     * @return
+     */
+    public static ConditionExpressionFactory withConditionOperators() {
+        return new ConditionExpressionFactory(SimpleConditionExpressionParser.conditionExpressionFactory(), DEFAULT_CACHE_SIZE);
+    }
+
+    private ConditionExpressionFactory(ExpressionFactory delegate, int cacheSize) {
+        this.delegate = delegate;
+        this.compiled = new LinkedHashMap<String, CompiledCondition>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledCondition> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    private static int cacheSize(Properties properties) {
+        return Integer.parseInt(properties.getProperty(ExpressionFactoryImpl.PROP_CACHE_SIZE, String.valueOf(DEFAULT_CACHE_SIZE)));
+    }
+
+    @Override
+    public Object coerceToType(Object obj, Class<?> targetType) {
+        return delegate.coerceToType(obj, targetType);
+    }
+
+    @Override
+    public ValueExpression createValueExpression(ELContext context, String expression, Class<?> expectedType) {
+        // 先由juel解析，语法错误与juel一致
+        ValueExpression tree = delegate.createValueExpression(context, expression, expectedType);
+        if (expectedType != boolean.class && expectedType != Boolean.class && expectedType != Object.class) {
+            return tree;
+        }
+        CompiledCondition condition = compile(expression);
+        if (condition == NOT_COMPILABLE) {
+            return tree;
+        }
+        // 与juel绑定语法树时一样，创建时从变量映射取出表达式中的变量
+        Map<String, ValueExpression> bound = new HashMap<>();
+        VariableMapper variableMapper = context.getVariableMapper();
+        if (variableMapper != null) {
+            for (String variable : condition.getVariables()) {
+                ValueExpression value = variableMapper.resolveVariable(variable);
+                if (value != null) {
+                    bound.put(variable, value);
+                }
+            }
+        }
+        return new CompiledValueExpression(tree, condition, bound);
+    }
+
+    /**
+     * 编译1.0简单条件表达式，不是简单条件表达式时返回NOT_COMPILABLE
+     */
+    private CompiledCondition compile(String expression) {
+        synchronized (compiled) {
+            CompiledCondition condition = compiled.get(expression);
+            if (condition != null) {
+                return condition;
+            }
+        }
+        CompiledCondition condition = NOT_COMPILABLE;
+        // 空表达式在juel中是空文本，转换成false，不是总是满足
+        if (StringUtils.isNotBlank(expression)) {
+            try {
+                List<List<ConditionNode>> nodeList = SimpleConditionExpressionParser.parseSimpleExpression(expression);
+                if (expression.equals(SimpleConditionExpressionParser.generateSimpleExpression(nodeList))) {
+                    CompiledCondition candidate = CompiledCondition.compile(nodeList);
+                    if (sameAsTree(candidate)) {
+                        condition = candidate;
+                    }
+                }
+            } catch (Exception e) {
+                // 不是简单条件表达式
+            }
+        }
+        synchronized (compiled) {
+            compiled.put(expression, condition);
+        }
+        return condition;
+    }
+
+    /**
+     * 编译后的求值与juel语法树的求值是否一致：
+     * 左边是单个标识符（juel按属性链求值a.b）；值列表只有固定值（juel先计算全部参数再比较）；
+     * 数值字面量都能转换成juel解析出的Long、Double
+     */
+    private static boolean sameAsTree(CompiledCondition condition) {
+        for (int i = 0; i < condition.getAtomCount(); i++) {
+            CompiledCondition.Atom atom = condition.getAtom(i);
+            if (!isIdentifier(atom.getVariable())) {
+                return false;
+            }
+            CompiledCondition.ListValue list = atom.getList();
+            if (list != null) {
+                if (list.literals == null) {
+                    return false;
+                }
+                for (Object literal : list.literals) {
+                    if (atom.getConditionClass() == ConditionClass.NUMBER && !(literal instanceof Number)) {
+                        return false;
+                    }
+                }
+            } else if (atom.isFixed() && atom.getConditionClass() == ConditionClass.NUMBER && !(atom.getLiteral() instanceof Number)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isIdentifier(String name) {
+        if (StringUtils.isEmpty(name) || !Character.isJavaIdentifierStart(name.charAt(0))) {
+            return false;
+        }
+        for (int i = 1; i < name.length(); i++) {
+            if (!Character.isJavaIdentifierPart(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public ValueExpression createValueExpression(Object instance, Class<?> expectedType) {
+        return delegate.createValueExpression(instance, expectedType);
+    }
+
+    @Override
+    public MethodExpression createMethodExpression(ELContext context, String expression, Class<?> expectedReturnType, Class<?>[] expectedParamTypes) {
+        return delegate.createMethodExpression(context, expression, expectedReturnType, expectedParamTypes);
+    }
+
+    /**
+     * 编译后求值的条件表达式，取值以外的操作交给juel的表达式
+     */
+    static final class CompiledValueExpression extends ValueExpression {
+        private static final long serialVersionUID = 1L;
+
+        private final ValueExpression tree;
+        private final CompiledCondition condition;
+        // 创建时变量映射中的变量
+        private final Map<String, ValueExpression> bound;
+
+        CompiledValueExpression(ValueExpression tree, CompiledCondition condition, Map<String, ValueExpression> bound) {
+            this.tree = tree;
+            this.condition = condition;
+            this.bound = bound;
+        }
+
+        @Override
+        public Object getValue(ELContext context) {
+            return condition.evaluate(new ContextVariables(context, bound));
+        }
+
+        @Override
+        public void setValue(ELContext context, Object value) {
+            tree.setValue(context, value);
+        }
+
+        @Override
+        public boolean isReadOnly(ELContext context) {
+            return tree.isReadOnly(context);
+        }
+
+        @Override
+        public Class<?> getType(ELContext context) {
+            return tree.getType(context);
+        }
+
+        @Override
+        public Class<?> getExpectedType() {
+            return tree.getExpectedType();
+        }
+
+        @Override
+        public ValueReference getValueReference(ELContext context) {
+            return tree.getValueReference(context);
+        }
+
+        @Override
+        public String getExpressionString() {
+            return tree.getExpressionString();
+        }
+
+        @Override
+        public boolean isLiteralText() {
+            return false;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof CompiledValueExpression) {
+                return tree.equals(((CompiledValueExpression) obj).tree);
+            }
+            return tree.equals(obj);
+        }
+
+        @Override
+        public int hashCode() {
+            return tree.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "CompiledValueExpression(" + tree.getExpressionString() + ")";
+        }
+    }
+
+    /**
+     * 按juel标识符、属性的规则读取变量的变量表，只实现求值用到的get
+     */
+    private static final class ContextVariables extends AbstractMap<String, Object> implements CompiledCondition.PropertyResolver {
+        private final ELContext context;
+        private final Map<String, ValueExpression> bound;
+
+        ContextVariables(ELContext context, Map<String, ValueExpression> bound) {
+            this.context = context;
+            this.bound = bound;
+        }
+
+        @Override
+        public Object get(Object key) {
+            String name = (String) key;
+            ValueExpression expression = bound.get(name);
+            if (expression != null) {
+                return expression.getValue(context);
+            }
+            context.setPropertyResolved(false);
+            Object value = context.getELResolver().getValue(context, null, name);
+            if (!context.isPropertyResolved()) {
+                throw new PropertyNotFoundException(LocalMessages.get("error.identifier.property.notfound", name));
+            }
+            return value;
+        }
+
+        @Override
+        public Object property(Object base, String property) {
+            context.setPropertyResolved(false);
+            Object value = context.getELResolver().getValue(context, base, property);
+            if (!context.isPropertyResolved()) {
+                throw new PropertyNotFoundException(LocalMessages.get("error.property.property.notfound", property, base));
+            }
+            return value;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return true;
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            throw new UnsupportedOperationException("只能按变量名读取");
+        }
+    }
+}
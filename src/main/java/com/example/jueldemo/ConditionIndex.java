@@ -0,0 +1,530 @@
+package com.example.jueldemo;
+
+import com.example.jueldemo.SimpleConditionExpressionParser.*;
+
+import javax.el.ELException;
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * 流程实例变量倒排索引
+ * 用来回答“哪些实例当前满足这个条件”，不需要逐个实例调用getExpressionValue：
+ * 每个变量维护值字典和实例位图（等值、空值），范围条件使用按值排序的数组，
+ * 编译后的条件按或公式做位图与、或运算，参数、对象参数等无法索引的原子条件再按候选实例的变量快照逐个计算。
+ * 非线程安全，外部需要自行同步
+ * @author hu
+ */
+public class ConditionIndex implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // 实例ID -> 序号
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    // 序号 -> 实例ID
+    private final List<String> instanceIds = new ArrayList<>();
+    // 序号 -> 变量快照
+    private final List<Map<String, Object>> snapshots = new ArrayList<>();
+    // 有效实例
+    private final BitSet live = new BitSet();
+    // 变量名 -> 变量索引
+    private final Map<String, VariableIndex> variables = new HashMap<>();
+
+    /**
+     * 根据实例变量快照构建索引
+     * @param instances 实例ID -> 变量表
+     * @return
+     */
+    public static ConditionIndex build(Map<String, ? extends Map<String, ?>> instances) {
+        ConditionIndex index = new ConditionIndex();
+        for (Map.Entry<String, ? extends Map<String, ?>> entry : instances.entrySet()) {
+            index.put(entry.getKey(), entry.getValue());
+        }
+        return index;
+    }
+
+    /**
+     * 新增或替换实例的变量快照
+     * @param instanceId
+     * @param snapshot
+     */
+    public void put(String instanceId, Map<String, ?> snapshot) {
+        Integer ordinal = ordinals.get(instanceId);
+        if (ordinal != null) {
+            Map<String, Object> current = snapshots.get(ordinal);
+            for (String name : new ArrayList<>(current.keySet())) {
+                if (!snapshot.containsKey(name)) {
+                    update(ordinal, name, null);
+                }
+            }
+            for (Map.Entry<String, ?> entry : snapshot.entrySet()) {
+                update(ordinal, entry.getKey(), entry.getValue());
+            }
+            return;
+        }
+        ordinal = instanceIds.size();
+        ordinals.put(instanceId, ordinal);
+        instanceIds.add(instanceId);
+        snapshots.add(new HashMap<>());
+        live.set(ordinal);
+        for (Map.Entry<String, ?> entry : snapshot.entrySet()) {
+            update(ordinal, entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * 增量更新实例的一个变量
+     * @param instanceId
+     * @param variable
+     * @param value
+     */
+    public void update(String instanceId, String variable, Object value) {
+        Integer ordinal = ordinals.get(instanceId);
+        if (ordinal == null) {
+            put(instanceId, Collections.singletonMap(variable, value));
+        } else {
+            update(ordinal, variable, value);
+        }
+    }
+
+    /**
+     * 移除实例，序号不再复用
+     * @param instanceId
+     */
+    public void remove(String instanceId) {
+        Integer ordinal = ordinals.remove(instanceId);
+        if (ordinal == null) {
+            return;
+        }
+        Map<String, Object> snapshot = snapshots.get(ordinal);
+        for (Map.Entry<String, Object> entry : snapshot.entrySet()) {
+            variables.get(entry.getKey()).remove(ordinal, entry.getValue());
+        }
+        snapshots.set(ordinal, Collections.emptyMap());
+        instanceIds.set(ordinal, null);
+        live.clear(ordinal);
+    }
+
+    private void update(int ordinal, String variable, Object value) {
+        Map<String, Object> snapshot = snapshots.get(ordinal);
+        Object old = snapshot.get(variable);
+        if (Objects.equals(old, value)) {
+            return;
+        }
+        VariableIndex variableIndex = variables.computeIfAbsent(variable, k -> new VariableIndex());
+        variableIndex.remove(ordinal, old);
+        variableIndex.add(ordinal, value);
+        if (value == null) {
+            snapshot.remove(variable);
+        } else {
+            snapshot.put(variable, value);
+        }
+    }
+
+    /**
+     * 实例数量
+     * @return
+     */
+    public int size() {
+        return ordinals.size();
+    }
+
+    /**
+     * 查询满足条件的实例ID
+     * @param condition
+     * @return
+     */
+    public List<String> query(CompiledCondition condition) {
+        BitSet matched = match(condition);
+        List<String> result = new ArrayList<>(matched.cardinality());
+        for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) {
+            result.add(instanceIds.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * 查询满足条件的实例序号位图
+     * @param condition
+     * @return
+     */
+    public BitSet match(CompiledCondition condition) {
+        BitSet[] atomBits = new BitSet[condition.getAtomCount()];
+        boolean[] evaluated = new boolean[condition.getAtomCount()];
+        BitSet result = new BitSet();
+        for (int c = 0; c < condition.getClauseCount(); c++) {
+            BitSet bits = (BitSet) live.clone();
+            List<CompiledCondition.Atom> residual = new ArrayList<>();
+            for (int a : condition.getClause(c)) {
+                if (!evaluated[a]) {
+                    atomBits[a] = match(condition.getAtom(a));
+                    evaluated[a] = true;
+                }
+                if (atomBits[a] == null) {
+                    residual.add(condition.getAtom(a));
+                } else {
+                    bits.and(atomBits[a]);
+                }
+                if (bits.isEmpty()) {
+                    break;
+                }
+            }
+            if (!residual.isEmpty()) {
+                for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+                    Map<String, Object> snapshot = new NullableSnapshot(snapshots.get(i));
+                    for (CompiledCondition.Atom atom : residual) {
+                        if (!test(atom, snapshot)) {
+                            bits.clear(i);
+                            break;
+                        }
+                    }
+                }
+            }
+            result.or(bits);
+        }
+        return result;
+    }
+
+    /**
+     * 通过索引计算原子条件，参数、对象参数、not in返回null
+     * in按各个值的等式结果合并，between取两个边界结果的交集
+     */
+    private BitSet match(CompiledCondition.Atom atom) {
+        if (!atom.isFixed() || atom.getOperator() == MyOperator.NOT_IN) {
+            return null;
+        }
+        VariableIndex variableIndex = variables.get(atom.getVariable());
+        if (variableIndex == null) {
+            variableIndex = VariableIndex.EMPTY;
+        }
+        if (atom.getOperator() == MyOperator.IN) {
+            BitSet result = new BitSet();
+            for (Object literal : atom.getList().literals) {
+                result.or(variableIndex.match(MyOperator.EQ, literal, live));
+            }
+            return result;
+        }
+        if (atom.getOperator() == MyOperator.BETWEEN) {
+            Object[] literals = atom.getList().literals;
+            BitSet result = variableIndex.match(MyOperator.GE, literals[0], live);
+            result.and(variableIndex.match(MyOperator.LE, literals[1], live));
+            return result;
+        }
+        return variableIndex.match(atom.getOperator(), atom.getLiteral(), live);
+    }
+
+    private static boolean test(CompiledCondition.Atom atom, Map<String, Object> snapshot) {
+        try {
+            return atom.test(snapshot);
+        } catch (ELException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 变量快照不保存null值，没有的变量按null读取，与索引的空值位图一致，不抛出PropertyNotFoundException
+     */
+    private static final class NullableSnapshot extends AbstractMap<String, Object> {
+        private final Map<String, Object> snapshot;
+
+        NullableSnapshot(Map<String, Object> snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public Object get(Object key) {
+            return snapshot.get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return true;
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return snapshot.entrySet();
+        }
+    }
+
+    /**
+     * 保存到本地文件
+     * @param file
+     * @throws IOException
+     */
+    public void save(Path file) throws IOException {
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeObject(this);
+        }
+    }
+
+    /**
+     * 从本地文件加载
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static ConditionIndex load(Path file) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            return (ConditionIndex) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * 值的种类，同一种类的值比较结果与字典键比较结果一致
+     */
+    enum Kind {
+        NUMBER,
+        STRING,
+        BOOLEAN,
+        OTHER,
+        ;
+
+        static Kind of(Object value) {
+            if (value instanceof String) {
+                return STRING;
+            }
+            if (value instanceof Boolean) {
+                return BOOLEAN;
+            }
+            if (value instanceof Number) {
+                if (value instanceof Double || value instanceof Float) {
+                    double d = ((Number) value).doubleValue();
+                    return Double.isNaN(d) || Double.isInfinite(d) ? OTHER : NUMBER;
+                }
+                return NUMBER;
+            }
+            return OTHER;
+        }
+
+        /**
+         * 字典键，数值统一成去掉末尾0的BigDecimal
+         */
+        static Object key(Kind kind, Object value) {
+            if (kind != NUMBER) {
+                return value;
+            }
+            BigDecimal decimal;
+            if (value instanceof BigDecimal) {
+                decimal = (BigDecimal) value;
+            } else if (value instanceof BigInteger) {
+                decimal = new BigDecimal((BigInteger) value);
+            } else if (value instanceof Double || value instanceof Float) {
+                decimal = BigDecimal.valueOf(((Number) value).doubleValue());
+            } else {
+                decimal = BigDecimal.valueOf(((Number) value).longValue());
+            }
+            return decimal.signum() == 0 ? BigDecimal.ZERO : decimal.stripTrailingZeros();
+        }
+    }
+
+    /**
+     * 字典项：持有该键的实例位图，以及各个原始值的实例位图
+     * 同一个键下可能有不同类型的值（如Integer 5、Double 5.0），与字符串等比较时juel按类型转换，结果不一定相同，
+     * 种类混杂时按原始值逐个比较
+     */
+    static final class Posting implements Serializable {
+        private static final long serialVersionUID = 2L;
+        final Object key;
+        final BitSet ordinals = new BitSet();
+        // 原始值 -> 持有该值的实例位图
+        final Map<Object, BitSet> values = new HashMap<>(2);
+
+        Posting(Object key) {
+            this.key = key;
+        }
+
+        void add(int ordinal, Object value) {
+            ordinals.set(ordinal);
+            values.computeIfAbsent(value, v -> new BitSet()).set(ordinal);
+        }
+
+        void remove(int ordinal, Object value) {
+            ordinals.clear(ordinal);
+            BitSet holders = values.get(value);
+            if (holders != null) {
+                holders.clear(ordinal);
+                if (holders.isEmpty()) {
+                    values.remove(value);
+                }
+            }
+        }
+    }
+
+    /**
+     * 单个变量的索引
+     */
+    static final class VariableIndex implements Serializable {
+        private static final long serialVersionUID = 1L;
+        static final VariableIndex EMPTY = new VariableIndex();
+
+        // 值字典
+        private final Map<Object, Posting> dictionary = new HashMap<>();
+        // 各种类字典项数量
+        private final int[] kindCounts = new int[Kind.values().length];
+        // 非空值实例
+        private final BitSet present = new BitSet();
+        // 按值排序的字典项，字典变化后重建
+        private transient Posting[] sorted;
+
+        void add(int ordinal, Object value) {
+            if (value == null) {
+                return;
+            }
+            Kind kind = Kind.of(value);
+            Object key = Kind.key(kind, value);
+            Posting posting = dictionary.get(key);
+            if (posting == null) {
+                posting = new Posting(key);
+                dictionary.put(key, posting);
+                kindCounts[kind.ordinal()]++;
+                sorted = null;
+            }
+            posting.add(ordinal, value);
+            present.set(ordinal);
+        }
+
+        void remove(int ordinal, Object value) {
+            if (value == null) {
+                return;
+            }
+            Kind kind = Kind.of(value);
+            Posting posting = dictionary.get(Kind.key(kind, value));
+            if (posting == null) {
+                return;
+            }
+            posting.remove(ordinal, value);
+            present.clear(ordinal);
+            if (posting.ordinals.isEmpty()) {
+                dictionary.remove(posting.key);
+                kindCounts[kind.ordinal()]--;
+                sorted = null;
+            }
+        }
+
+        /**
+         * 字典中只有指定种类的值
+         */
+        private boolean uniform(Kind kind) {
+            return kindCounts[kind.ordinal()] == dictionary.size();
+        }
+
+        BitSet match(MyOperator operator, Object literal, BitSet live) {
+            BitSet nulls = (BitSet) live.clone();
+            nulls.andNot(present);
+            if (literal == null) {
+                // juel：x==null、x<=null、x>=null 仅在x为空时成立；x<null、x>null 恒不成立
+                switch (operator) {
+                    case EQ:
+                    case LE:
+                    case GE:
+                        return nulls;
+                    case NE:
+                        return (BitSet) present.clone();
+                    default:
+                        return new BitSet();
+                }
+            }
+            Kind kind = Kind.of(literal);
+            BitSet result;
+            if ((operator == MyOperator.EQ || operator == MyOperator.NE) && kind != Kind.OTHER && uniform(kind)) {
+                Posting posting = dictionary.get(Kind.key(kind, literal));
+                result = posting == null ? new BitSet() : (BitSet) posting.ordinals.clone();
+                if (operator == MyOperator.NE) {
+                    BitSet ne = (BitSet) live.clone();
+                    ne.andNot(result);
+                    return ne;
+                }
+                return result;
+            }
+            if ((kind == Kind.NUMBER || kind == Kind.STRING) && uniform(kind) && operator != MyOperator.EQ && operator != MyOperator.NE) {
+                return range(operator, Kind.key(kind, literal));
+            }
+            // 种类混杂时逐个字典项按juel语义比较，代价与不同值的个数成正比
+            result = new BitSet();
+            for (Posting posting : dictionary.values()) {
+                for (Map.Entry<Object, BitSet> value : posting.values.entrySet()) {
+                    boolean matched;
+                    try {
+                        matched = CompiledCondition.apply(operator, value.getKey(), literal);
+                    } catch (ELException e) {
+                        matched = false;
+                    }
+                    if (matched) {
+                        result.or(value.getValue());
+                    }
+                }
+            }
+            if (CompiledCondition.apply(operator, null, literal)) {
+                result.or(nulls);
+            }
+            return result;
+        }
+
+        /**
+         * 在排序数组上二分查找范围边界
+         */
+        @SuppressWarnings("unchecked")
+        private BitSet range(MyOperator operator, Object key) {
+            Posting[] postings = sorted();
+            Comparable<Object> bound = (Comparable<Object>) key;
+            int from = 0;
+            int to = postings.length;
+            switch (operator) {
+                case LT:
+                    to = lowerBound(postings, bound, false);
+                    break;
+                case LE:
+                    to = lowerBound(postings, bound, true);
+                    break;
+                case GT:
+                    from = lowerBound(postings, bound, true);
+                    break;
+                case GE:
+                    from = lowerBound(postings, bound, false);
+                    break;
+                default:
+                    break;
+            }
+            BitSet result = new BitSet();
+            for (int i = from; i < to; i++) {
+                result.or(postings[i].ordinals);
+            }
+            return result;
+        }
+
+        /**
+         * @param inclusive true时返回第一个大于key的位置，否则返回第一个大于等于key的位置
+         */
+        @SuppressWarnings("unchecked")
+        private static int lowerBound(Posting[] postings, Comparable<Object> key, boolean inclusive) {
+            int low = 0;
+            int high = postings.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                int cmp = ((Comparable<Object>) postings[mid].key).compareTo(key);
+                if (cmp < 0 || (inclusive && cmp == 0)) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Posting[] sorted() {
+            if (sorted == null) {
+                Posting[] postings = dictionary.values().toArray(new Posting[0]);
+                Arrays.sort(postings, (a, b) -> ((Comparable<Object>) a.key).compareTo(b.key));
+                sorted = postings;
+            }
+            return sorted;
+        }
+    }
+}
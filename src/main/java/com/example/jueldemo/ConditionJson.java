@@ -0,0 +1,255 @@
+package com.example.jueldemo;
+
+import com.example.jueldemo.SimpleConditionExpressionParser.*;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.*;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 条件表单json编解码
+ * ObjectMapper创建代价很高，这里共用一个预先配置好的实例，缓存List<List<ConditionNode>>的ObjectReader/ObjectWriter，
+ * ConditionNode和各枚举使用手写的流式序列化器，不走反射；另外提供按行分隔的json（NDJSON）批量读写，
+ * 用于导入导出大批流程定义的条件。输出格式与原来new ObjectMapper()的结果一致
+ * @author hu
+ */
+public final class ConditionJson {
+
+    private static final TypeReference<List<List<ConditionNode>>> NODE_LIST_TYPE = new TypeReference<List<List<ConditionNode>>>() {
+    };
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().registerModule(new SimpleModule("ConditionJson")
+            .addSerializer(ConditionNode.class, new ConditionNodeSerializer())
+            .addDeserializer(ConditionNode.class, new ConditionNodeDeserializer())
+            .addSerializer(MyOperator.class, new EnumNameSerializer<>(MyOperator.class))
+            .addSerializer(ConditionClass.class, new EnumNameSerializer<>(ConditionClass.class))
+            .addSerializer(ConditionValueType.class, new EnumNameSerializer<>(ConditionValueType.class)));
+
+    private static final ObjectReader NODE_LIST_READER = MAPPER.readerFor(NODE_LIST_TYPE);
+    private static final ObjectWriter NODE_LIST_WRITER = MAPPER.writerFor(NODE_LIST_TYPE);
+    private static final ObjectWriter NODE_WRITER = MAPPER.writerFor(ConditionNode.class);
+    // 按行写出时每个值后面写换行，不在每个值后面刷新
+    private static final ObjectWriter NODE_LIST_LINE_WRITER = NODE_LIST_WRITER.without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    private static final ObjectWriter LINE_WRITER = MAPPER.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    private ConditionJson() {
+    }
+
+    /**
+     * 共用的ObjectMapper，只读使用，不要再修改配置
+     * @return
+     */
+    public static ObjectMapper mapper() {
+        return MAPPER;
+    }
+
+    /**
+     * 条件表单转json
+     * @param nodeList
+     * @return
+     * @throws JsonProcessingException
+     */
+    public static String write(List<List<ConditionNode>> nodeList) throws JsonProcessingException {
+        return NODE_LIST_WRITER.writeValueAsString(nodeList);
+    }
+
+    /**
+     * 条件节点转json
+     * @param node
+     * @return
+     * @throws JsonProcessingException
+     */
+    public static String write(ConditionNode node) throws JsonProcessingException {
+        return NODE_WRITER.writeValueAsString(node);
+    }
+
+    /**
+     * json转条件表单
+     * @param json
+     * @return
+     * @throws JsonProcessingException
+     */
+    public static List<List<ConditionNode>> read(String json) throws JsonProcessingException {
+        return NODE_LIST_READER.readValue(json);
+    }
+
+    /**
+     * 批量写出条件表单，每行一个
+     * @param nodeLists
+     * @param out 不会被关闭
+     * @throws IOException
+     */
+    public static void writeLines(Iterable<? extends List<List<ConditionNode>>> nodeLists, OutputStream out) throws IOException {
+        try (JsonGenerator generator = lineGenerator(out)) {
+            for (List<List<ConditionNode>> nodeList : nodeLists) {
+                NODE_LIST_LINE_WRITER.writeValue(generator, nodeList);
+                generator.writeRaw('\n');
+            }
+        }
+    }
+
+    /**
+     * 批量写出任意值（例如求值结果），每行一个
+     * @param values
+     * @param out 不会被关闭
+     * @throws IOException
+     */
+    public static void writeValueLines(Iterable<?> values, OutputStream out) throws IOException {
+        try (JsonGenerator generator = lineGenerator(out)) {
+            for (Object value : values) {
+                LINE_WRITER.writeValue(generator, value);
+                generator.writeRaw('\n');
+            }
+        }
+    }
+
+    /**
+     * 按行写出用的生成器：换行由调用方写在每个值后面，不使用根值分隔符；关闭时刷新但不关闭输出流
+     */
+    private static JsonGenerator lineGenerator(OutputStream out) throws IOException {
+        JsonGenerator generator = MAPPER.getFactory().createGenerator(out);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.setRootValueSeparator(null);
+        return generator;
+    }
+
+    /**
+     * 批量读取每行一个的条件表单
+     * @param in 不会被关闭
+     * @param consumer
+     * @return 读取的条件表单数量
+     * @throws IOException
+     */
+    public static long readLines(InputStream in, Consumer<List<List<ConditionNode>>> consumer) throws IOException {
+        long count = 0;
+        try (JsonParser parser = MAPPER.getFactory().createParser(in)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            MappingIterator<List<List<ConditionNode>>> iterator = NODE_LIST_READER.readValues(parser);
+            while (iterator.hasNextValue()) {
+                consumer.accept(iterator.nextValue());
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * ConditionNode流式序列化，字段顺序与bean序列化一致
+     */
+    static final class ConditionNodeSerializer extends JsonSerializer<ConditionNode> {
+        @Override
+        public void serialize(ConditionNode node, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+            gen.writeStartObject();
+            gen.writeStringField("variable", node.getVariable());
+            writeEnum(gen, "operator", node.getOperator());
+            gen.writeStringField("value", node.getValue());
+            writeEnum(gen, "conditionClass", node.getConditionClass());
+            writeEnum(gen, "valueType", node.getValueType());
+            gen.writeEndObject();
+        }
+
+        private static void writeEnum(JsonGenerator gen, String field, Enum<?> value) throws IOException {
+            if (value == null) {
+                gen.writeNullField(field);
+            } else {
+                gen.writeStringField(field, value.name());
+            }
+        }
+    }
+
+    /**
+     * ConditionNode流式反序列化，未知字段忽略
+     */
+    static final class ConditionNodeDeserializer extends JsonDeserializer<ConditionNode> {
+        @Override
+        public ConditionNode deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            if (p.currentToken() != JsonToken.START_OBJECT) {
+                return (ConditionNode) ctxt.handleUnexpectedToken(ConditionNode.class, p);
+            }
+            ConditionNode node = new ConditionNode();
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                p.nextToken();
+                switch (field) {
+                    case "variable":
+                        node.setVariable(text(p, ctxt, field));
+                        break;
+                    case "operator":
+                        node.setOperator(enumValue(ctxt, MyOperator.class, text(p, ctxt, field)));
+                        break;
+                    case "value":
+                        node.setValue(text(p, ctxt, field));
+                        break;
+                    case "conditionClass":
+                        node.setConditionClass(enumValue(ctxt, ConditionClass.class, text(p, ctxt, field)));
+                        break;
+                    case "valueType":
+                        node.setValueType(enumValue(ctxt, ConditionValueType.class, text(p, ctxt, field)));
+                        break;
+                    default:
+                        p.skipChildren();
+                        break;
+                }
+            }
+            return node;
+        }
+
+        /**
+         * 已知字段的值只能是标量或null，对象、数组按输入错误处理
+         */
+        private static String text(JsonParser p, DeserializationContext ctxt, String field) throws IOException {
+            JsonToken token = p.currentToken();
+            if (token == JsonToken.VALUE_NULL) {
+                return null;
+            }
+            if (token.isScalarValue()) {
+                return p.getText();
+            }
+            Object value = ctxt.handleUnexpectedToken(String.class, token, p, "字段%s的值不能是%s", field, token);
+            // 处理器没有抛出异常时跳过整个值，继续读取下一个字段
+            p.skipChildren();
+            return value == null ? null : value.toString();
+        }
+
+        private static <E extends Enum<E>> E enumValue(DeserializationContext ctxt, Class<E> type, String text) throws IOException {
+            if (text == null) {
+                return null;
+            }
+            try {
+                return Enum.valueOf(type, text);
+            } catch (IllegalArgumentException e) {
+                throw ctxt.weirdStringException(text, type, "not one of the values accepted for Enum class");
+            }
+        }
+    }
+
+    /**
+     * 枚举按name()输出
+     */
+    static final class EnumNameSerializer<E extends Enum<E>> extends JsonSerializer<E> {
+        private final Class<E> type;
+
+        EnumNameSerializer(Class<E> type) {
+            this.type = type;
+        }
+
+        @Override
+        public void serialize(E value, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+            gen.writeString(value.name());
+        }
+
+        @Override
+        public Class<E> handledType() {
+            return type;
+        }
+    }
+}
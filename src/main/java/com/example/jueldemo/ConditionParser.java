@@ -0,0 +1,167 @@
+package com.example.jueldemo;
+
+import de.odysseus.el.misc.BooleanOperations;
+import de.odysseus.el.tree.Bindings;
+import de.odysseus.el.tree.Tree;
+import de.odysseus.el.tree.TreeBuilderException;
+import de.odysseus.el.tree.impl.Builder;
+import de.odysseus.el.tree.impl.ast.AstBinary;
+import de.odysseus.el.tree.impl.ast.AstFunction;
+import de.odysseus.el.tree.impl.ast.AstNode;
+import de.odysseus.el.tree.impl.ast.AstParameters;
+
+import javax.el.ELContext;
+import javax.el.ELException;
+
+/**
+ * 条件表达式解析器
+ * 在juel语法上扩展集合、区间运算：
+ * x in (a, b, ...)、x not in (a, b, ...)、x between (low, high)，between包含两端。
+ * in、between作为关键字，右操作数是括号内的列表，语义与逐个==、>= && <=的结果一致。
+ * 不启用集合、区间运算时保持juel原来的语法，in、between仍可作变量名，只保留纯函数调用结果的复用
+ * @author hu
+ */
+public class ConditionParser extends JuelParser {
+
+    public static final Scanner.ExtensionToken IN_TOKEN = new Scanner.ExtensionToken("in");
+    public static final Scanner.ExtensionToken BETWEEN_TOKEN = new Scanner.ExtensionToken("between");
+
+    /**
+     * x in (a, b, ...)：任意一个相等
+     */
+    public static final AstBinary.Operator IN = new AstBinary.Operator() {
+        @Override
+        public Object eval(Bindings bindings, ELContext context, AstNode left, AstNode right) {
+            Object value = left.eval(bindings, context);
+            for (Object item : ((AstParameters) right).eval(bindings, context)) {
+                if (BooleanOperations.eq(bindings, value, item)) {
+                    return Boolean.TRUE;
+                }
+            }
+            return Boolean.FALSE;
+        }
+
+        @Override
+        public String toString() {
+            return "in";
+        }
+    };
+
+    /**
+     * x between (low, high)：low <= x && x <= high
+     */
+    public static final AstBinary.Operator BETWEEN = new AstBinary.Operator() {
+        @Override
+        public Object eval(Bindings bindings, ELContext context, AstNode left, AstNode right) {
+            Object value = left.eval(bindings, context);
+            Object[] range = ((AstParameters) right).eval(bindings, context);
+            return BooleanOperations.ge(bindings, value, range[0]) && BooleanOperations.le(bindings, value, range[1]);
+        }
+
+        @Override
+        public String toString() {
+            return "between";
+        }
+    };
+
+    // in、between是否作为关键字
+    private final boolean conditionOperators;
+
+    public ConditionParser(Builder context, String input) {
+        this(context, input, true);
+    }
+
+    /**
+     * @param context
+     * @param input
+     * @param conditionOperators 是否启用in、not in、between
+     */
+    public ConditionParser(Builder context, String input, boolean conditionOperators) {
+        super(context, input);
+        this.conditionOperators = conditionOperators;
+        if (!conditionOperators) {
+            return;
+        }
+        putExtensionHandler(IN_TOKEN, new ExtensionHandler(ExtensionPoint.LIST) {
+            @Override
+            public AstNode createAstNode(AstNode... children) {
+                return createAstBinary(children[0], children[1], IN);
+            }
+        });
+        putExtensionHandler(BETWEEN_TOKEN, new ExtensionHandler(ExtensionPoint.LIST) {
+            @Override
+            public AstNode createAstNode(AstNode... children) {
+                if (((AstParameters) children[1]).getCardinality() != 2) {
+                    throw new ELException("between需要两个值：" + children[1]);
+                }
+                return createAstBinary(children[0], children[1], BETWEEN);
+            }
+        });
+    }
+
+    /**
+     * 注册为纯函数、确定性函数的调用使用复用结果的节点
+     */
+    @Override
+    protected AstFunction createAstFunction(String name, int index, AstParameters params) {
+        FunctionRegistry.Function function = FunctionRegistry.DEFAULT.get(name);
+        if (function == null || !function.isMemoizable()) {
+            return super.createAstFunction(name, index, params);
+        }
+        return new MemoizedFunction(name, index, params, context.isEnabled(Builder.Feature.VARARGS), function);
+    }
+
+    @Override
+    protected Scanner createScanner(String expression) {
+        return new Scanner(expression) {
+            @Override
+            protected Token keyword(String input, int start, int end) {
+                // 扫描器在父类构造方法中创建，识别关键字时才读取开关
+                if (!conditionOperators) {
+                    return super.keyword(input, start, end);
+                }
+                int length = end - start;
+                if (length == 2 && input.regionMatches(start, "in", 0, 2)) {
+                    return IN_TOKEN;
+                }
+                if (length == 7 && input.regionMatches(start, "between", 0, 7)) {
+                    return BETWEEN_TOKEN;
+                }
+                return super.keyword(input, start, end);
+            }
+        };
+    }
+
+    /**
+     * 使用条件表达式解析器的语法树构建器，用于ExpressionFactoryImpl的TreeStore
+     */
+    public static class TreeBuilder extends Builder {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean conditionOperators;
+
+        public TreeBuilder(Feature... features) {
+            this(true, features);
+        }
+
+        /**
+         * @param conditionOperators 是否启用in、not in、between，不启用时与juel的语法相同
+         * @param features
+         */
+        public TreeBuilder(boolean conditionOperators, Feature... features) {
+            super(features);
+            this.conditionOperators = conditionOperators;
+        }
+
+        @Override
+        public Tree build(String expression) throws TreeBuilderException {
+            try {
+                return new ConditionParser(this, expression, conditionOperators).tree();
+            } catch (Scanner.ScanException e) {
+                throw new TreeBuilderException(expression, e.position, e.encountered, e.expected, e.getMessage());
+            } catch (JuelParser.ParseException e) {
+                throw new TreeBuilderException(expression, e.position, e.encountered, e.expected, e.getMessage());
+            }
+        }
+    }
+}
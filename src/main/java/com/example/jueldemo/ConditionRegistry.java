@@ -0,0 +1,439 @@
+package com.example.jueldemo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 版本化的条件注册表
+ * 流程定义重新部署时不重启，一次替换几百个编译后的条件，网关同时在求值。条件按 定义键 + 版本 保存：
+ * 部署时先在锁外编译好，再复制当前快照、加入新版本，整体原子发布，读取只读快照，不加锁。
+ * 运行中的实例用{@link #pin}引用自己启动时的版本，引用期间旧版本一直保留；不是最新版本且没有引用的版本由后台线程回收，
+ * 版本之间表达式相同的条件共用一份编译结果，没有版本引用时一起回收。
+ * 线程安全
+ * @author hu
+ */
+public class ConditionRegistry implements AutoCloseable {
+
+    private final AtomicReference<Snapshot> current = new AtomicReference<>(Snapshot.EMPTY);
+    // 部署、下线、回收串行执行
+    private final Object writeLock = new Object();
+    // 表达式 -> 编译结果，版本之间共用；只在写锁内修改
+    private final Map<String, Artifact> artifacts = new ConcurrentHashMap<>();
+    // 定义键 -> 分配过的最大版本号，回收后版本号也不重复；只在写锁内访问
+    private final Map<String, Integer> lastVersions = new HashMap<>();
+    private long reclaimedVersions;
+    private long reclaimedArtifacts;
+    private ScheduledExecutorService reclaimer;
+    // 跨JVM共享的解析结果，可以为null
+    private final SharedConditionCache shared;
+
+    public ConditionRegistry() {
+        this(null);
+    }
+
+    /**
+     * @param shared 跨JVM共享的条件编译缓存，部署时先从中读取解析结果；可以为null
+     */
+    public ConditionRegistry(SharedConditionCache shared) {
+        this.shared = shared;
+    }
+
+    /**
+     * 部署新版本
+     * @param key 流程定义键
+     * @param conditions 条件ID -> 条件表达式，条件为空的总是满足
+     * @return 新版本，版本号从1开始递增
+     */
+    public Definition deploy(String key, Map<String, String> conditions) {
+        // 编译较慢，在锁外进行；已有的编译结果直接共用
+        Map<String, Artifact> compiled = new HashMap<>();
+        for (String expression : conditions.values()) {
+            String text = expression == null ? "" : expression;
+            if (!artifacts.containsKey(text) && !compiled.containsKey(text)) {
+                compiled.put(text, compileArtifact(text));
+            }
+        }
+        synchronized (writeLock) {
+            // 锁外检查后被回收的重新编译，修改引用计数之前完成，编译失败时不改变注册表
+            for (String expression : conditions.values()) {
+                String text = expression == null ? "" : expression;
+                if (!artifacts.containsKey(text) && !compiled.containsKey(text)) {
+                    compiled.put(text, compileArtifact(text));
+                }
+            }
+            Map<String, Artifact> bound = new LinkedHashMap<>();
+            for (Map.Entry<String, String> entry : conditions.entrySet()) {
+                String text = entry.getValue() == null ? "" : entry.getValue();
+                Artifact artifact = artifacts.computeIfAbsent(text, compiled::get);
+                bound.put(entry.getKey(), artifact);
+            }
+            for (Artifact artifact : distinct(bound.values())) {
+                artifact.refs++;
+            }
+            int version = lastVersions.merge(key, 1, Integer::sum);
+            Definition definition = new Definition(key, version, Collections.unmodifiableMap(bound));
+            Snapshot snapshot = current.get();
+            Map<String, NavigableMap<Integer, Definition>> versions = new HashMap<>(snapshot.versions);
+            NavigableMap<Integer, Definition> keyVersions = new TreeMap<>(versions.getOrDefault(key, Collections.emptyNavigableMap()));
+            keyVersions.put(version, definition);
+            versions.put(key, Collections.unmodifiableNavigableMap(keyVersions));
+            Map<String, Definition> latest = new HashMap<>(snapshot.latest);
+            latest.put(key, definition);
+            current.set(new Snapshot(versions, latest));
+            return definition;
+        }
+    }
+
+    /**
+     * 下线流程定义，不能再引用最新版本；已经引用的版本在释放后回收
+     * @param key 流程定义键
+     * @return 是否存在
+     */
+    public boolean undeploy(String key) {
+        synchronized (writeLock) {
+            Snapshot snapshot = current.get();
+            if (!snapshot.latest.containsKey(key)) {
+                return false;
+            }
+            Map<String, Definition> latest = new HashMap<>(snapshot.latest);
+            latest.remove(key);
+            current.set(new Snapshot(snapshot.versions, latest));
+            return true;
+        }
+    }
+
+    /**
+     * @param key 流程定义键
+     * @return 最新版本，不存在时返回null；不引用时版本可能随后被回收，已取得的定义仍可以求值
+     */
+    public Definition latest(String key) {
+        return current.get().latest.get(key);
+    }
+
+    /**
+     * @param key 流程定义键
+     * @param version 版本号
+     * @return 定义，不存在或已回收时返回null
+     */
+    public Definition get(String key, int version) {
+        NavigableMap<Integer, Definition> versions = current.get().versions.get(key);
+        return versions == null ? null : versions.get(version);
+    }
+
+    /**
+     * @param key 流程定义键
+     * @return 还没有回收的版本号，升序
+     */
+    public List<Integer> getVersions(String key) {
+        NavigableMap<Integer, Definition> versions = current.get().versions.get(key);
+        return versions == null ? Collections.emptyList() : new ArrayList<>(versions.keySet());
+    }
+
+    /**
+     * 实例启动时引用最新版本
+     * @param key 流程定义键
+     * @return 引用，实例结束时关闭
+     */
+    public Pin pin(String key) {
+        while (true) {
+            Definition definition = latest(key);
+            if (definition == null) {
+                throw new IllegalArgumentException("流程定义不存在：" + key);
+            }
+            if (definition.tryPin()) {
+                return new Pin(definition);
+            }
+            // 取到快照后版本被下线并回收，重新读取
+        }
+    }
+
+    /**
+     * 引用指定版本，比如实例从持久化状态恢复
+     * @param key 流程定义键
+     * @param version 版本号
+     * @return 引用，实例结束时关闭
+     */
+    public Pin pin(String key, int version) {
+        Definition definition = get(key, version);
+        if (definition == null || !definition.tryPin()) {
+            throw new IllegalArgumentException("流程定义版本不存在或已回收：" + key + ":" + version);
+        }
+        return new Pin(definition);
+    }
+
+    /**
+     * 回收不是最新版本且没有引用的版本，以及不再被任何版本引用的编译结果
+     * @return 回收的版本数
+     */
+    public int reclaim() {
+        synchronized (writeLock) {
+            Snapshot snapshot = current.get();
+            List<Definition> retired = new ArrayList<>();
+            for (NavigableMap<Integer, Definition> versions : snapshot.versions.values()) {
+                for (Definition definition : versions.values()) {
+                    // 引用计数置为-1后不能再引用
+                    if (snapshot.latest.get(definition.key) != definition && definition.pins.compareAndSet(0, -1)) {
+                        retired.add(definition);
+                    }
+                }
+            }
+            if (retired.isEmpty()) {
+                return 0;
+            }
+            Map<String, NavigableMap<Integer, Definition>> versions = new HashMap<>(snapshot.versions);
+            for (Definition definition : retired) {
+                NavigableMap<Integer, Definition> keyVersions = new TreeMap<>(versions.get(definition.key));
+                keyVersions.remove(definition.version);
+                if (keyVersions.isEmpty()) {
+                    versions.remove(definition.key);
+                } else {
+                    versions.put(definition.key, Collections.unmodifiableNavigableMap(keyVersions));
+                }
+            }
+            current.set(new Snapshot(versions, snapshot.latest));
+            for (Definition definition : retired) {
+                for (Artifact artifact : distinct(definition.conditions.values())) {
+                    if (--artifact.refs == 0) {
+                        artifacts.remove(artifact.expression);
+                        reclaimedArtifacts++;
+                    }
+                }
+            }
+            reclaimedVersions += retired.size();
+            return retired.size();
+        }
+    }
+
+    private Artifact compileArtifact(String expression) {
+        try {
+            CompiledCondition compiled = shared != null ? shared.compile(expression) : GatewayEvaluator.compile(expression);
+            return new Artifact(expression, DnfNormalizer.wrap(expression, compiled));
+        } catch (IOException e) {
+            throw new UncheckedIOException("写入共享条件编译缓存失败：" + expression, e);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("条件表达式解析失败：" + expression, e);
+        }
+    }
+
+    private static Set<Artifact> distinct(Collection<Artifact> artifacts) {
+        Set<Artifact> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+        distinct.addAll(artifacts);
+        return distinct;
+    }
+
+    /**
+     * 启动后台回收线程
+     * @param period 回收间隔
+     * @param unit
+     */
+    public void startReclaimer(long period, TimeUnit unit) {
+        synchronized (writeLock) {
+            if (reclaimer != null) {
+                throw new IllegalStateException("回收线程已启动");
+            }
+            reclaimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "condition-registry-reclaimer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reclaimer.scheduleWithFixedDelay(this::reclaim, period, period, unit);
+        }
+    }
+
+    /**
+     * 停止后台回收线程
+     */
+    @Override
+    public void close() {
+        synchronized (writeLock) {
+            if (reclaimer != null) {
+                reclaimer.shutdownNow();
+                reclaimer = null;
+            }
+        }
+    }
+
+    /**
+     * @return 还没有回收的版本数
+     */
+    public int getVersionCount() {
+        int count = 0;
+        for (NavigableMap<Integer, Definition> versions : current.get().versions.values()) {
+            count += versions.size();
+        }
+        return count;
+    }
+
+    /**
+     * @return 共用的编译结果数
+     */
+    public int getArtifactCount() {
+        return artifacts.size();
+    }
+
+    public long getReclaimedVersions() {
+        synchronized (writeLock) {
+            return reclaimedVersions;
+        }
+    }
+
+    public long getReclaimedArtifacts() {
+        synchronized (writeLock) {
+            return reclaimedArtifacts;
+        }
+    }
+
+    /**
+     * 不可变快照，整体替换
+     */
+    private static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(Collections.emptyMap(), Collections.emptyMap());
+
+        // 定义键 -> 版本号 -> 定义，包括还被引用的旧版本
+        final Map<String, NavigableMap<Integer, Definition>> versions;
+        // 定义键 -> 最新版本，下线的不在其中
+        final Map<String, Definition> latest;
+
+        Snapshot(Map<String, NavigableMap<Integer, Definition>> versions, Map<String, Definition> latest) {
+            this.versions = versions;
+            this.latest = latest;
+        }
+    }
+
+    /**
+     * 编译后的条件，编译过的按规则求值，其余按juel求值；析取范式缺少变量时按juel求值
+     */
+    private static final class Artifact {
+        final String expression;
+        final DnfNormalizer.NormalizedCondition condition;
+        // 引用它的未回收版本数，只在写锁内修改
+        int refs;
+
+        private Artifact(String expression, DnfNormalizer.NormalizedCondition condition) {
+            this.expression = expression;
+            this.condition = condition;
+        }
+
+        boolean evaluate(Map<String, ?> variables) {
+            return condition.evaluate(variables);
+        }
+    }
+
+    /**
+     * 流程定义的一个版本，构建后只读
+     */
+    public static final class Definition {
+        private final String key;
+        private final int version;
+        // 条件ID -> 编译结果
+        private final Map<String, Artifact> conditions;
+        // 引用计数，-1表示已回收
+        private final AtomicInteger pins = new AtomicInteger();
+
+        private Definition(String key, int version, Map<String, Artifact> conditions) {
+            this.key = key;
+            this.version = version;
+            this.conditions = conditions;
+        }
+
+        private boolean tryPin() {
+            while (true) {
+                int count = pins.get();
+                if (count < 0) {
+                    return false;
+                }
+                if (pins.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * 计算条件的值
+         * @param conditionId 条件ID
+         * @param variables 变量表
+         * @return
+         */
+        public boolean evaluate(String conditionId, Map<String, ?> variables) {
+            Artifact artifact = conditions.get(conditionId);
+            if (artifact == null) {
+                throw new IllegalArgumentException("条件不存在：" + key + ":" + version + ":" + conditionId);
+            }
+            return artifact.evaluate(variables);
+        }
+
+        public String getExpression(String conditionId) {
+            Artifact artifact = conditions.get(conditionId);
+            return artifact == null ? null : artifact.expression;
+        }
+
+        public Set<String> getConditionIds() {
+            return conditions.keySet();
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        /**
+         * @return 引用这个版本的实例数
+         */
+        public int getPinCount() {
+            return Math.max(0, pins.get());
+        }
+
+        public boolean isReclaimed() {
+            return pins.get() < 0;
+        }
+
+        @Override
+        public String toString() {
+            return key + ":" + version;
+        }
+    }
+
+    /**
+     * 实例对版本的引用，关闭后版本可以回收；重复关闭无效
+     */
+    public static final class Pin implements AutoCloseable {
+        private final Definition definition;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Pin(Definition definition) {
+            this.definition = definition;
+        }
+
+        public Definition getDefinition() {
+            return definition;
+        }
+
+        /**
+         * 按引用的版本计算条件的值
+         * @param conditionId 条件ID
+         * @param variables 变量表
+         * @return
+         */
+        public boolean evaluate(String conditionId, Map<String, ?> variables) {
+            return definition.evaluate(conditionId, variables);
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                definition.pins.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.jueldemo;
+
+import java.time.LocalDate;
+
+/**
+ * 日期字面量工具
+ * 直接在字符序列上识别、解析ISO日期（yyyy-MM-dd），结果用纪元日（1970-01-01为0）的int表示，
+ * 不创建正则匹配器和LocalDate等时间对象；最近格式化过的日期文本放在一个小缓存里重复使用
+ * @author hu
+ */
+public final class DateLiterals {
+
+    /**
+     * 非日期
+     */
+    public static final int NO_DATE = Integer.MIN_VALUE;
+
+    // 纪元日 -> 日期文本，直接映射缓存
+    private static final int CACHE_SIZE = 256;
+    private static final Entry[] CACHE = new Entry[CACHE_SIZE];
+
+    private DateLiterals() {
+    }
+
+    /**
+     * 与原来的日期校验正则 ^\d{4}-\d{1,2}-\d{1,2} 完全匹配的结果一致：4位年份，1~2位月、日，不校验取值范围
+     * @param text
+     * @return
+     */
+    public static boolean matchesPattern(CharSequence text) {
+        int length = text.length();
+        if (length < 8 || length > 10 || !digits(text, 0, 4) || text.charAt(4) != '-') {
+            return false;
+        }
+        int dash = text.charAt(6) == '-' ? 6 : text.charAt(7) == '-' ? 7 : -1;
+        return dash > 0 && digits(text, 5, dash) && length - dash - 1 >= 1 && length - dash - 1 <= 2 && digits(text, dash + 1, length);
+    }
+
+    /**
+     * 规范的yyyy-MM-dd格式并且是合法日期
+     * @param text
+     * @return
+     */
+    public static boolean isCanonical(CharSequence text) {
+        return parse(text) != NO_DATE;
+    }
+
+    /**
+     * 解析规范的yyyy-MM-dd日期
+     * @param text
+     * @return 纪元日，格式不规范或日期不合法返回{@link #NO_DATE}
+     */
+    public static int parse(CharSequence text) {
+        if (text.length() != 10 || text.charAt(4) != '-' || text.charAt(7) != '-'
+                || !digits(text, 0, 4) || !digits(text, 5, 7) || !digits(text, 8, 10)) {
+            return NO_DATE;
+        }
+        int year = (text.charAt(0) - '0') * 1000 + (text.charAt(1) - '0') * 100 + (text.charAt(2) - '0') * 10 + (text.charAt(3) - '0');
+        int month = (text.charAt(5) - '0') * 10 + (text.charAt(6) - '0');
+        int day = (text.charAt(8) - '0') * 10 + (text.charAt(9) - '0');
+        if (month < 1 || month > 12 || day < 1 || day > monthLength(year, month)) {
+            return NO_DATE;
+        }
+        return epochDay(year, month, day);
+    }
+
+    /**
+     * 取值的纪元日：LocalDate（年份0~9999）或规范日期字符串
+     * @param value
+     * @return 纪元日，无法转换返回{@link #NO_DATE}
+     */
+    public static int epochDay(Object value) {
+        if (value instanceof LocalDate) {
+            LocalDate date = (LocalDate) value;
+            int year = date.getYear();
+            return year < 0 || year > 9999 ? NO_DATE : epochDay(year, date.getMonthValue(), date.getDayOfMonth());
+        }
+        if (value instanceof String) {
+            return parse((String) value);
+        }
+        return NO_DATE;
+    }
+
+    /**
+     * 格式化成yyyy-MM-dd，与LocalDate.toString()一致，结果会被缓存
+     * @param epochDay
+     * @return
+     */
+    public static String format(int epochDay) {
+        int slot = epochDay & (CACHE_SIZE - 1);
+        Entry entry = CACHE[slot];
+        if (entry != null && entry.epochDay == epochDay) {
+            return entry.text;
+        }
+        String text = formatDirect(epochDay);
+        CACHE[slot] = new Entry(epochDay, text);
+        return text;
+    }
+
+    /**
+     * 格式化LocalDate，与LocalDate.toString()一致
+     * @param date
+     * @return
+     */
+    public static String format(LocalDate date) {
+        int epochDay = epochDay(date);
+        return epochDay == NO_DATE ? date.toString() : format(epochDay);
+    }
+
+    private static String formatDirect(int epochDay) {
+        // civil from days
+        long z = epochDay + 719468L;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        int year = (int) (yoe + era * 400 + (month <= 2 ? 1 : 0));
+        if (year < 0 || year > 9999) {
+            return LocalDate.ofEpochDay(epochDay).toString();
+        }
+        char[] chars = {
+                (char) ('0' + year / 1000), (char) ('0' + year / 100 % 10), (char) ('0' + year / 10 % 10), (char) ('0' + year % 10),
+                '-', (char) ('0' + month / 10), (char) ('0' + month % 10),
+                '-', (char) ('0' + day / 10), (char) ('0' + day % 10)
+        };
+        return new String(chars);
+    }
+
+    private static int epochDay(int year, int month, int day) {
+        // days from civil
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yoe = y - era * 400;
+        int doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    private static int monthLength(int year, int month) {
+        switch (month) {
+            case 2:
+                return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    private static boolean digits(CharSequence text, int from, int to) {
+        if (from >= to) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Entry {
+        final int epochDay;
+        final String text;
+
+        Entry(int epochDay, String text) {
+            this.epochDay = epochDay;
+            this.text = text;
+        }
+    }
+}
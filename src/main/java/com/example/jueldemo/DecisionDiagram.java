@@ -0,0 +1,335 @@
+package com.example.jueldemo;
+
+import com.example.jueldemo.CompiledCondition.Atom;
+import com.example.jueldemo.SimpleConditionExpressionParser.*;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 条件表单编译成约简有序决策图（ROBDD）
+ * 析取范式的多个或公式经常重复测试同一个原子条件，决策图把原子条件排好顺序，相同的子图只保留一份，
+ * 每条求值路径上每个原子条件最多测试一次。原子条件的顺序按启发式选择：出现次数多的变量排在前面，同一变量的原子条件相邻。
+ * 节点数超过上限时放弃决策图，退回按或公式逐个求值。
+ * 原子条件的测试顺序与或公式不同，测试出错（取值类型不能转换）时按或公式原来的顺序重新求值，
+ * juel短路跳过这个原子条件时结果相同，否则抛出相同的异常；juel先在其他原子条件上出错、决策图没有测试它时仍可能得到结果。
+ * 变量表缺少条件读取的变量时按{@link CompiledCondition#evaluate(Map)}求值，与juel一样抛出PropertyNotFoundException。构建后只读，线程安全
+ * @author hu
+ */
+public class DecisionDiagram {
+
+    public static final int DEFAULT_NODE_LIMIT = 10000;
+    // 节点编号、层号的位数，用于唯一表的键
+    private static final int MAX_NODE_LIMIT = (1 << 21) - 2;
+
+    // 终结节点
+    private static final int FALSE = 0;
+    private static final int TRUE = 1;
+
+    private final CompiledCondition condition;
+    // 层号 -> 原子条件
+    private final Atom[] order;
+    // 节点 -> 层号、假分支、真分支，0、1是终结节点
+    private final int[] levels;
+    private final int[] lows;
+    private final int[] highs;
+    private final int root;
+    // 退回逐个求值时使用的或公式
+    private final int[][] clauses;
+
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder tests = new LongAdder();
+
+    private DecisionDiagram(CompiledCondition condition, Atom[] order, Builder builder, int[][] clauses) {
+        this.condition = condition;
+        this.order = order;
+        this.levels = builder == null ? null : Arrays.copyOf(builder.levels, builder.size);
+        this.lows = builder == null ? null : Arrays.copyOf(builder.lows, builder.size);
+        this.highs = builder == null ? null : Arrays.copyOf(builder.highs, builder.size);
+        this.root = builder == null ? FALSE : builder.root;
+        this.clauses = clauses;
+    }
+
+    /**
+     * 编译1.0条件表单，节点数上限{@link #DEFAULT_NODE_LIMIT}
+     * @param nodeList
+     * @return
+     */
+    public static DecisionDiagram compile(List<List<ConditionNode>> nodeList) {
+        return compile(CompiledCondition.compile(nodeList), DEFAULT_NODE_LIMIT);
+    }
+
+    /**
+     * 编译条件
+     * @param condition
+     * @param nodeLimit 节点数上限，超过时退回逐个求值
+     * @return
+     */
+    public static DecisionDiagram compile(CompiledCondition condition, int nodeLimit) {
+        if (nodeLimit < 0 || nodeLimit > MAX_NODE_LIMIT) {
+            throw new IllegalArgumentException("节点数上限超出范围：" + nodeLimit);
+        }
+        int[][] clauses = new int[condition.getClauseCount()][];
+        for (int c = 0; c < clauses.length; c++) {
+            clauses[c] = condition.getClause(c);
+        }
+        int[] levelOf = order(condition, clauses);
+        Atom[] order = new Atom[levelOf.length];
+        for (int atom = 0; atom < levelOf.length; atom++) {
+            order[levelOf[atom]] = condition.getAtom(atom);
+        }
+        if (levelOf.length > MAX_NODE_LIMIT) {
+            return new DecisionDiagram(condition, order, null, clauses);
+        }
+        Builder builder = new Builder(nodeLimit);
+        try {
+            int root = FALSE;
+            for (int[] clause : clauses) {
+                int[] clauseLevels = new int[clause.length];
+                for (int i = 0; i < clause.length; i++) {
+                    clauseLevels[i] = levelOf[clause[i]];
+                }
+                root = builder.or(root, builder.conjunction(clauseLevels));
+            }
+            builder.root = root;
+        } catch (NodeLimitException e) {
+            return new DecisionDiagram(condition, order, null, clauses);
+        }
+        return new DecisionDiagram(condition, order, builder, clauses);
+    }
+
+    /**
+     * 启发式变量顺序：按变量出现次数从多到少，同一变量的原子条件相邻，再按原子条件出现次数从多到少
+     * @return 原子条件下标 -> 层号
+     */
+    private static int[] order(CompiledCondition condition, int[][] clauses) {
+        int atomCount = condition.getAtomCount();
+        int[] atomFrequency = new int[atomCount];
+        Map<String, Integer> variableFrequency = new HashMap<>();
+        for (int[] clause : clauses) {
+            for (int atom : clause) {
+                atomFrequency[atom]++;
+                variableFrequency.merge(condition.getAtom(atom).getVariable(), 1, Integer::sum);
+            }
+        }
+        Integer[] atoms = new Integer[atomCount];
+        for (int i = 0; i < atomCount; i++) {
+            atoms[i] = i;
+        }
+        Arrays.sort(atoms, Comparator
+                .comparingInt((Integer atom) -> -variableFrequency.getOrDefault(condition.getAtom(atom).getVariable(), 0))
+                .thenComparing(atom -> condition.getAtom(atom).getVariable())
+                .thenComparingInt(atom -> -atomFrequency[atom])
+                .thenComparingInt(atom -> atom));
+        int[] levelOf = new int[atomCount];
+        for (int level = 0; level < atomCount; level++) {
+            levelOf[atoms[level]] = level;
+        }
+        return levelOf;
+    }
+
+    /**
+     * 计算条件的值
+     * @param variables 变量表
+     * @return
+     */
+    public boolean evaluate(Map<String, ?> variables) {
+        if (!condition.isBound(variables)) {
+            // 决策图的测试顺序与juel不同，缺少变量时按或公式原来的顺序求值
+            return condition.evaluate(variables);
+        }
+        int count = 0;
+        boolean result;
+        if (levels != null) {
+            int node = root;
+            try {
+                while (node > TRUE) {
+                    count++;
+                    node = order[levels[node]].test(variables) ? highs[node] : lows[node];
+                }
+            } catch (RuntimeException e) {
+                return condition.evaluate(variables);
+            }
+            result = node == TRUE;
+        } else {
+            result = false;
+            for (int[] clause : clauses) {
+                boolean matched = true;
+                for (int atom : clause) {
+                    count++;
+                    if (!condition.getAtom(atom).test(variables)) {
+                        matched = false;
+                        break;
+                    }
+                }
+                if (matched) {
+                    result = true;
+                    break;
+                }
+            }
+        }
+        evaluations.increment();
+        tests.add(count);
+        return result;
+    }
+
+    /**
+     * @return 是否因为节点数超过上限退回逐个求值
+     */
+    public boolean isFallback() {
+        return levels == null;
+    }
+
+    /**
+     * @return 决策图的内部节点数，不含两个终结节点；退回逐个求值时为0
+     */
+    public int getNodeCount() {
+        return levels == null ? 0 : levels.length - 2;
+    }
+
+    /**
+     * @return 累计求值次数
+     */
+    public long getEvaluationCount() {
+        return evaluations.sum();
+    }
+
+    /**
+     * @return 平均每次求值测试的原子条件数，还没有求值时为0
+     */
+    public double getAverageTests() {
+        long count = evaluations.sum();
+        return count == 0 ? 0 : (double) tests.sum() / count;
+    }
+
+    public CompiledCondition getCondition() {
+        return condition;
+    }
+
+    @Override
+    public String toString() {
+        return (isFallback() ? "dnf" : "bdd nodes=" + getNodeCount()) + " atoms=" + order.length
+                + " evaluations=" + getEvaluationCount() + " averageTests=" + String.format("%.2f", getAverageTests());
+    }
+
+    /**
+     * 节点数超过上限
+     */
+    private static final class NodeLimitException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        NodeLimitException() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * 构建过程：唯一表保证相同的(层号, 假分支, 真分支)只有一个节点，或运算带缓存
+     */
+    private static final class Builder {
+        private final int nodeLimit;
+        private int[] levels = new int[16];
+        private int[] lows = new int[16];
+        private int[] highs = new int[16];
+        private int size = 2;
+        private int root;
+        private final Map<Long, Integer> unique = new HashMap<>();
+        private final Map<Long, Integer> orCache = new HashMap<>();
+
+        Builder(int nodeLimit) {
+            this.nodeLimit = nodeLimit;
+            // 终结节点排在所有层之后
+            levels[FALSE] = Integer.MAX_VALUE;
+            levels[TRUE] = Integer.MAX_VALUE;
+        }
+
+        int node(int level, int low, int high) {
+            if (low == high) {
+                return low;
+            }
+            long key = ((long) level << 42) | ((long) low << 21) | high;
+            Integer node = unique.get(key);
+            if (node != null) {
+                return node;
+            }
+            if (size - 2 >= nodeLimit) {
+                throw new NodeLimitException();
+            }
+            if (size == levels.length) {
+                levels = Arrays.copyOf(levels, size * 2);
+                lows = Arrays.copyOf(lows, size * 2);
+                highs = Arrays.copyOf(highs, size * 2);
+            }
+            levels[size] = level;
+            lows[size] = low;
+            highs[size] = high;
+            unique.put(key, size);
+            return size++;
+        }
+
+        /**
+         * 一个或公式内原子条件的与
+         */
+        int conjunction(int[] clauseLevels) {
+            int[] sorted = clauseLevels.clone();
+            Arrays.sort(sorted);
+            int node = TRUE;
+            for (int i = sorted.length - 1; i >= 0; i--) {
+                if (i == sorted.length - 1 || sorted[i] != sorted[i + 1]) {
+                    node = node(sorted[i], FALSE, node);
+                }
+            }
+            return node;
+        }
+
+        int or(int u, int v) {
+            if (u == TRUE || v == TRUE) {
+                return TRUE;
+            }
+            if (u == FALSE || u == v) {
+                return v;
+            }
+            if (v == FALSE) {
+                return u;
+            }
+            long key = u < v ? ((long) u << 32) | v : ((long) v << 32) | u;
+            Integer cached = orCache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            int level = Math.min(levels[u], levels[v]);
+            int low = or(levels[u] == level ? lows[u] : u, levels[v] == level ? lows[v] : v);
+            int high = or(levels[u] == level ? highs[u] : u, levels[v] == level ? highs[v] : v);
+            int node = node(level, low, high);
+            orCache.put(key, node);
+            return node;
+        }
+    }
+
+    /**
+     * 决策图与逐个求值的节点数、平均测试次数对比
+     */
+    public static void main(String[] args) throws Exception {
+        String expression = "${(amount>1000 && amount<=5000 && region=='east' && vip==true) || (amount>1000 && amount<=5000 && region=='west')"
+                + " || (level>=3 && vip==true) || (level>=3 && region=='east') || (date3<'2022-01-01' && vip==true)}";
+        CompiledCondition condition = CompiledCondition.compile(expression);
+        DecisionDiagram diagram = DecisionDiagram.compile(condition, DEFAULT_NODE_LIMIT);
+        DecisionDiagram dnf = DecisionDiagram.compile(condition, 0);
+        Random random = new Random(1);
+        String[] regions = {"east", "west", "north"};
+        for (int i = 0; i < 100000; i++) {
+            Map<String, Object> variables = new HashMap<>();
+            variables.put("amount", random.nextInt(8000));
+            variables.put("region", regions[random.nextInt(regions.length)]);
+            variables.put("vip", random.nextBoolean());
+            variables.put("level", random.nextInt(5));
+            variables.put("date3", (2018 + random.nextInt(8)) + "-01-01");
+            if (diagram.evaluate(variables) != dnf.evaluate(variables)) {
+                throw new IllegalStateException("结果不一致：" + variables);
+            }
+        }
+        System.out.println("\n*****条件:\n" + condition);
+        System.out.println("\n*****决策图:\n" + diagram);
+        System.out.println("\n*****逐个求值:\n" + dnf);
+    }
+}
@@ -0,0 +1,466 @@
+package com.example.jueldemo;
+
+import com.example.jueldemo.SimpleConditionExpressionParser.*;
+import de.odysseus.el.tree.impl.Builder;
+import de.odysseus.el.tree.impl.ast.*;
+import de.odysseus.el.util.SimpleContext;
+import de.odysseus.el.util.SimpleResolver;
+
+import javax.el.ELContext;
+import javax.el.ValueExpression;
+import java.util.*;
+
+/**
+ * 任意嵌套条件的析取范式（DNF）规范化
+ * 简单条件表达式解析只认识 (a && b) || (c && d) 这种扁平形式，嵌套括号、!、and/or/not关键字都处理不了。
+ * 这里在条件表达式解析器的语法树上做规范化：否定下推（德摩根定律，==与!=、in与not in互换），
+ * 与对或分配展开成析取范式，得到1.0条件表单后走编译求值。
+ * 规范化保持juel语义：对 <、<=、>、>= 取反时，juel中null参与比较总是false，所以 !(x<5) 变成 (x>=5) || (x==null)；
+ * 单独的布尔变量 x 变成 x==true，!x 变成 x!=true。
+ * 展开后或公式数超过上限，或者有不能表示成原子条件的部分（函数调用、算术、三元运算、两边都不是变量等），
+ * 放弃规范化，退回按语法树求值
+ * @author hu
+ */
+public final class DnfNormalizer {
+
+    public static final int DEFAULT_CLAUSE_LIMIT = 256;
+
+    private DnfNormalizer() {
+    }
+
+    /**
+     * 规范化条件表达式，或公式数上限{@link #DEFAULT_CLAUSE_LIMIT}
+     * @param expression ${...}形式的条件表达式
+     * @return 1.0条件表单，不能规范化返回null
+     */
+    public static List<List<ConditionNode>> normalize(String expression) {
+        return normalize(expression, DEFAULT_CLAUSE_LIMIT);
+    }
+
+    /**
+     * 规范化条件表达式
+     * @param expression ${...}形式的条件表达式
+     * @param clauseLimit 或公式数上限
+     * @return 1.0条件表单，不能规范化返回null
+     */
+    public static List<List<ConditionNode>> normalize(String expression, int clauseLimit) {
+        AstNode root;
+        try {
+            root = (AstNode) new ConditionParser(new Builder(), expression).tree().getRoot();
+        } catch (Exception e) {
+            return null;
+        }
+        if (!(root instanceof AstEval)) {
+            return null;
+        }
+        try {
+            return normalize((AstNode) root.getChild(0), clauseLimit);
+        } catch (UnsupportedException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 编译条件表达式：能规范化的编译成析取范式求值，否则按语法树求值
+     * @param expression ${...}形式的条件表达式
+     * @return
+     */
+    public static NormalizedCondition compile(String expression) {
+        List<List<ConditionNode>> nodeList = normalize(expression);
+        return new NormalizedCondition(nodeList == null ? null : CompiledCondition.compile(nodeList), tree(expression));
+    }
+
+    /**
+     * 包装已经编译过的条件：1.0简单条件表达式的求值顺序与juel一致，直接按编译结果求值；
+     * 规范化成析取范式的保留语法树，缺少变量时按语法树求值
+     * @param expression 条件表达式
+     * @param compiled {@link GatewayEvaluator#compile(String)}的结果，不能编译时为null
+     * @return
+     */
+    static NormalizedCondition wrap(String expression, CompiledCondition compiled) {
+        if (compiled != null && GatewayEvaluator.simpleNodeList(expression) != null) {
+            return new NormalizedCondition(compiled, null);
+        }
+        return new NormalizedCondition(compiled, tree(expression));
+    }
+
+    private static ValueExpression tree(String expression) {
+        return SimpleConditionExpressionParser.conditionExpressionFactory().createValueExpression(FunctionRegistry.DEFAULT.bindTo(new SimpleContext()), expression, boolean.class);
+    }
+
+    /**
+     * 显式栈后序遍历，栈中是待展开的(节点, 是否取反)或待合并的运算
+     */
+    private static List<List<ConditionNode>> normalize(AstNode rootChild, int clauseLimit) {
+        Deque<Object[]> work = new ArrayDeque<>();
+        Deque<List<List<ConditionNode>>> results = new ArrayDeque<>();
+        work.push(new Object[]{rootChild, Boolean.FALSE});
+        while (!work.isEmpty()) {
+            Object[] item = work.pop();
+            if (item[0] instanceof AstBinary.Operator) {
+                List<List<ConditionNode>> right = results.pop();
+                List<List<ConditionNode>> left = results.pop();
+                results.push(item[0] == AstBinary.AND ? and(left, right, clauseLimit) : or(left, right, clauseLimit));
+                continue;
+            }
+            AstNode node = unwrap((AstNode) item[0]);
+            boolean negated = (Boolean) item[1];
+            if (node instanceof AstUnary && ((AstUnary) node).getOperator() == AstUnary.NOT) {
+                work.push(new Object[]{(AstNode) node.getChild(0), !negated});
+            } else if (node instanceof AstBinary && (((AstBinary) node).getOperator() == AstBinary.AND || ((AstBinary) node).getOperator() == AstBinary.OR)) {
+                // 德摩根定律：取反时与、或互换
+                boolean and = (((AstBinary) node).getOperator() == AstBinary.AND) != negated;
+                work.push(new Object[]{and ? AstBinary.AND : AstBinary.OR});
+                work.push(new Object[]{(AstNode) node.getChild(1), negated});
+                work.push(new Object[]{(AstNode) node.getChild(0), negated});
+            } else if (node instanceof AstBoolean) {
+                boolean value = (Boolean) node.eval(null, null) != negated;
+                results.push(value ? constant(true) : constant(false));
+            } else if (node instanceof AstIdentifier) {
+                // 布尔变量
+                results.push(single(new ConditionNode(((AstIdentifier) node).getName(), negated ? MyOperator.NE : MyOperator.EQ,
+                        "true", ConditionClass.BOOL, ConditionValueType.FIXED)));
+            } else if (node instanceof AstBinary) {
+                results.push(comparison((AstBinary) node, negated));
+            } else {
+                throw new UnsupportedException();
+            }
+        }
+        return results.pop();
+    }
+
+    /**
+     * 比较运算转换成原子条件，取反时换成相反的操作符
+     */
+    private static List<List<ConditionNode>> comparison(AstBinary node, boolean negated) {
+        AstBinary.Operator operator = node.getOperator();
+        AstNode left = unwrap(node.getChild(0));
+        AstNode right = unwrap(node.getChild(1));
+        MyOperator myOperator = operator(operator);
+        if (myOperator == null) {
+            throw new UnsupportedException();
+        }
+        if (myOperator.isList()) {
+            if (!(left instanceof AstIdentifier)) {
+                throw new UnsupportedException();
+            }
+            ConditionNode conditionNode = list(((AstIdentifier) left).getName(), myOperator, (AstParameters) right);
+            if (!negated) {
+                return single(conditionNode);
+            }
+            if (myOperator == MyOperator.IN) {
+                conditionNode.setOperator(MyOperator.NOT_IN);
+                return single(conditionNode);
+            }
+            // !(x between (a, b)) 即 x<a || x>b || x==null，两个值都必须是非空固定值
+            if (conditionNode.getValueType() != ConditionValueType.FIXED || conditionNode.getConditionClass() == ConditionClass.UNKNOWN) {
+                throw new UnsupportedException();
+            }
+            List<String> values = SimpleConditionExpressionParser.splitValues(conditionNode.getValue(), conditionNode.getConditionClass());
+            String variable = conditionNode.getVariable();
+            List<List<ConditionNode>> result = single(new ConditionNode(variable, MyOperator.LT, values.get(0), conditionNode.getConditionClass(), ConditionValueType.FIXED));
+            result.addAll(single(new ConditionNode(variable, MyOperator.GT, values.get(1), conditionNode.getConditionClass(), ConditionValueType.FIXED)));
+            result.addAll(single(new ConditionNode(variable, MyOperator.EQ, null, ConditionClass.UNKNOWN, ConditionValueType.FIXED)));
+            return result;
+        }
+        if (!(left instanceof AstIdentifier)) {
+            if (!(right instanceof AstIdentifier)) {
+                throw new UnsupportedException();
+            }
+            // 5 < x 变成 x > 5
+            AstNode swap = left;
+            left = right;
+            right = swap;
+            myOperator = mirror(myOperator);
+        }
+        String variable = ((AstIdentifier) left).getName();
+        ConditionNode conditionNode = operand(right);
+        conditionNode.setVariable(variable);
+        conditionNode.setOperator(myOperator);
+        if (!negated) {
+            return single(conditionNode);
+        }
+        switch (myOperator) {
+            case EQ:
+                conditionNode.setOperator(MyOperator.NE);
+                return single(conditionNode);
+            case NE:
+                conditionNode.setOperator(MyOperator.EQ);
+                return single(conditionNode);
+            default:
+                // 非空操作数之间 ge等于!lt、le等于!gt；变量为null时比较为false，取反为true
+                if (conditionNode.getValueType() != ConditionValueType.FIXED || conditionNode.getValue() == null) {
+                    throw new UnsupportedException();
+                }
+                conditionNode.setOperator(opposite(myOperator));
+                List<List<ConditionNode>> result = single(conditionNode);
+                result.addAll(single(new ConditionNode(variable, MyOperator.EQ, null, ConditionClass.UNKNOWN, ConditionValueType.FIXED)));
+                return result;
+        }
+    }
+
+    /**
+     * 单个操作数：字面量、变量参数、对象参数
+     */
+    private static ConditionNode operand(AstNode node) {
+        if (node instanceof AstNull) {
+            return new ConditionNode(null, null, null, ConditionClass.UNKNOWN, ConditionValueType.FIXED);
+        } else if (node instanceof AstString) {
+            String value = (String) node.eval(null, null);
+            return new ConditionNode(null, null, value, DateLiterals.matchesPattern(value) ? ConditionClass.DATE : ConditionClass.STRING, ConditionValueType.FIXED);
+        } else if (node instanceof AstBoolean) {
+            return new ConditionNode(null, null, node.eval(null, null).toString(), ConditionClass.BOOL, ConditionValueType.FIXED);
+        } else if (node instanceof AstIdentifier) {
+            return new ConditionNode(null, null, ((AstIdentifier) node).getName(), ConditionClass.UNKNOWN, ConditionValueType.PARAM);
+        } else if (node instanceof AstDot && node.getChild(0) instanceof AstIdentifier) {
+            return new ConditionNode(null, null, ((AstIdentifier) node.getChild(0)).getName() + "." + JuelParser.dotProperty((AstDot) node),
+                    ConditionClass.UNKNOWN, ConditionValueType.OBJECTPARAM);
+        }
+        String number = numberText(node);
+        if (number == null) {
+            throw new UnsupportedException();
+        }
+        return new ConditionNode(null, null, number, ConditionClass.NUMBER, ConditionValueType.FIXED);
+    }
+
+    /**
+     * 数值字面量文本，能按原类型（Long、Double）还原，包括负数
+     */
+    private static String numberText(AstNode node) {
+        boolean negative = false;
+        while (node instanceof AstUnary && ((AstUnary) node).getOperator() == AstUnary.NEG) {
+            negative = !negative;
+            node = unwrap(((AstUnary) node).getChild(0));
+        }
+        if (!(node instanceof AstNumber)) {
+            return null;
+        }
+        Object value = node.eval(null, null);
+        if (value instanceof Long) {
+            return String.valueOf(negative ? -(Long) value : (Long) value);
+        }
+        if (value instanceof Double && !((Double) value).isInfinite() && !((Double) value).isNaN()) {
+            // Double.toString总是带小数点或指数，编译时还原成Double
+            return Double.toString(negative ? -(Double) value : (Double) value);
+        }
+        return null;
+    }
+
+    /**
+     * in、between的值列表，元素必须是同一类：字符串、数值、布尔值、参数
+     */
+    private static ConditionNode list(String variable, MyOperator operator, AstParameters parameters) {
+        if (parameters.getCardinality() == 0) {
+            return new ConditionNode(variable, operator, null, ConditionClass.UNKNOWN, ConditionValueType.FIXED);
+        }
+        List<String> values = new ArrayList<>();
+        ConditionClass conditionClass = null;
+        ConditionValueType valueType = null;
+        for (int i = 0; i < parameters.getCardinality(); i++) {
+            ConditionNode item = operand(unwrap(parameters.getChild(i)));
+            if (item.getValue() == null) {
+                throw new UnsupportedException();
+            }
+            ConditionClass itemClass = item.getConditionClass() == ConditionClass.DATE ? ConditionClass.STRING : item.getConditionClass();
+            ConditionValueType itemType = item.getValueType() == ConditionValueType.OBJECTPARAM ? ConditionValueType.PARAM : item.getValueType();
+            if ((conditionClass != null && conditionClass != itemClass) || (valueType != null && valueType != itemType)) {
+                throw new UnsupportedException();
+            }
+            conditionClass = itemClass;
+            valueType = itemType;
+            values.add(item.getValue());
+        }
+        if (conditionClass == ConditionClass.STRING && values.stream().allMatch(DateLiterals::matchesPattern)) {
+            conditionClass = ConditionClass.DATE;
+        }
+        return new ConditionNode(variable, operator, SimpleConditionExpressionParser.joinValues(values), conditionClass, valueType);
+    }
+
+    private static MyOperator operator(AstBinary.Operator operator) {
+        if (operator == AstBinary.EQ) {
+            return MyOperator.EQ;
+        } else if (operator == AstBinary.NE) {
+            return MyOperator.NE;
+        } else if (operator == AstBinary.LT) {
+            return MyOperator.LT;
+        } else if (operator == AstBinary.LE) {
+            return MyOperator.LE;
+        } else if (operator == AstBinary.GT) {
+            return MyOperator.GT;
+        } else if (operator == AstBinary.GE) {
+            return MyOperator.GE;
+        } else if (operator == ConditionParser.IN) {
+            return MyOperator.IN;
+        } else if (operator == ConditionParser.BETWEEN) {
+            return MyOperator.BETWEEN;
+        }
+        return null;
+    }
+
+    /**
+     * 交换左右操作数后的操作符
+     */
+    private static MyOperator mirror(MyOperator operator) {
+        switch (operator) {
+            case LT:
+                return MyOperator.GT;
+            case LE:
+                return MyOperator.GE;
+            case GT:
+                return MyOperator.LT;
+            case GE:
+                return MyOperator.LE;
+            default:
+                return operator;
+        }
+    }
+
+    /**
+     * 非空操作数之间取反后的操作符
+     */
+    private static MyOperator opposite(MyOperator operator) {
+        switch (operator) {
+            case LT:
+                return MyOperator.GE;
+            case LE:
+                return MyOperator.GT;
+            case GT:
+                return MyOperator.LE;
+            case GE:
+                return MyOperator.LT;
+            default:
+                throw new IllegalStateException("不支持的操作符：" + operator.name());
+        }
+    }
+
+    private static AstNode unwrap(AstNode node) {
+        while (node instanceof AstNested) {
+            node = (AstNode) node.getChild(0);
+        }
+        return node;
+    }
+
+    private static List<List<ConditionNode>> single(ConditionNode node) {
+        List<ConditionNode> clause = new ArrayList<>(1);
+        clause.add(node);
+        List<List<ConditionNode>> result = new ArrayList<>();
+        result.add(clause);
+        return result;
+    }
+
+    /**
+     * 常量：true是一个空的或公式，false是没有或公式
+     */
+    private static List<List<ConditionNode>> constant(boolean value) {
+        List<List<ConditionNode>> result = new ArrayList<>(1);
+        if (value) {
+            result.add(new ArrayList<>());
+        }
+        return result;
+    }
+
+    private static List<List<ConditionNode>> or(List<List<ConditionNode>> left, List<List<ConditionNode>> right, int clauseLimit) {
+        if (left.size() + right.size() > clauseLimit) {
+            throw new UnsupportedException();
+        }
+        left.addAll(right);
+        return left;
+    }
+
+    /**
+     * 与对或分配
+     */
+    private static List<List<ConditionNode>> and(List<List<ConditionNode>> left, List<List<ConditionNode>> right, int clauseLimit) {
+        if ((long) left.size() * right.size() > clauseLimit) {
+            throw new UnsupportedException();
+        }
+        if (left.size() == 1) {
+            for (List<ConditionNode> clause : right) {
+                clause.addAll(0, left.get(0));
+            }
+            return right;
+        }
+        List<List<ConditionNode>> result = new ArrayList<>(left.size() * right.size());
+        for (List<ConditionNode> leftClause : left) {
+            for (List<ConditionNode> rightClause : right) {
+                List<ConditionNode> clause = new ArrayList<>(leftClause.size() + rightClause.size());
+                clause.addAll(leftClause);
+                clause.addAll(rightClause);
+                result.add(clause);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 不能规范化
+     */
+    private static final class UnsupportedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedException() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * 规范化后的条件：析取范式编译求值，或者按语法树求值。
+     * 析取范式改变了求值顺序，变量表缺少条件读取的变量时按语法树求值，与juel在同样的位置抛出PropertyNotFoundException；
+     * 析取范式求值出错（取值类型不能转换）时也按语法树重新求值，juel短路跳过出错的原子条件时结果相同，否则抛出相同的异常
+     */
+    public static final class NormalizedCondition {
+        private final CompiledCondition compiled;
+        // 条件表达式的语法树，编译结果的求值顺序与juel一致时为null
+        private final ValueExpression tree;
+
+        private NormalizedCondition(CompiledCondition compiled, ValueExpression tree) {
+            this.compiled = compiled;
+            this.tree = tree;
+        }
+
+        /**
+         * 计算条件的值
+         * @param variables 变量表
+         * @return
+         */
+        public boolean evaluate(Map<String, ?> variables) {
+            if (compiled != null && (tree == null || compiled.isBound(variables))) {
+                try {
+                    return compiled.evaluate(variables);
+                } catch (RuntimeException e) {
+                    // 原来就是简单形式时求值顺序与juel相同
+                    if (tree == null) {
+                        throw e;
+                    }
+                }
+            }
+            // 变量作为根属性放进解析器，语法树在创建时不绑定变量，可以共用
+            ELContext context = new SimpleContext(new SimpleResolver());
+            for (Map.Entry<String, ?> entry : variables.entrySet()) {
+                context.getELResolver().setValue(context, null, entry.getKey(), entry.getValue());
+            }
+            return (Boolean) tree.getValue(context);
+        }
+
+        /**
+         * @return 是否规范化成析取范式
+         */
+        public boolean isNormalized() {
+            return compiled != null;
+        }
+
+        /**
+         * @return 编译后的析取范式，没有规范化时为null
+         */
+        public CompiledCondition getCompiled() {
+            return compiled;
+        }
+
+        /**
+         * @return 编译结果的求值顺序与juel一致（1.0简单条件表达式），缺少变量时也按编译结果求值
+         */
+        boolean isSimple() {
+            return compiled != null && tree == null;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package com.example.jueldemo;
+
+import de.odysseus.el.tree.impl.Builder;
+import de.odysseus.el.tree.impl.ast.AstFunction;
+import de.odysseus.el.tree.impl.ast.AstMethod;
+import de.odysseus.el.tree.impl.ast.AstNode;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 条件求值结果缓存
+ * 重试、界面预览、历史回放经常用相同的输入重新求值同一批条件。结果按 编译后的条件标识 + 条件读取的变量的值 缓存，
+ * 条件读取哪些变量由{@link JuelParser#parseExpressTreeVariables}解析，与条件无关的变量变化不影响命中。
+ * 缓存有条目上限，按访问顺序淘汰；可以按条件关闭缓存。
+ * 调用了非纯函数（没有注册为{@link FunctionRegistry.Purity#PURE}的函数、bean方法）的条件结果不稳定，默认不缓存，
+ * 确认可以缓存时用{@link #setCacheImpure(boolean)}打开。
+ * 变量值按equals比较，可变对象在缓存期间被修改会命中旧结果，对象参数应传不可变对象或每次新建。
+ * 线程安全
+ * @author hu
+ */
+public class EvaluationCache {
+
+    // 变量表中没有这个变量，与值为null区分
+    private static final Object MISSING = new Object();
+
+    private final int maxSize;
+    private final Map<String, Entry> conditions = new ConcurrentHashMap<>();
+    private final LinkedHashMap<ResultKey, Boolean> results;
+    private volatile boolean cacheImpure;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bypasses = new LongAdder();
+
+    /**
+     * @param maxSize 缓存的结果条目上限
+     */
+    public EvaluationCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("缓存条目上限必须大于0：" + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.results = new LinkedHashMap<ResultKey, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ResultKey, Boolean> eldest) {
+                return size() > EvaluationCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * 注册条件，默认启用缓存
+     * @param conditionId 条件ID
+     * @param expression 条件表达式
+     */
+    public void register(String conditionId, String expression) {
+        Set<String> variables;
+        boolean pure;
+        try {
+            AstNode root = (AstNode) new ConditionParser(new Builder(Builder.Feature.METHOD_INVOCATIONS, Builder.Feature.VARARGS), expression)
+                    .tree().getRoot();
+            variables = JuelParser.parseExpressTreeVariables(root);
+            pure = pure(root);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("条件表达式解析失败：" + expression, e);
+        }
+        DnfNormalizer.NormalizedCondition condition = DnfNormalizer.wrap(expression, GatewayEvaluator.compile(expression));
+        // 1.0简单条件表达式按原子条件规范文本共用缓存，其余按表达式文本：析取范式缺少变量时按语法树求值，结果可能不同
+        String key = condition.isSimple() ? condition.getCompiled().getId() : expression;
+        conditions.put(conditionId, new Entry(key, new TreeSet<>(variables).toArray(new String[0]), condition, pure));
+    }
+
+    /**
+     * 语法树中只调用纯函数，没有bean方法调用
+     */
+    private static boolean pure(AstNode root) {
+        Deque<AstNode> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            AstNode node = stack.pop();
+            if (node instanceof AstMethod) {
+                return false;
+            }
+            if (node instanceof AstFunction) {
+                FunctionRegistry.Function function = FunctionRegistry.DEFAULT.get(((AstFunction) node).getName());
+                if (function == null || function.getPurity() != FunctionRegistry.Purity.PURE) {
+                    return false;
+                }
+            }
+            for (int i = 0; i < node.getCardinality(); i++) {
+                stack.push((AstNode) node.getChild(i));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 按条件启用、关闭缓存
+     * @param conditionId
+     * @param enabled
+     */
+    public void setEnabled(String conditionId, boolean enabled) {
+        entry(conditionId).enabled = enabled;
+    }
+
+    /**
+     * 安全开关：是否缓存调用了非纯函数的条件，默认不缓存
+     * @param cacheImpure
+     */
+    public void setCacheImpure(boolean cacheImpure) {
+        this.cacheImpure = cacheImpure;
+    }
+
+    /**
+     * @param conditionId
+     * @return 条件的结果是否会被缓存
+     */
+    public boolean isCacheable(String conditionId) {
+        Entry entry = entry(conditionId);
+        return entry.enabled && (entry.pure || cacheImpure);
+    }
+
+    /**
+     * 计算条件的值，先查缓存
+     * @param conditionId 条件ID
+     * @param variables 变量表
+     * @return
+     */
+    public boolean evaluate(String conditionId, Map<String, ?> variables) {
+        Entry entry = entry(conditionId);
+        if (!entry.enabled || !(entry.pure || cacheImpure)) {
+            bypasses.increment();
+            return entry.evaluate(variables);
+        }
+        Object[] values = new Object[entry.variables.length];
+        for (int i = 0; i < values.length; i++) {
+            String variable = entry.variables[i];
+            Object value = variables.get(variable);
+            values[i] = value == null && !variables.containsKey(variable) ? MISSING : value;
+        }
+        ResultKey key = new ResultKey(entry.key, values);
+        Boolean result;
+        synchronized (results) {
+            result = results.get(key);
+        }
+        if (result != null) {
+            hits.increment();
+            entry.hits.increment();
+            return result;
+        }
+        misses.increment();
+        entry.misses.increment();
+        ConditionEvents.CacheMissEvent event = new ConditionEvents.CacheMissEvent();
+        event.begin();
+        boolean value = entry.evaluate(variables);
+        synchronized (results) {
+            results.put(key, value);
+        }
+        event.record("EvaluationCache", entry.key);
+        return value;
+    }
+
+    private Entry entry(String conditionId) {
+        Entry entry = conditions.get(conditionId);
+        if (entry == null) {
+            throw new IllegalArgumentException("条件不存在：" + conditionId);
+        }
+        return entry;
+    }
+
+    /**
+     * 清空缓存的结果，统计不变
+     */
+    public void clear() {
+        synchronized (results) {
+            results.clear();
+        }
+    }
+
+    /**
+     * @return 缓存的结果条目数
+     */
+    public int size() {
+        synchronized (results) {
+            return results.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return 没有查缓存的求值次数：条件关闭了缓存或调用了非纯函数
+     */
+    public long getBypasses() {
+        return bypasses.sum();
+    }
+
+    /**
+     * @return 命中率，还没有查过缓存时为0
+     */
+    public double getHitRate() {
+        long hit = hits.sum();
+        long total = hit + misses.sum();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    /**
+     * @param conditionId
+     * @return 条件的命中率，还没有查过缓存时为0
+     */
+    public double getHitRate(String conditionId) {
+        Entry entry = entry(conditionId);
+        long hit = entry.hits.sum();
+        long total = hit + entry.misses.sum();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    @Override
+    public String toString() {
+        return "size=" + size() + " hits=" + getHits() + " misses=" + getMisses() + " bypasses=" + getBypasses()
+                + " hitRate=" + String.format("%.2f", getHitRate());
+    }
+
+    /**
+     * 注册的条件
+     */
+    private static final class Entry {
+        final String key;
+        // 条件读取的变量名
+        final String[] variables;
+        final DnfNormalizer.NormalizedCondition condition;
+        // 没有调用非纯函数
+        final boolean pure;
+        volatile boolean enabled = true;
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+
+        Entry(String key, String[] variables, DnfNormalizer.NormalizedCondition condition, boolean pure) {
+            this.key = key;
+            this.variables = variables;
+            this.condition = condition;
+            this.pure = pure;
+        }
+
+        boolean evaluate(Map<String, ?> variables) {
+            return condition.evaluate(variables);
+        }
+    }
+
+    /**
+     * 缓存键：条件标识和读取的变量值，哈希预先计算
+     */
+    private static final class ResultKey {
+        private final String condition;
+        private final Object[] values;
+        private final int hash;
+
+        ResultKey(String condition, Object[] values) {
+            this.condition = condition;
+            this.values = values;
+            this.hash = condition.hashCode() * 31 + Arrays.deepHashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ResultKey)) {
+                return false;
+            }
+            ResultKey other = (ResultKey) o;
+            return hash == other.hash && condition.equals(other.condition) && Arrays.deepEquals(values, other.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
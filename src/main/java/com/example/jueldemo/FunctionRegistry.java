@@ -0,0 +1,239 @@
+package com.example.jueldemo;
+
+import de.odysseus.el.util.SimpleContext;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 条件表达式函数注册表
+ * 注册函数时声明纯度：纯函数、确定性函数的相同参数调用在一次求值内只执行一次，
+ * 可以再配置跨求值的有界缓存（LRU + 过期时间）；纯函数的参数全是字面量时在解析时直接算出常量。
+ * 解析器按函数名查纯度，所以函数要在第一次解析用到它的表达式之前注册（语法树按表达式文本缓存）。
+ * 线程安全
+ * @author hu
+ */
+public class FunctionRegistry {
+
+    /**
+     * 全局注册表，条件表达式解析、求值使用
+     */
+    public static final FunctionRegistry DEFAULT = new FunctionRegistry();
+
+    /**
+     * 函数纯度
+     */
+    public enum Purity {
+        /**
+         * 非纯函数，每次调用都执行，例如取当前时间、随机数
+         */
+        IMPURE,
+        /**
+         * 确定性函数：一次求值内相同参数结果相同，例如查本地缓存；可以配置带过期时间的跨求值缓存
+         */
+        DETERMINISTIC,
+        /**
+         * 纯函数：结果只依赖参数，没有副作用；参数全是字面量时在解析时折叠成常量
+         */
+        PURE
+    }
+
+    // 函数名（prefix:localName，没有前缀时为localName） -> 注册信息
+    private final Map<String, Function> functions = new ConcurrentHashMap<>();
+
+    /**
+     * 注册函数，不使用跨求值缓存
+     * @param prefix 前缀，没有前缀传空字符串
+     * @param localName 函数名
+     * @param method 静态方法
+     * @param purity 纯度
+     */
+    public void register(String prefix, String localName, Method method, Purity purity) {
+        register(prefix, localName, method, purity, 0, 0);
+    }
+
+    /**
+     * 注册函数
+     * @param prefix 前缀，没有前缀传空字符串
+     * @param localName 函数名
+     * @param method 静态方法
+     * @param purity 纯度
+     * @param cacheSize 跨求值缓存的条目上限，0表示不缓存；非纯函数不能缓存
+     * @param ttlMillis 缓存过期时间（毫秒），0表示不过期
+     */
+    public void register(String prefix, String localName, Method method, Purity purity, int cacheSize, long ttlMillis) {
+        if (!Modifier.isStatic(method.getModifiers())) {
+            throw new IllegalArgumentException("函数必须是静态方法：" + method);
+        }
+        if (cacheSize < 0 || ttlMillis < 0) {
+            throw new IllegalArgumentException("缓存参数不能为负数：" + cacheSize + ", " + ttlMillis);
+        }
+        if (purity == Purity.IMPURE && cacheSize > 0) {
+            throw new IllegalArgumentException("非纯函数不能缓存：" + localName);
+        }
+        String name = prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName;
+        functions.put(name, new Function(prefix == null ? "" : prefix, localName, method, purity,
+                cacheSize > 0 ? new CallCache(cacheSize, ttlMillis) : null));
+    }
+
+    /**
+     * @param name 语法树中的函数名，prefix:localName或localName
+     * @return 注册信息，没有注册返回null
+     */
+    public Function get(String name) {
+        return functions.get(name);
+    }
+
+    /**
+     * 注册的函数放进上下文的函数映射，创建值表达式时按它绑定
+     * @param context
+     * @return
+     */
+    public SimpleContext bindTo(SimpleContext context) {
+        for (Function function : functions.values()) {
+            context.setFunction(function.prefix, function.localName, function.method);
+        }
+        return context;
+    }
+
+    /**
+     * 注册的函数
+     */
+    public static final class Function {
+        private final String prefix;
+        private final String localName;
+        private final Method method;
+        private final Purity purity;
+        // 跨求值缓存，没有配置为null
+        private final CallCache cache;
+
+        private Function(String prefix, String localName, Method method, Purity purity, CallCache cache) {
+            this.prefix = prefix;
+            this.localName = localName;
+            this.method = method;
+            this.purity = purity;
+            this.cache = cache;
+        }
+
+        public Method getMethod() {
+            return method;
+        }
+
+        public Purity getPurity() {
+            return purity;
+        }
+
+        /**
+         * @return 相同参数的调用能否在一次求值内复用结果
+         */
+        public boolean isMemoizable() {
+            return purity != Purity.IMPURE;
+        }
+
+        CallCache getCache() {
+            return cache;
+        }
+
+        /**
+         * @return 跨求值缓存命中次数，没有配置缓存为0
+         */
+        public long getCacheHits() {
+            return cache == null ? 0 : cache.hits.sum();
+        }
+
+        /**
+         * @return 跨求值缓存未命中次数，没有配置缓存为0
+         */
+        public long getCacheMisses() {
+            return cache == null ? 0 : cache.misses.sum();
+        }
+    }
+
+    /**
+     * 函数调用的键：函数名和转换后的实参，可变参数数组按内容比较
+     */
+    static final class CallKey {
+        private final String name;
+        private final Object[] args;
+        private final int hash;
+
+        CallKey(String name, Object[] args) {
+            this.name = name;
+            this.args = args;
+            this.hash = name.hashCode() * 31 + Arrays.deepHashCode(args);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CallKey)) {
+                return false;
+            }
+            CallKey other = (CallKey) o;
+            return hash == other.hash && name.equals(other.name) && Arrays.deepEquals(args, other.args);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * 跨求值的有界缓存，按访问顺序淘汰，条目超过过期时间视为不存在
+     */
+    static final class CallCache {
+        private final int maxSize;
+        private final long ttlNanos;
+        private final LinkedHashMap<CallKey, Entry> entries;
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+
+        CallCache(int maxSize, long ttlMillis) {
+            this.maxSize = maxSize;
+            this.ttlNanos = ttlMillis * 1000000L;
+            this.entries = new LinkedHashMap<CallKey, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<CallKey, Entry> eldest) {
+                    return size() > CallCache.this.maxSize;
+                }
+            };
+        }
+
+        /**
+         * @return 缓存的结果，null结果用{@link MemoizedFunction.Memo#NULL}表示；没有或已过期返回null
+         */
+        synchronized Object get(CallKey key) {
+            Entry entry = entries.get(key);
+            if (entry != null && ttlNanos > 0 && System.nanoTime() - entry.created > ttlNanos) {
+                entries.remove(key);
+                entry = null;
+            }
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return entry.value;
+        }
+
+        synchronized void put(CallKey key, Object value) {
+            entries.put(key, new Entry(value, System.nanoTime()));
+        }
+
+        private static final class Entry {
+            final Object value;
+            final long created;
+
+            Entry(Object value, long created) {
+                this.value = value;
+                this.created = created;
+            }
+        }
+    }
+}
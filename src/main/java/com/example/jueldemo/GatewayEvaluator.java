@@ -0,0 +1,256 @@
+package com.example.jueldemo;
+
+import com.example.jueldemo.SimpleConditionExpressionParser.*;
+import de.odysseus.el.util.SimpleContext;
+import de.odysseus.el.util.SimpleResolver;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.el.ExpressionFactory;
+import javax.el.ValueExpression;
+import java.util.*;
+
+/**
+ * 网关出口条件求值
+ * 排他网关、包容网关的多条出口连线各有一个条件，原来逐条调用getExpressionValue，每次都重新绑定同样的变量。
+ * 这里把全部出口条件一起编译，变量只绑定一次，多条连线共有的原子条件只计算一次；
+ * 不是1.0简单条件表达式的条件（解析后再生成的表达式与原文不一致）先尝试规范化成析取范式，仍然不行的按juel求值，共用同一个上下文。
+ * 条件读取的变量不在变量表中时，与getExpressionValue一样在用到时抛出PropertyNotFoundException，不会把缺少的变量当作null选中连线；
+ * 规范化成析取范式的条件改变了求值顺序，缺少变量或者求值出错（取值类型不能转换）时这条连线按juel求值。
+ * 支持按优先级取第一条满足的连线（排他网关）和取全部满足的连线（包容网关）。
+ * 构建后只读，线程安全
+ * @author hu
+ */
+public class GatewayEvaluator {
+
+    /**
+     * 求值方式
+     */
+    public enum Mode {
+        /**
+         * 按连线顺序取第一条满足的，排他网关
+         */
+        FIRST_MATCH,
+        /**
+         * 取全部满足的，包容网关
+         */
+        ALL_MATCHES
+    }
+
+    // 连线ID，按优先级排序
+    private final String[] flowIds;
+    // 连线 -> 规则下标，按juel求值的连线为-1
+    private final int[] ruleOf;
+    // 连线 -> 条件表达式
+    private final String[] expressions;
+    // 连线 -> 是否1.0简单条件表达式，编译后的求值顺序与juel一致
+    private final boolean[] simple;
+    private final RuleMatcher matcher;
+    // 默认连线，都不满足时选择，可以为null
+    private final String defaultFlow;
+
+    /**
+     * @param conditions 连线ID -> 条件表达式，按迭代顺序作为优先级；条件为空的连线总是满足
+     * @param defaultFlow 默认连线ID，都不满足时选择，可以为null
+     */
+    public GatewayEvaluator(Map<String, String> conditions, String defaultFlow) {
+        int size = conditions.size() - (defaultFlow != null && conditions.containsKey(defaultFlow) ? 1 : 0);
+        this.flowIds = new String[size];
+        this.ruleOf = new int[size];
+        this.expressions = new String[size];
+        this.simple = new boolean[size];
+        this.defaultFlow = defaultFlow;
+        List<CompiledCondition> rules = new ArrayList<>(size);
+        int flow = 0;
+        for (Map.Entry<String, String> entry : conditions.entrySet()) {
+            if (entry.getKey().equals(defaultFlow)) {
+                continue;
+            }
+            flowIds[flow] = entry.getKey();
+            expressions[flow] = entry.getValue();
+            List<List<ConditionNode>> nodeList = simpleNodeList(entry.getValue());
+            simple[flow] = nodeList != null;
+            if (nodeList == null) {
+                nodeList = DnfNormalizer.normalize(entry.getValue());
+            }
+            if (nodeList == null) {
+                ruleOf[flow] = -1;
+            } else {
+                ruleOf[flow] = rules.size();
+                rules.add(CompiledCondition.compile(nodeList));
+            }
+            flow++;
+        }
+        this.matcher = new RuleMatcher(rules);
+    }
+
+    public GatewayEvaluator(Map<String, String> conditions) {
+        this(conditions, null);
+    }
+
+    /**
+     * 编译条件表达式：1.0简单条件表达式直接编译，嵌套条件先规范化成析取范式，都不行返回null
+     */
+    static CompiledCondition compile(String expression) {
+        List<List<ConditionNode>> nodeList = toNodeList(expression);
+        return nodeList == null ? null : CompiledCondition.compile(nodeList);
+    }
+
+    /**
+     * 条件表达式转换成条件表单，空条件是一个空的或公式（总是满足），不能转换时返回null
+     */
+    static List<List<ConditionNode>> toNodeList(String expression) {
+        List<List<ConditionNode>> nodeList = simpleNodeList(expression);
+        // 嵌套条件规范化成析取范式
+        return nodeList != null ? nodeList : DnfNormalizer.normalize(expression);
+    }
+
+    /**
+     * 1.0简单条件表达式转换成条件表单，空条件是一个空的或公式，解析后再生成的表达式与原文不一致时返回null
+     */
+    static List<List<ConditionNode>> simpleNodeList(String expression) {
+        if (StringUtils.isBlank(expression)) {
+            return Collections.singletonList(Collections.emptyList());
+        }
+        try {
+            List<List<ConditionNode>> nodeList = SimpleConditionExpressionParser.parseSimpleExpression(expression);
+            if (expression.equals(SimpleConditionExpressionParser.generateSimpleExpression(nodeList)) && identifiers(nodeList)) {
+                return nodeList;
+            }
+        } catch (Exception e) {
+            // 不是简单条件表达式
+        }
+        return null;
+    }
+
+    /**
+     * 原子条件的变量、参数路径都是标识符。1.0解析器按文本切分，嵌套括号、not等会被切进变量名或参数，再生成的表达式仍与原文一致
+     */
+    private static boolean identifiers(List<List<ConditionNode>> nodeList) {
+        for (List<ConditionNode> andNodes : nodeList) {
+            for (ConditionNode node : andNodes) {
+                if (!identifier(node.getVariable())) {
+                    return false;
+                }
+                if ((node.getValueType() == ConditionValueType.PARAM || node.getValueType() == ConditionValueType.OBJECTPARAM)
+                        && !node.getOperator().isList()) {
+                    for (String name : CompiledCondition.Atom.path(node.getValue())) {
+                        if (!identifier(name)) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean identifier(String text) {
+        Scanner scanner = new Scanner("${" + text + "}");
+        try {
+            return scanner.next().getSymbol() == Scanner.Symbol.START_EVAL_DYNAMIC
+                    && scanner.next().getSymbol() == Scanner.Symbol.IDENTIFIER
+                    && scanner.next().getSymbol() == Scanner.Symbol.END_EVAL
+                    && scanner.next().getSymbol() == Scanner.Symbol.EOF;
+        } catch (Scanner.ScanException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 排他网关：按优先级取第一条满足的连线
+     * @param params 条件表达式变量参数
+     * @return 连线ID，都不满足时返回默认连线（可能为null）
+     */
+    public <V extends ExpressionVariable<?>> String firstMatch(List<V> params) {
+        List<String> flows = evaluate(Mode.FIRST_MATCH, CompiledCondition.toVariableMap(params));
+        return flows.isEmpty() ? null : flows.get(0);
+    }
+
+    /**
+     * 包容网关：取全部满足的连线
+     * @param params 条件表达式变量参数
+     * @return 连线ID，都不满足时只有默认连线（没有默认连线时为空）
+     */
+    public <V extends ExpressionVariable<?>> List<String> allMatches(List<V> params) {
+        return evaluate(Mode.ALL_MATCHES, CompiledCondition.toVariableMap(params));
+    }
+
+    /**
+     * 按变量表求值
+     * @param mode 求值方式
+     * @param variables 变量表，变量名不带#{}、${}
+     * @return 满足的连线ID，都不满足时只有默认连线（没有默认连线时为空）
+     * @throws javax.el.PropertyNotFoundException 求值用到的变量不在变量表中
+     */
+    public List<String> evaluate(Mode mode, Map<String, ?> variables) {
+        RuleMatcher.Evaluation evaluation = matcher.begin(variables);
+        SimpleContext context = null;
+        List<String> result = new ArrayList<>(mode == Mode.FIRST_MATCH ? 1 : flowIds.length);
+        for (int flow = 0; flow < flowIds.length; flow++) {
+            Boolean matched = null;
+            int rule = ruleOf[flow];
+            if (rule >= 0 && (simple[flow] || matcher.getRule(rule).isBound(variables))) {
+                try {
+                    matched = evaluation.test(rule);
+                } catch (RuntimeException e) {
+                    if (simple[flow]) {
+                        throw e;
+                    }
+                }
+            }
+            if (matched == null) {
+                // 析取范式缺少变量或出错时按juel求值，短路顺序、异常与getConditionExpressionValue一致
+                if (context == null) {
+                    context = bind(variables);
+                }
+                matched = (Boolean) SimpleConditionExpressionParser.conditionExpressionFactory()
+                        .createValueExpression(context, expressions[flow], boolean.class).getValue(context);
+            }
+            if (matched) {
+                result.add(flowIds[flow]);
+                if (mode == Mode.FIRST_MATCH) {
+                    return result;
+                }
+            }
+        }
+        if (result.isEmpty() && defaultFlow != null) {
+            result.add(defaultFlow);
+        }
+        return result;
+    }
+
+    /**
+     * 变量表绑定到juel上下文，只绑定一次
+     */
+    private static SimpleContext bind(Map<String, ?> variables) {
+        ExpressionFactory factory = SimpleConditionExpressionParser.conditionExpressionFactory();
+        SimpleContext context = FunctionRegistry.DEFAULT.bindTo(new SimpleContext(new SimpleResolver()));
+        for (Map.Entry<String, ?> entry : variables.entrySet()) {
+            ValueExpression value = factory.createValueExpression(entry.getValue(), Object.class);
+            context.setVariable(entry.getKey(), value);
+        }
+        return context;
+    }
+
+    /**
+     * @return 出口连线数量，不含默认连线
+     */
+    public int size() {
+        return flowIds.length;
+    }
+
+    /**
+     * @return 不能编译、总是按juel求值的连线数量
+     */
+    public int getInterpretedCount() {
+        int count = 0;
+        for (int rule : ruleOf) {
+            count += rule < 0 ? 1 : 0;
+        }
+        return count;
+    }
+
+    public String getDefaultFlow() {
+        return defaultFlow;
+    }
+}
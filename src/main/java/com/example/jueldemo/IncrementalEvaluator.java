@@ -0,0 +1,444 @@
+package com.example.jueldemo;
+
+import com.example.jueldemo.CompiledCondition.Atom;
+import de.odysseus.el.tree.impl.Builder;
+import de.odysseus.el.tree.impl.ast.AstNode;
+
+import java.util.*;
+
+/**
+ * 变量变更驱动的增量求值
+ * 流程实例不断收到变量更新，需要知道等待中的条件什么时候变成满足。原来每次变更后全部重新求值，
+ * 这里为每个实例保存原子条件、或公式的状态，按变量名建反向依赖：变量 -> 读取它的原子条件，
+ * 变量变更时只重新计算受影响的原子条件，输出结果发生变化的或公式和条件。
+ * 不能编译的条件按整个条件依赖{@link JuelParser#parseExpressTreeVariables}解析出的变量，变更时整条重新求值。
+ * 变量表缺少原子条件读取的变量时原子条件记为不满足，条件本身按{@link DnfNormalizer.NormalizedCondition#evaluate(Map)}求值，
+ * 与juel一样在用到缺少的变量时抛出PropertyNotFoundException；原子条件求值出错（取值类型不能转换）时同样记为不满足，
+ * 所在条件按顺序求值，juel短路跳过这个原子条件时结果相同，否则抛出相同的异常。
+ * 构建后只读，线程安全；实例状态非线程安全
+ * @author hu
+ */
+public class IncrementalEvaluator {
+
+    // 条件ID
+    private final String[] conditionIds;
+    private final Map<String, Integer> conditionIndex = new HashMap<>();
+    // 按语法树求值的条件，编译过的为null
+    private final DnfNormalizer.NormalizedCondition[] interpreted;
+    // 编译过的条件，缺少变量时按它求值；按语法树求值的为null
+    private final DnfNormalizer.NormalizedCondition[] rules;
+    // 全部条件去重后的原子条件
+    private final Atom[] atoms;
+    // 原子条件读取的变量名
+    private final String[][] atomVariables;
+    // 全局或公式编号 -> 原子条件编号，同一原子条件在或公式中出现几次就记几次
+    private final int[][] clauses;
+    // 全局或公式编号 -> 所属条件、条件内的或公式下标
+    private final int[] clauseCondition;
+    private final int[] clauseLocal;
+    // 条件 -> 全局或公式编号，按语法树求值的为空
+    private final int[][] conditionClauses;
+    // 原子条件 -> 出现的全局或公式编号
+    private final int[][] atomClauses;
+    // 变量名 -> 读取它的原子条件、编译过的条件、按语法树求值的条件
+    private final Map<String, int[]> atomsByVariable;
+    private final Map<String, int[]> compiledByVariable;
+    private final Map<String, int[]> interpretedByVariable;
+
+    /**
+     * @param conditions 条件ID -> 条件表达式
+     */
+    public IncrementalEvaluator(Map<String, String> conditions) {
+        int size = conditions.size();
+        this.conditionIds = new String[size];
+        this.interpreted = new DnfNormalizer.NormalizedCondition[size];
+        this.rules = new DnfNormalizer.NormalizedCondition[size];
+        this.conditionClauses = new int[size][];
+        Map<String, Integer> atomIndex = new HashMap<>();
+        List<Atom> atomList = new ArrayList<>();
+        List<int[]> clauseList = new ArrayList<>();
+        List<Integer> clauseConditionList = new ArrayList<>();
+        List<Integer> clauseLocalList = new ArrayList<>();
+        Map<String, Set<Integer>> compiledVariables = new HashMap<>();
+        Map<String, Set<Integer>> interpretedVariables = new HashMap<>();
+        int condition = 0;
+        for (Map.Entry<String, String> entry : conditions.entrySet()) {
+            conditionIds[condition] = entry.getKey();
+            conditionIndex.put(entry.getKey(), condition);
+            CompiledCondition rule = GatewayEvaluator.compile(entry.getValue());
+            if (rule == null) {
+                interpreted[condition] = DnfNormalizer.compile(entry.getValue());
+                conditionClauses[condition] = new int[0];
+                for (String variable : variables(entry.getValue())) {
+                    interpretedVariables.computeIfAbsent(variable, k -> new TreeSet<>()).add(condition);
+                }
+            } else {
+                rules[condition] = DnfNormalizer.wrap(entry.getValue(), rule);
+                conditionClauses[condition] = new int[rule.getClauseCount()];
+                for (String variable : rule.getVariables()) {
+                    compiledVariables.computeIfAbsent(variable, k -> new TreeSet<>()).add(condition);
+                }
+                for (int c = 0; c < rule.getClauseCount(); c++) {
+                    int[] clause = rule.getClause(c);
+                    for (int i = 0; i < clause.length; i++) {
+                        Atom atom = rule.getAtom(clause[i]);
+                        Integer id = atomIndex.get(atom.getKey());
+                        if (id == null) {
+                            id = atomList.size();
+                            atomIndex.put(atom.getKey(), id);
+                            atomList.add(atom);
+                        }
+                        clause[i] = id;
+                    }
+                    conditionClauses[condition][c] = clauseList.size();
+                    clauseList.add(clause);
+                    clauseConditionList.add(condition);
+                    clauseLocalList.add(c);
+                }
+            }
+            condition++;
+        }
+        this.atoms = atomList.toArray(new Atom[0]);
+        this.clauses = clauseList.toArray(new int[0][]);
+        this.clauseCondition = clauseConditionList.stream().mapToInt(Integer::intValue).toArray();
+        this.clauseLocal = clauseLocalList.stream().mapToInt(Integer::intValue).toArray();
+
+        List<List<Integer>> occurrences = new ArrayList<>(atoms.length);
+        for (int id = 0; id < atoms.length; id++) {
+            occurrences.add(new ArrayList<>());
+        }
+        for (int clause = 0; clause < clauses.length; clause++) {
+            for (int id : clauses[clause]) {
+                occurrences.get(id).add(clause);
+            }
+        }
+        this.atomClauses = new int[atoms.length][];
+        this.atomVariables = new String[atoms.length][];
+        Map<String, Set<Integer>> variableAtoms = new HashMap<>();
+        for (int id = 0; id < atoms.length; id++) {
+            atomClauses[id] = occurrences.get(id).stream().mapToInt(Integer::intValue).toArray();
+            Set<String> variables = new LinkedHashSet<>();
+            atoms[id].collectVariables(variables);
+            atomVariables[id] = variables.toArray(new String[0]);
+            for (String variable : variables) {
+                variableAtoms.computeIfAbsent(variable, k -> new TreeSet<>()).add(id);
+            }
+        }
+        this.atomsByVariable = toArrays(variableAtoms);
+        this.compiledByVariable = toArrays(compiledVariables);
+        this.interpretedByVariable = toArrays(interpretedVariables);
+    }
+
+    /**
+     * 条件表达式语法树中的变量
+     */
+    private static Set<String> variables(String expression) {
+        try {
+            AstNode root = (AstNode) new ConditionParser(new Builder(Builder.Feature.METHOD_INVOCATIONS, Builder.Feature.VARARGS), expression)
+                    .tree().getRoot();
+            return JuelParser.parseExpressTreeVariables(root);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("条件表达式解析失败：" + expression, e);
+        }
+    }
+
+    private static Map<String, int[]> toArrays(Map<String, Set<Integer>> map) {
+        Map<String, int[]> result = new HashMap<>();
+        for (Map.Entry<String, Set<Integer>> entry : map.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+        return result;
+    }
+
+    /**
+     * 按初始变量表全量求值一次，创建实例状态
+     * @param variables 初始变量表，复制一份保存
+     * @return
+     */
+    public Instance newInstance(Map<String, ?> variables) {
+        return new Instance(variables);
+    }
+
+    /**
+     * 变化类型
+     */
+    public enum ChangeType {
+        /**
+         * 或公式结果变化
+         */
+        CLAUSE,
+        /**
+         * 条件结果变化
+         */
+        CONDITION
+    }
+
+    /**
+     * 一次结果变化
+     */
+    public static final class Change {
+        private final ChangeType type;
+        private final String conditionId;
+        // 条件内的或公式下标，条件变化时为-1
+        private final int clause;
+        private final boolean value;
+
+        Change(ChangeType type, String conditionId, int clause, boolean value) {
+            this.type = type;
+            this.conditionId = conditionId;
+            this.clause = clause;
+            this.value = value;
+        }
+
+        public ChangeType getType() {
+            return type;
+        }
+
+        public String getConditionId() {
+            return conditionId;
+        }
+
+        public int getClause() {
+            return clause;
+        }
+
+        /**
+         * @return 变化后的结果
+         */
+        public boolean getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return conditionId + (type == ChangeType.CLAUSE ? "#" + clause : "") + "=" + value;
+        }
+    }
+
+    /**
+     * 一个实例的求值状态：当前变量、原子条件结果、每个或公式不满足的原子条件个数、每个条件满足的或公式个数
+     */
+    public final class Instance {
+        private final Map<String, Object> variables;
+        private final BitSet atomValues = new BitSet(atoms.length);
+        // 求值出错的原子条件，记为不满足
+        private final BitSet atomErrors = new BitSet(atoms.length);
+        private final int[] falseCounts = new int[clauses.length];
+        private final int[] trueClauses = new int[conditionIds.length];
+        private final BitSet conditionValues = new BitSet(conditionIds.length);
+
+        Instance(Map<String, ?> initial) {
+            this.variables = new HashMap<>(initial);
+            for (int id = 0; id < atoms.length; id++) {
+                try {
+                    if (test(id)) {
+                        atomValues.set(id);
+                    }
+                } catch (RuntimeException e) {
+                    atomErrors.set(id);
+                }
+            }
+            for (int clause = 0; clause < clauses.length; clause++) {
+                for (int id : clauses[clause]) {
+                    if (!atomValues.get(id)) {
+                        falseCounts[clause]++;
+                    }
+                }
+                if (falseCounts[clause] == 0) {
+                    trueClauses[clauseCondition[clause]]++;
+                }
+            }
+            for (int condition = 0; condition < conditionIds.length; condition++) {
+                boolean value;
+                if (interpreted[condition] != null) {
+                    value = interpreted[condition].evaluate(variables);
+                } else {
+                    value = ordered(condition, atomErrors) ? rules[condition].evaluate(variables) : trueClauses[condition] > 0;
+                }
+                conditionValues.set(condition, value);
+            }
+        }
+
+        /**
+         * 原子条件读取的变量不全时记为不满足，条件的结果按顺序求值决定
+         */
+        private boolean test(int id) {
+            return CompiledCondition.containsAll(variables, atomVariables[id]) && atoms[id].test(variables);
+        }
+
+        /**
+         * 缺少条件读取的变量或者有原子条件出错时，编译过的条件按顺序求值才与juel一致
+         */
+        private boolean ordered(int condition, BitSet errors) {
+            if (!rules[condition].getCompiled().isBound(variables)) {
+                return true;
+            }
+            for (int clause : conditionClauses[condition]) {
+                for (int id : clauses[clause]) {
+                    if (errors.get(id)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 变量变更：只重新计算读取这个变量的原子条件和不能编译的条件
+         * @param name 变量名
+         * @param value 新的值
+         * @return 结果发生变化的或公式和条件，或公式在前，按条件顺序
+         */
+        public List<Change> variableChanged(String name, Object value) {
+            boolean present = variables.containsKey(name);
+            Object previous = variables.put(name, value);
+            if (present && Objects.equals(previous, value)) {
+                return Collections.emptyList();
+            }
+            int[] affectedAtoms = atomsByVariable.getOrDefault(name, new int[0]);
+            int[] affectedRules = compiledByVariable.getOrDefault(name, new int[0]);
+            int[] affectedConditions = interpretedByVariable.getOrDefault(name, new int[0]);
+            // 先算出新结果，计算出错时恢复变量，状态不变
+            BitSet flipped = new BitSet(atoms.length);
+            BitSet errors = (BitSet) atomErrors.clone();
+            // 缺少变量或者有原子条件出错的编译过的条件按顺序求值的结果
+            Map<Integer, Boolean> orderedValues = new HashMap<>();
+            boolean[] interpretedValues = new boolean[affectedConditions.length];
+            try {
+                for (int id : affectedAtoms) {
+                    boolean satisfied = false;
+                    try {
+                        satisfied = test(id);
+                        errors.clear(id);
+                    } catch (RuntimeException e) {
+                        errors.set(id);
+                    }
+                    if (satisfied != atomValues.get(id)) {
+                        flipped.set(id);
+                    }
+                }
+                for (int condition : affectedRules) {
+                    if (ordered(condition, errors)) {
+                        orderedValues.put(condition, rules[condition].evaluate(variables));
+                    }
+                }
+                for (int i = 0; i < affectedConditions.length; i++) {
+                    interpretedValues[i] = interpreted[affectedConditions[i]].evaluate(variables);
+                }
+            } catch (RuntimeException e) {
+                if (present) {
+                    variables.put(name, previous);
+                } else {
+                    variables.remove(name);
+                }
+                throw e;
+            }
+
+            atomErrors.clear();
+            atomErrors.or(errors);
+            List<Change> changes = new ArrayList<>();
+            BitSet dirty = new BitSet(conditionIds.length);
+            for (int id = flipped.nextSetBit(0); id >= 0; id = flipped.nextSetBit(id + 1)) {
+                atomValues.flip(id);
+                int delta = atomValues.get(id) ? -1 : 1;
+                for (int clause : atomClauses[id]) {
+                    boolean wasTrue = falseCounts[clause] == 0;
+                    falseCounts[clause] += delta;
+                    boolean isTrue = falseCounts[clause] == 0;
+                    if (wasTrue != isTrue) {
+                        trueClauses[clauseCondition[clause]] += isTrue ? 1 : -1;
+                        dirty.set(clauseCondition[clause]);
+                        changes.add(new Change(ChangeType.CLAUSE, conditionIds[clauseCondition[clause]], clauseLocal[clause], isTrue));
+                    }
+                }
+            }
+            // 或公式可能先变成满足又变回不满足，按最终状态去掉没有变化的
+            changes = netClauseChanges(changes);
+            for (int condition : affectedRules) {
+                dirty.set(condition);
+            }
+            for (int condition = dirty.nextSetBit(0); condition >= 0; condition = dirty.nextSetBit(condition + 1)) {
+                Boolean ordered = orderedValues.get(condition);
+                boolean isTrue = ordered != null ? ordered : trueClauses[condition] > 0;
+                if (isTrue != conditionValues.get(condition)) {
+                    conditionValues.set(condition, isTrue);
+                    changes.add(new Change(ChangeType.CONDITION, conditionIds[condition], -1, isTrue));
+                }
+            }
+            for (int i = 0; i < affectedConditions.length; i++) {
+                int condition = affectedConditions[i];
+                if (interpretedValues[i] != conditionValues.get(condition)) {
+                    conditionValues.set(condition, interpretedValues[i]);
+                    changes.add(new Change(ChangeType.CONDITION, conditionIds[condition], -1, interpretedValues[i]));
+                }
+            }
+            return changes;
+        }
+
+        /**
+         * 同一或公式多次变化只保留与变更前不同的最终结果
+         */
+        private List<Change> netClauseChanges(List<Change> changes) {
+            if (changes.size() < 2) {
+                return changes;
+            }
+            Map<String, Change> last = new LinkedHashMap<>();
+            Map<String, Boolean> first = new HashMap<>();
+            for (Change change : changes) {
+                String key = change.conditionId + "#" + change.clause;
+                first.putIfAbsent(key, !change.value);
+                last.remove(key);
+                last.put(key, change);
+            }
+            List<Change> result = new ArrayList<>(last.size());
+            for (Map.Entry<String, Change> entry : last.entrySet()) {
+                if (entry.getValue().value != first.get(entry.getKey())) {
+                    result.add(entry.getValue());
+                }
+            }
+            result.sort(Comparator.comparingInt((Change change) -> conditionIndex.get(change.conditionId)).thenComparingInt(change -> change.clause));
+            return result;
+        }
+
+        /**
+         * @param conditionId
+         * @return 条件当前是否满足
+         */
+        public boolean isSatisfied(String conditionId) {
+            Integer condition = conditionIndex.get(conditionId);
+            if (condition == null) {
+                throw new IllegalArgumentException("条件不存在：" + conditionId);
+            }
+            return conditionValues.get(condition);
+        }
+
+        /**
+         * @return 当前满足的条件ID
+         */
+        public List<String> getSatisfied() {
+            List<String> result = new ArrayList<>(conditionValues.cardinality());
+            for (int condition = conditionValues.nextSetBit(0); condition >= 0; condition = conditionValues.nextSetBit(condition + 1)) {
+                result.add(conditionIds[condition]);
+            }
+            return result;
+        }
+
+        /**
+         * @return 当前变量表，只读
+         */
+        public Map<String, Object> getVariables() {
+            return Collections.unmodifiableMap(variables);
+        }
+    }
+
+    public int size() {
+        return conditionIds.length;
+    }
+
+    /**
+     * @return 全部条件去重后的原子条件数量
+     */
+    public int getAtomCount() {
+        return atoms.length;
+    }
+}
@@ -0,0 +1,326 @@
+package com.example.jueldemo;
+
+import com.example.jueldemo.CompiledCondition.Atom;
+import com.example.jueldemo.SimpleConditionExpressionParser.*;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * 区间索引
+ * 规则表大多是少数几个变量上的分档阈值，例如 amount>1000 && amount<=5000、date3<'2022-01-01'。
+ * 把所有规则中同一变量上固定值的<、<=、>、>=、between原子条件的边界排序去重，k个边界把取值轴分成2k+1段
+ * （边界之间的开区间和边界点本身），每段预先计算满足的原子条件位图，查询时二分查找取值所在的段，O(log n)得到结果。
+ * 数值按double比较，只索引能精确表示成double的字面量（整数绝对值不超过2^53），结果与juel的比较一致；日期按纪元日比较。
+ * 取值类型与索引不匹配时（例如数值条件传入字符串）这些原子条件交给调用方逐个计算。
+ * 构建后只读，线程安全
+ * @author hu
+ */
+public class IntervalIndex implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // double能精确表示的整数范围
+    private static final long MAX_EXACT = 1L << 53;
+
+    // 编号 -> 原子条件，没有索引的为null
+    private final Atom[] atoms;
+    // 索引过的原子条件编号
+    private final BitSet indexed;
+    // 变量名 -> 数值、日期分段
+    private final Map<String, VariableBands> variables;
+
+    private IntervalIndex(Atom[] atoms, BitSet indexed, Map<String, VariableBands> variables) {
+        this.atoms = atoms;
+        this.indexed = indexed;
+        this.variables = variables;
+    }
+
+    /**
+     * 能否进入区间索引：固定值的<、<=、>、>=、between，值是可精确比较的数值或规范日期
+     * @param atom
+     * @return
+     */
+    public static boolean indexable(Atom atom) {
+        return range(atom) != null;
+    }
+
+    /**
+     * 构建区间索引，原子条件的编号就是数组下标，不能索引的原子条件忽略
+     * @param atoms
+     * @return
+     */
+    public static IntervalIndex build(Atom[] atoms) {
+        Atom[] indexedAtoms = new Atom[atoms.length];
+        BitSet indexed = new BitSet(atoms.length);
+        Map<String, List<Range>> numberRanges = new LinkedHashMap<>();
+        Map<String, List<Range>> dateRanges = new LinkedHashMap<>();
+        for (int id = 0; id < atoms.length; id++) {
+            Range range = atoms[id] == null ? null : range(atoms[id]);
+            if (range == null) {
+                continue;
+            }
+            range.id = id;
+            indexedAtoms[id] = atoms[id];
+            indexed.set(id);
+            (range.date ? dateRanges : numberRanges).computeIfAbsent(atoms[id].getVariable(), k -> new ArrayList<>()).add(range);
+        }
+        Map<String, VariableBands> variables = new HashMap<>();
+        for (Map.Entry<String, List<Range>> entry : numberRanges.entrySet()) {
+            variables.computeIfAbsent(entry.getKey(), k -> new VariableBands()).numbers = new Bands(entry.getValue());
+        }
+        for (Map.Entry<String, List<Range>> entry : dateRanges.entrySet()) {
+            variables.computeIfAbsent(entry.getKey(), k -> new VariableBands()).dates = new Bands(entry.getValue());
+        }
+        return new IntervalIndex(indexedAtoms, indexed, variables);
+    }
+
+    /**
+     * @param id
+     * @return 原子条件是否在索引中
+     */
+    public boolean isIndexed(int id) {
+        return indexed.get(id);
+    }
+
+    /**
+     * @return 有区间条件的变量名
+     */
+    public Set<String> getVariables() {
+        return Collections.unmodifiableSet(variables.keySet());
+    }
+
+    /**
+     * @return 全部变量的分段总数
+     */
+    public int getBandCount() {
+        int count = 0;
+        for (VariableBands bands : variables.values()) {
+            count += bands.numbers == null ? 0 : bands.numbers.bands.length;
+            count += bands.dates == null ? 0 : bands.dates.bands.length;
+        }
+        return count;
+    }
+
+    /**
+     * 查询变量表满足的区间原子条件
+     * @param variables 变量表
+     * @param satisfied 输出：满足的原子条件编号
+     * @param unresolved 输出：取值类型与索引不匹配、需要调用方自己计算的原子条件编号
+     */
+    public void match(Map<String, ?> variables, BitSet satisfied, BitSet unresolved) {
+        for (Map.Entry<String, VariableBands> entry : this.variables.entrySet()) {
+            entry.getValue().match(variables.get(entry.getKey()), satisfied, unresolved);
+        }
+    }
+
+    /**
+     * 查询一个变量取值满足的区间原子条件，取值类型与索引不匹配的原子条件直接计算
+     * @param variable
+     * @param value
+     * @return 满足的原子条件编号
+     */
+    public BitSet match(String variable, Object value) {
+        BitSet satisfied = new BitSet(atoms.length);
+        VariableBands bands = variables.get(variable);
+        if (bands == null) {
+            return satisfied;
+        }
+        BitSet unresolved = new BitSet();
+        bands.match(value, satisfied, unresolved);
+        Map<String, Object> single = Collections.singletonMap(variable, value);
+        for (int id = unresolved.nextSetBit(0); id >= 0; id = unresolved.nextSetBit(id + 1)) {
+            if (atoms[id].test(single)) {
+                satisfied.set(id);
+            }
+        }
+        return satisfied;
+    }
+
+    /**
+     * 原子条件转换成区间，不能索引返回null
+     */
+    private static Range range(Atom atom) {
+        if (!atom.isFixed()) {
+            return null;
+        }
+        MyOperator operator = atom.getOperator();
+        if (operator == MyOperator.BETWEEN) {
+            CompiledCondition.ListValue list = atom.getList();
+            Range low = bound(list.literals[0], list.epochDay(0));
+            Range high = bound(list.literals[1], list.epochDay(1));
+            if (low == null || high == null || low.date != high.date) {
+                return null;
+            }
+            low.high = high.low;
+            low.lowInclusive = true;
+            low.highInclusive = true;
+            return low;
+        }
+        if (operator != MyOperator.LT && operator != MyOperator.LE && operator != MyOperator.GT && operator != MyOperator.GE) {
+            return null;
+        }
+        Range range = bound(atom.getLiteral(), atom.getEpochDay());
+        if (range == null) {
+            return null;
+        }
+        if (operator == MyOperator.LT || operator == MyOperator.LE) {
+            range.high = range.low;
+            range.highInclusive = operator == MyOperator.LE;
+            range.low = Double.NaN;
+        } else {
+            range.high = Double.NaN;
+            range.lowInclusive = operator == MyOperator.GE;
+        }
+        return range;
+    }
+
+    /**
+     * 字面量转换成单点区间，边界值放在low
+     */
+    private static Range bound(Object literal, int epochDay) {
+        Range range = new Range();
+        if (epochDay != DateLiterals.NO_DATE) {
+            range.date = true;
+            range.low = epochDay;
+            return range;
+        }
+        double key = numberKey(literal);
+        if (Double.isNaN(key)) {
+            return null;
+        }
+        range.low = key;
+        return range;
+    }
+
+    /**
+     * 数值转换成比较用的double，不能精确比较返回NaN
+     */
+    static double numberKey(Object value) {
+        if (CompiledCondition.isIntegral(value)) {
+            long number = ((Number) value).longValue();
+            return number < -MAX_EXACT || number > MAX_EXACT ? Double.NaN : number;
+        }
+        if (value instanceof Double || value instanceof Float) {
+            // -0.0与0.0在juel中相等
+            return ((Number) value).doubleValue() + 0.0;
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * 区间，low、high为NaN表示无界
+     */
+    private static final class Range {
+        int id;
+        boolean date;
+        double low;
+        boolean lowInclusive;
+        double high;
+        boolean highInclusive;
+    }
+
+    /**
+     * 一个变量的数值、日期分段
+     */
+    private static final class VariableBands implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        Bands numbers;
+        Bands dates;
+
+        void match(Object value, BitSet satisfied, BitSet unresolved) {
+            // 取值为null时区间条件都不成立
+            if (value == null) {
+                return;
+            }
+            if (numbers != null) {
+                double key = numberKey(value);
+                if (Double.isNaN(key)) {
+                    unresolved.or(numbers.all);
+                } else {
+                    satisfied.or(numbers.band(key));
+                }
+            }
+            if (dates != null) {
+                int day = DateLiterals.epochDay(value);
+                if (day == DateLiterals.NO_DATE) {
+                    unresolved.or(dates.all);
+                } else {
+                    satisfied.or(dates.band(day));
+                }
+            }
+        }
+    }
+
+    /**
+     * 排序去重的边界和每段满足的原子条件位图
+     * 第2i段是(b[i-1], b[i])开区间，第2i+1段是边界点b[i]，共2k+1段；没有变化的相邻段共用同一个位图
+     */
+    private static final class Bands implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final double[] bounds;
+        private final BitSet[] bands;
+        // 这一组的全部原子条件
+        private final BitSet all = new BitSet();
+
+        Bands(List<Range> ranges) {
+            double[] values = new double[ranges.size() * 2];
+            int count = 0;
+            for (Range range : ranges) {
+                if (!Double.isNaN(range.low)) {
+                    values[count++] = range.low;
+                }
+                if (!Double.isNaN(range.high)) {
+                    values[count++] = range.high;
+                }
+                all.set(range.id);
+            }
+            bounds = Arrays.stream(values, 0, count).sorted().distinct().toArray();
+            int bandCount = bounds.length * 2 + 1;
+            // 每段新增、移除的原子条件
+            List<List<Integer>> starts = new ArrayList<>(Collections.nCopies(bandCount + 1, null));
+            List<List<Integer>> ends = new ArrayList<>(Collections.nCopies(bandCount + 1, null));
+            for (Range range : ranges) {
+                int from = Double.isNaN(range.low) ? 0 : Arrays.binarySearch(bounds, range.low) * 2 + (range.lowInclusive ? 1 : 2);
+                int to = Double.isNaN(range.high) ? bandCount - 1 : Arrays.binarySearch(bounds, range.high) * 2 + (range.highInclusive ? 1 : 0);
+                if (from > to) {
+                    // 空区间，例如between (5, 3)
+                    continue;
+                }
+                add(starts, from, range.id);
+                add(ends, to + 1, range.id);
+            }
+            bands = new BitSet[bandCount];
+            BitSet current = new BitSet();
+            for (int band = 0; band < bandCount; band++) {
+                if (starts.get(band) != null || ends.get(band) != null) {
+                    current = (BitSet) current.clone();
+                    if (ends.get(band) != null) {
+                        ends.get(band).forEach(current::clear);
+                    }
+                    if (starts.get(band) != null) {
+                        starts.get(band).forEach(current::set);
+                    }
+                }
+                bands[band] = current;
+            }
+        }
+
+        private static void add(List<List<Integer>> events, int band, int id) {
+            if (events.get(band) == null) {
+                events.set(band, new ArrayList<>());
+            }
+            events.get(band).add(id);
+        }
+
+        /**
+         * 二分查找取值所在的段
+         */
+        BitSet band(double key) {
+            int position = Arrays.binarySearch(bounds, key);
+            return bands[position >= 0 ? position * 2 + 1 : -(position + 1) * 2];
+        }
+    }
+}
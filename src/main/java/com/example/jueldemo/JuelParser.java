@@ -54,7 +54,11 @@ public class JuelParser {
         ADD,
         MUL,
         UNARY,
-        LITERAL
+        LITERAL,
+        /**
+         * 与CMP同一优先级，右操作数是括号内的列表 (a, b, ...)，前面可以加not取反
+         */
+        LIST
     }
 
     /**
@@ -253,9 +257,25 @@ public class JuelParser {
     }
 
     /**
-     * tree := text? ((dynamic text?)+ | (deferred text?)+)?
+     * Parse the input, recording a JFR parse event for slow parses.
      */
     public Tree tree() throws ScanException, JuelParser.ParseException {
+        ConditionEvents.ParseEvent event = new ConditionEvents.ParseEvent();
+        event.begin();
+        boolean parsed = false;
+        try {
+            Tree tree = parseTree();
+            parsed = true;
+            return tree;
+        } finally {
+            event.record(scanner.getInput(), parsed);
+        }
+    }
+
+    /**
+     * tree := text? ((dynamic text?)+ | (deferred text?)+)?
+     */
+    private Tree parseTree() throws ScanException, JuelParser.ParseException {
         consumeToken();
         AstNode t = text();
         if (token.getSymbol() == EOF) {
@@ -432,7 +452,7 @@ public class JuelParser {
     }
 
     /**
-     * cmp := add (&lt;LT&gt; add | &lt;LE&gt; add | &lt;GE&gt; add | &lt;GT&gt; add)*
+     * cmp := add (&lt;LT&gt; add | &lt;LE&gt; add | &lt;GE&gt; add | &lt;GT&gt; add | &lt;NOT&gt;? &lt;LIST&gt; params)*
      */
     protected AstNode cmp(boolean required) throws ScanException, JuelParser.ParseException {
         AstNode v = add(required);
@@ -457,11 +477,22 @@ public class JuelParser {
                     consumeToken();
                     v = createAstBinary(v, add(true), AstBinary.GT);
                     break;
+                case NOT:
+                    if (lookahead(0).getSymbol() == EXTENSION && getExtensionHandler(lookahead(0)).getExtensionPoint() == JuelParser.ExtensionPoint.LIST) {
+                        consumeToken();
+                        v = createAstUnary(getExtensionHandler(consumeToken()).createAstNode(v, params()), AstUnary.NOT);
+                        break;
+                    }
+                    return v;
                 case EXTENSION:
                     if (getExtensionHandler(token).getExtensionPoint() == JuelParser.ExtensionPoint.CMP) {
                         v = getExtensionHandler(consumeToken()).createAstNode(v, add(true));
                         break;
                     }
+                    if (getExtensionHandler(token).getExtensionPoint() == JuelParser.ExtensionPoint.LIST) {
+                        v = getExtensionHandler(consumeToken()).createAstNode(v, params());
+                        break;
+                    }
                 default:
                     return v;
             }
@@ -777,134 +808,165 @@ public class JuelParser {
         return createAstComposite(list);
     }
 
+    // AstDot没有公开property的方法，反射字段只查找一次
+    private static final Field DOT_PROPERTY_FIELD;
+
+    static {
+        try {
+            DOT_PROPERTY_FIELD = AstDot.class.getDeclaredField("property");
+            DOT_PROPERTY_FIELD.setAccessible(true);
+        } catch (NoSuchFieldException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     /**
      * 根据语法树生成简单树
+     * 使用显式栈遍历，不随语法树深度递归；连续的&&、||（包括括号内的同一运算符）展开成一个多元节点
      * @param rootChild
      * @return
      * @throws Exception
      */
     public static ExpLeafNode parseExpressTree(AstNode rootChild) throws Exception {
-        ExpLeafNode leafNode = new ExpLeafNode();
-        if (rootChild instanceof AstBinary) {
-            AstBinary.Operator operator = ((AstBinary) rootChild).getOperator();
-            Class<? extends AstNode> rootChildClass = rootChild.getClass();
-            Field leftField = rootChildClass.getDeclaredField("left");
-            leftField.setAccessible(true);
-            AstNode leftNode = (AstNode) leftField.get(rootChild);
-            Field rightField = rootChildClass.getDeclaredField("right");
-            rightField.setAccessible(true);
-            AstNode rightNode = (AstNode) rightField.get(rootChild);
-            leafNode.setOperator(operator.toString());
-            ExpLeafNode leftSubLeafNode = null;
-            ExpLeafNode rightSubLeafNode = null;
-
-            if (leftNode instanceof AstBinary) {
-                leftSubLeafNode = parseExpressTree(leftNode);
-            } else if (leftNode instanceof AstNested) {
-                AstNode leftSubNode = (AstNode) leftNode.getChild(0);
-                leftSubLeafNode = parseExpressTree(leftSubNode);
-            } else if (leftNode instanceof AstIdentifier) {
-                String variableName = ((AstIdentifier) leftNode).getName();
-                leafNode.setLeftLeaf(variableName);
-            } else if (leftNode instanceof AstNull) {
-                leafNode.setLeftLeaf(null);
+        ExpLeafNode rootLeafNode = new ExpLeafNode();
+        Deque<Object> stack = new ArrayDeque<>();
+        stack.push(rootChild);
+        stack.push(rootLeafNode);
+        while (!stack.isEmpty()) {
+            ExpLeafNode leafNode = (ExpLeafNode) stack.pop();
+            AstNode node = (AstNode) stack.pop();
+            if (!(node instanceof AstBinary)) {
+                continue;
             }
-            leafNode.setLeftNode(leftSubLeafNode);
-
-            if (rightNode instanceof AstBinary) {
-                rightSubLeafNode = parseExpressTree(rightNode);
-            } else if (rightNode instanceof AstNested) {
-                AstNode rightSubNode = (AstNode) rightNode.getChild(0);
-                rightSubLeafNode = parseExpressTree(rightSubNode);
-            } else if (rightNode instanceof AstBoolean) {
-                AstBoolean rightValue = (AstBoolean) rightNode;
-                Field valueField = rightValue.getClass().getDeclaredField("value");
-                valueField.setAccessible(true);
-                String rightLeafValue = valueField.get(rightValue).toString();
-                leafNode.setRightLeaf(rightLeafValue);
-            } else if (rightNode instanceof AstString) {
-                AstString rightValue = (AstString) rightNode;
-                Field valueField = rightValue.getClass().getDeclaredField("value");
-                valueField.setAccessible(true);
-                String rightLeafValue = valueField.get(rightValue).toString();
-                leafNode.setRightLeaf("'" + rightLeafValue + "'");
-            } else if (rightNode instanceof AstNumber) {
-                AstNumber rightValue = (AstNumber) rightNode;
-                Field valueField = rightValue.getClass().getDeclaredField("value");
-                valueField.setAccessible(true);
-                Number number = (Number) valueField.get(rightValue);
-                BigDecimal bigDecimal = new BigDecimal(number.toString());
-                String rightLeafValue = null;
-                if (bigDecimal.scale() > 0) {
-                    rightLeafValue = bigDecimal.toString();
-                } else {
-                    rightLeafValue = bigDecimal.toBigInteger().toString();
-                }
-                leafNode.setRightLeaf(rightLeafValue);
-            } else if (rightNode instanceof AstNull) {
-                leafNode.setRightLeaf(null);
-            } else if (rightNode instanceof AstIdentifier) {
-                String variableName = ((AstIdentifier) rightNode).getName();
-                leafNode.setRightLeaf(variableName);
-            } else if (rightNode instanceof AstDot) {
-                AstDot rightValue = (AstDot) rightNode;
-                Field prefixField = null;
-                try {
-                    prefixField = rightValue.getClass().getDeclaredField("prefix");
-                } catch (NoSuchFieldException e) {
-                    prefixField = rightValue.getClass().getSuperclass().getDeclaredField("prefix");
+            AstBinary.Operator operator = ((AstBinary) node).getOperator();
+            leafNode.setOperator(operator.toString());
+            if (operator == AstBinary.AND || operator == AstBinary.OR) {
+                List<ExpLeafNode> children = new ArrayList<>();
+                List<String> childLeaves = new ArrayList<>();
+                Deque<AstNode> operands = new ArrayDeque<>();
+                operands.push(node);
+                while (!operands.isEmpty()) {
+                    AstNode operand = unwrapNested(operands.pop());
+                    if (operand instanceof AstBinary && ((AstBinary) operand).getOperator() == operator) {
+                        operands.push((AstNode) operand.getChild(1));
+                        operands.push((AstNode) operand.getChild(0));
+                    } else if (operand instanceof AstBinary) {
+                        ExpLeafNode child = new ExpLeafNode();
+                        children.add(child);
+                        childLeaves.add(null);
+                        stack.push(operand);
+                        stack.push(child);
+                    } else {
+                        children.add(null);
+                        childLeaves.add(leafText(operand));
+                    }
                 }
-                prefixField.setAccessible(true);
-                AstIdentifier objectIdentifier = (AstIdentifier) prefixField.get(rightValue);
-                String clazzName = objectIdentifier.getName();
-                Field propertyField = rightValue.getClass().getDeclaredField("property");
-                propertyField.setAccessible(true);
-                String propertyName = propertyField.get(rightValue).toString();
-                leafNode.setRightLeaf("#" + clazzName + "." + propertyName);
+                leafNode.setChildren(children);
+                leafNode.setChildLeaves(childLeaves);
+                continue;
+            }
+            AstNode leftNode = (AstNode) node.getChild(0);
+            if (leftNode instanceof AstBinary || leftNode instanceof AstNested) {
+                ExpLeafNode leftSubLeafNode = new ExpLeafNode();
+                leafNode.setLeftNode(leftSubLeafNode);
+                stack.push(leftNode instanceof AstNested ? leftNode.getChild(0) : leftNode);
+                stack.push(leftSubLeafNode);
+            } else {
+                leafNode.setLeftLeaf(leafText(leftNode));
+            }
+            AstNode rightNode = (AstNode) node.getChild(1);
+            if (rightNode instanceof AstBinary || rightNode instanceof AstNested) {
+                ExpLeafNode rightSubLeafNode = new ExpLeafNode();
+                leafNode.setRightNode(rightSubLeafNode);
+                stack.push(rightNode instanceof AstNested ? rightNode.getChild(0) : rightNode);
+                stack.push(rightSubLeafNode);
+            } else {
+                leafNode.setRightLeaf(leafText(rightNode));
             }
-            leafNode.setRightNode(rightSubLeafNode);
-
         }
-        return leafNode;
+        return rootLeafNode;
     }
 
+    /**
+     * 解析表达式语法树中的变量，使用显式栈遍历
+     * @param rootChild
+     * @return
+     * @throws Exception
+     */
     public static Set<String> parseExpressTreeVariables(AstNode rootChild) throws Exception {
         Set<String> variableSet = new HashSet<>();
-        if (rootChild instanceof AstBinary) {
-            Class<? extends AstNode> rootChildClass = rootChild.getClass();
-            Field leftField = rootChildClass.getDeclaredField("left");
-            leftField.setAccessible(true);
-            AstNode leftNode = (AstNode) leftField.get(rootChild);
-            Field rightField = rootChildClass.getDeclaredField("right");
-            rightField.setAccessible(true);
-            AstNode rightNode = (AstNode) rightField.get(rootChild);
-            variableSet.addAll(parseExpressTreeVariables(leftNode));
-            variableSet.addAll(parseExpressTreeVariables(rightNode));
-        } else if (rootChild instanceof AstNested) {
-            AstNode subNode = (AstNode) rootChild.getChild(0);
-            Set<String> variables = parseExpressTreeVariables(subNode);
-            variableSet.addAll(variables);
-        } else if (rootChild instanceof AstIdentifier) {
-            String variableName = ((AstIdentifier) rootChild).getName();
-            variableSet.add(variableName);
-        } else if (rootChild instanceof AstDot) {
-            AstDot objectParamValue = (AstDot) rootChild;
-            Field prefixField = null;
-            try {
-                prefixField = objectParamValue.getClass().getDeclaredField("prefix");
-            } catch (NoSuchFieldException e) {
-                prefixField = objectParamValue.getClass().getSuperclass().getDeclaredField("prefix");
+        Deque<AstNode> stack = new ArrayDeque<>();
+        stack.push(rootChild);
+        while (!stack.isEmpty()) {
+            AstNode node = stack.pop();
+            if (node instanceof AstIdentifier) {
+                variableSet.add(((AstIdentifier) node).getName());
+            } else {
+                // 其余节点展开子节点：a.b.c、a[b]取根变量，函数、方法调用、三元运算取参数和分支中的变量
+                for (int i = node.getCardinality() - 1; i >= 0; i--) {
+                    stack.push((AstNode) node.getChild(i));
+                }
             }
-            prefixField.setAccessible(true);
-            AstIdentifier objectIdentifier = (AstIdentifier) prefixField.get(objectParamValue);
-            String clazzName = objectIdentifier.getName();
-            Field propertyField = objectParamValue.getClass().getDeclaredField("property");
-            propertyField.setAccessible(true);
-            variableSet.add(clazzName);
         }
         return variableSet;
     }
 
+    /**
+     * @param node
+     * @return 属性访问a.b中的属性名b
+     */
+    static String dotProperty(AstDot node) {
+        try {
+            return String.valueOf(DOT_PROPERTY_FIELD.get(node));
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static AstNode unwrapNested(AstNode node) {
+        while (node instanceof AstNested) {
+            node = (AstNode) node.getChild(0);
+        }
+        return node;
+    }
+
+    /**
+     * 叶子节点文本：变量名、字面量（字符串带单引号）、#对象.属性、(列表)，不能识别的返回null
+     * @param node
+     * @return
+     * @throws IllegalAccessException
+     */
+    private static String leafText(AstNode node) throws IllegalAccessException {
+        if (node instanceof AstIdentifier) {
+            return ((AstIdentifier) node).getName();
+        } else if (node instanceof AstBoolean) {
+            return node.eval(null, null).toString();
+        } else if (node instanceof AstString) {
+            return "'" + node.eval(null, null) + "'";
+        } else if (node instanceof AstNumber) {
+            BigDecimal bigDecimal = new BigDecimal(node.eval(null, null).toString());
+            if (bigDecimal.scale() > 0) {
+                return bigDecimal.toString();
+            }
+            return bigDecimal.toBigInteger().toString();
+        } else if (node instanceof AstDot) {
+            String clazzName = ((AstIdentifier) node.getChild(0)).getName();
+            return "#" + clazzName + "." + DOT_PROPERTY_FIELD.get(node);
+        } else if (node instanceof AstParameters) {
+            StringJoiner joiner = new StringJoiner(", ", "(", ")");
+            for (int i = 0; i < node.getCardinality(); i++) {
+                joiner.add(String.valueOf(leafText((AstNode) node.getChild(i))));
+            }
+            return joiner.toString();
+        }
+        return null;
+    }
+
+    /**
+     * 简单树节点
+     * 比较运算：leftNode/leftLeaf、rightNode/rightLeaf分别是左右操作数；
+     * &&、||：children/childLeaves按顺序保存各操作数，children中为null的位置取childLeaves中的文本
+     */
     @Data
     static class ExpLeafNode {
         private ExpLeafNode leftNode;
@@ -914,24 +976,43 @@ public class JuelParser {
         private String leftLeaf;
         private String rightLeaf;
 
+        private List<ExpLeafNode> children;
+        private List<String> childLeaves;
+
+        public boolean isJunction() {
+            return children != null;
+        }
+
         @Override
         public String toString() {
-            StringJoiner stringJoiner = new StringJoiner("");
-            stringJoiner.add("(");
-            if (leftNode != null) {
-                stringJoiner.add(leftNode.toString());
-            } else {
-                stringJoiner.add(leftLeaf);
-            }
-            stringJoiner.add(" " + operator + " ");
-            if (rightNode != null) {
-                stringJoiner.add(rightNode.toString());
-            } else {
-                stringJoiner.add(rightLeaf);
+            StringBuilder builder = new StringBuilder();
+            Deque<Object> stack = new ArrayDeque<>();
+            stack.push(this);
+            while (!stack.isEmpty()) {
+                Object item = stack.pop();
+                if (!(item instanceof ExpLeafNode)) {
+                    builder.append((String) item);
+                    continue;
+                }
+                ExpLeafNode node = (ExpLeafNode) item;
+                builder.append('(');
+                stack.push(")");
+                if (node.isJunction()) {
+                    String separator = " " + node.operator + " ";
+                    for (int i = node.children.size() - 1; i >= 0; i--) {
+                        ExpLeafNode child = node.children.get(i);
+                        stack.push(child != null ? child : String.valueOf(node.childLeaves.get(i)));
+                        if (i > 0) {
+                            stack.push(separator);
+                        }
+                    }
+                } else {
+                    stack.push(node.rightNode != null ? node.rightNode : String.valueOf(node.rightLeaf));
+                    stack.push(" " + node.operator + " ");
+                    stack.push(node.leftNode != null ? node.leftNode : String.valueOf(node.leftLeaf));
+                }
             }
-            stringJoiner.add(")");
-
-            return stringJoiner.toString();
+            return builder.toString();
         }
     }
 }
@@ -0,0 +1,169 @@
+package com.example.jueldemo;
+
+import de.odysseus.el.tree.Bindings;
+import de.odysseus.el.tree.impl.ast.AstFunction;
+import de.odysseus.el.tree.impl.ast.AstLiteral;
+import de.odysseus.el.tree.impl.ast.AstParameters;
+
+import javax.el.ELContext;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 按纯度复用结果的函数调用节点
+ * 实参按juel的规则求值、转换成形参类型后作为键：一次求值内的结果放在ELContext里，同一上下文中相同参数的调用只执行一次；
+ * 注册时配置了跨求值缓存的再查缓存。纯函数的参数全是字面量时在构建节点时就调用，求值直接返回常量，
+ * 调用出错的不折叠，留到求值时按原样报错。
+ * 节点构建后只读，线程安全
+ * @author hu
+ */
+public class MemoizedFunction extends AstFunction {
+
+    private final FunctionRegistry.Function function;
+    private final boolean varargs;
+    // 是否已折叠成常量
+    private final boolean folded;
+    private final Object constant;
+
+    public MemoizedFunction(String name, int index, AstParameters params, boolean varargs, FunctionRegistry.Function function) {
+        super(name, index, params, varargs);
+        this.function = function;
+        this.varargs = varargs;
+        Object value = null;
+        boolean foldable = function.getPurity() == FunctionRegistry.Purity.PURE && literalParams();
+        if (foldable) {
+            try {
+                // 字面量求值不依赖上下文，实参转换用默认类型转换器
+                value = invoke(new Bindings(null, null), null, null, function.getMethod());
+            } catch (Exception e) {
+                foldable = false;
+                value = null;
+            }
+        }
+        this.folded = foldable;
+        this.constant = value;
+    }
+
+    private boolean literalParams() {
+        for (int i = 0; i < getParamCount(); i++) {
+            if (!(getParam(i) instanceof AstLiteral)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Object eval(Bindings bindings, ELContext context) {
+        return folded ? constant : super.eval(bindings, context);
+    }
+
+    @Override
+    protected Object invoke(Bindings bindings, ELContext context, Object base, Method method) throws InvocationTargetException, IllegalAccessException {
+        Object[] args = arguments(bindings, context, method);
+        if (!function.isMemoizable()) {
+            return method.invoke(base, args);
+        }
+        FunctionRegistry.CallKey key = new FunctionRegistry.CallKey(getName(), args);
+        Map<FunctionRegistry.CallKey, Object> memo = context == null ? null : Memo.of(context);
+        Object value = memo == null ? null : memo.get(key);
+        FunctionRegistry.CallCache cache = function.getCache();
+        if (value == null && cache != null) {
+            value = cache.get(key);
+            if (value != null && memo != null) {
+                memo.put(key, value);
+            }
+        }
+        if (value == null) {
+            value = method.invoke(base, args);
+            value = value == null ? Memo.NULL : value;
+            if (memo != null) {
+                memo.put(key, value);
+            }
+            if (cache != null) {
+                cache.put(key, value);
+            }
+        }
+        return value == Memo.NULL ? null : value;
+    }
+
+    /**
+     * 实参求值并转换成形参类型，与AstFunction的规则一致，包括可变参数
+     */
+    private Object[] arguments(Bindings bindings, ELContext context, Method method) {
+        Class<?>[] types = method.getParameterTypes();
+        if (types.length == 0) {
+            return null;
+        }
+        Object[] args = new Object[types.length];
+        if (varargs && method.isVarArgs()) {
+            int varargIndex = types.length - 1;
+            for (int i = 0; i < varargIndex; i++) {
+                args[i] = convert(bindings, getParam(i).eval(bindings, context), types[i]);
+            }
+            Class<?> varargType = types[varargIndex].getComponentType();
+            int length = getParamCount() - varargIndex;
+            Object array;
+            if (length == 1) {
+                Object param = getParam(varargIndex).eval(bindings, context);
+                if (param != null && param.getClass().isArray()) {
+                    if (types[varargIndex].isInstance(param)) {
+                        array = param;
+                    } else {
+                        length = Array.getLength(param);
+                        array = Array.newInstance(varargType, length);
+                        for (int i = 0; i < length; i++) {
+                            Array.set(array, i, convert(bindings, Array.get(param, i), varargType));
+                        }
+                    }
+                } else {
+                    array = Array.newInstance(varargType, 1);
+                    Array.set(array, 0, convert(bindings, param, varargType));
+                }
+            } else {
+                array = Array.newInstance(varargType, length);
+                for (int i = 0; i < length; i++) {
+                    Array.set(array, i, convert(bindings, getParam(varargIndex + i).eval(bindings, context), varargType));
+                }
+            }
+            args[varargIndex] = array;
+        } else {
+            for (int i = 0; i < args.length; i++) {
+                args[i] = convert(bindings, getParam(i).eval(bindings, context), types[i]);
+            }
+        }
+        return args;
+    }
+
+    private static Object convert(Bindings bindings, Object param, Class<?> type) {
+        return param != null || type.isPrimitive() ? bindings.convert(param, type) : null;
+    }
+
+    /**
+     * @return 是否在解析时折叠成了常量
+     */
+    public boolean isFolded() {
+        return folded;
+    }
+
+    /**
+     * 一次求值内的调用结果，放在ELContext中
+     */
+    static final class Memo {
+        // 结果为null的占位
+        static final Object NULL = new Object();
+
+        @SuppressWarnings("unchecked")
+        static Map<FunctionRegistry.CallKey, Object> of(ELContext context) {
+            Map<FunctionRegistry.CallKey, Object> memo = (Map<FunctionRegistry.CallKey, Object>) context.getContext(Memo.class);
+            if (memo == null) {
+                memo = new HashMap<>();
+                context.putContext(Memo.class, memo);
+            }
+            return memo;
+        }
+    }
+}
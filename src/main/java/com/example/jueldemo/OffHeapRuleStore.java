@@ -0,0 +1,421 @@
+package com.example.jueldemo;
+
+import com.example.jueldemo.SimpleConditionExpressionParser.*;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * 堆外规则存储
+ * 大量租户规则常驻堆内会拖长GC停顿，这里把编译后的条件编码进直接内存（DirectByteBuffer），
+ * 操作码、变量槽位、字面量池都在堆外，求值时解释器直接读取缓冲区，不再还原成对象。
+ * 堆内只保留变量名槽位表（所有规则共享）和规则序号，每条规则没有单独的堆内对象。
+ * 求值结果与{@link CompiledCondition#evaluate(Map)}一致，读取的变量不在变量表中时抛出PropertyNotFoundException。
+ * 写入加锁，读取无锁，可以边写边读
+ * @author hu
+ */
+public class OffHeapRuleStore {
+
+    // 默认分块大小16MB
+    private static final int DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    // 操作数类型
+    private static final byte OPERAND_NULL = 0;
+    private static final byte OPERAND_LONG = 1;
+    private static final byte OPERAND_DOUBLE = 2;
+    private static final byte OPERAND_BOOL = 3;
+    private static final byte OPERAND_STRING = 4;
+    private static final byte OPERAND_PARAM = 5;
+    private static final byte OPERAND_OBJECTPARAM = 6;
+    // in、not in、between的值列表：值个数(4) 操作数...
+    private static final byte OPERAND_LIST = 7;
+
+    private static final MyOperator[] OPERATORS = MyOperator.values();
+
+    private final int chunkSize;
+    // 规则数据分块
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    // 规则序号 -> (分块序号 << 32 | 块内偏移)，同样在堆外
+    private volatile ByteBuffer offsets = ByteBuffer.allocateDirect(1024 * Long.BYTES);
+    private volatile int size;
+
+    // 变量名、属性名槽位表
+    private volatile String[] slots = new String[16];
+    private final Map<String, Integer> slotIndex = new HashMap<>();
+    private int slotCount;
+
+    public OffHeapRuleStore() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    public OffHeapRuleStore(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * 添加1.0条件表单
+     * @param nodeList
+     * @return 规则序号
+     */
+    public int add(List<List<ConditionNode>> nodeList) {
+        return add(CompiledCondition.compile(nodeList));
+    }
+
+    /**
+     * 添加编译后的条件
+     * @param condition
+     * @return 规则序号
+     */
+    public synchronized int add(CompiledCondition condition) {
+        ByteBuffer encoded = encode(condition);
+        int length = encoded.remaining();
+        ByteBuffer chunk = chunks.length == 0 ? null : chunks[chunks.length - 1];
+        if (chunk == null || chunk.remaining() < length) {
+            chunk = ByteBuffer.allocateDirect(Math.max(chunkSize, length));
+            ByteBuffer[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+            grown[grown.length - 1] = chunk;
+            chunks = grown;
+        }
+        int position = chunk.position();
+        chunk.put(encoded);
+
+        if (offsets.capacity() < (size + 1) * Long.BYTES) {
+            ByteBuffer grown = ByteBuffer.allocateDirect(offsets.capacity() * 2);
+            ByteBuffer old = offsets.duplicate();
+            old.position(0).limit(size * Long.BYTES);
+            grown.put(old);
+            offsets = grown;
+        }
+        offsets.putLong(size * Long.BYTES, ((long) (chunks.length - 1) << 32) | position);
+        return size++;
+    }
+
+    /**
+     * 规则数量
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 堆外占用字节数
+     * @return
+     */
+    public long offHeapBytes() {
+        long bytes = offsets.capacity();
+        for (ByteBuffer chunk : chunks) {
+            bytes += chunk.capacity();
+        }
+        return bytes;
+    }
+
+    /**
+     * 在缓冲区上直接计算规则的值
+     * @param rule 规则序号
+     * @param variables 变量表
+     * @return
+     */
+    public boolean evaluate(int rule, Map<String, ?> variables) {
+        if (rule < 0 || rule >= size) {
+            throw new IndexOutOfBoundsException("rule " + rule);
+        }
+        long offset = offsets.getLong(rule * Long.BYTES);
+        ByteBuffer chunk = chunks[(int) (offset >>> 32)];
+        String[] names = slots;
+        int position = (int) offset;
+        int clauseCount = chunk.getInt(position);
+        position += 4;
+        for (int c = 0; c < clauseCount; c++) {
+            int atomCount = chunk.getInt(position);
+            int clauseEnd = position + 8 + chunk.getInt(position + 4);
+            position += 8;
+            boolean matched = true;
+            for (int a = 0; a < atomCount && matched; a++) {
+                matched = evaluateAtom(chunk, position, names, variables);
+                position = skipAtom(chunk, position);
+            }
+            if (matched) {
+                return true;
+            }
+            position = clauseEnd;
+        }
+        return false;
+    }
+
+    /**
+     * 原子条件：操作符(1) 变量槽位(4) 操作数类型(1) 操作数；值列表的每个值也是一个操作数
+     */
+    private static boolean evaluateAtom(ByteBuffer chunk, int position, String[] names, Map<String, ?> variables) {
+        MyOperator operator = OPERATORS[chunk.get(position)];
+        Object left = CompiledCondition.variable(variables, names[chunk.getInt(position + 1)]);
+        return evaluateOperand(operator, left, chunk, position + 5, names, variables);
+    }
+
+    /**
+     * 操作数：类型(1) 内容
+     */
+    private static boolean evaluateOperand(MyOperator operator, Object left, ByteBuffer chunk, int position, String[] names, Map<String, ?> variables) {
+        byte operand = chunk.get(position);
+        int p = position + 1;
+        switch (operand) {
+            case OPERAND_NULL:
+                return CompiledCondition.apply(operator, left, null);
+            case OPERAND_LONG: {
+                long value = chunk.getLong(p);
+                if (left instanceof Long || left instanceof Integer || left instanceof Short || left instanceof Byte) {
+                    return CompiledCondition.compare(operator, Long.compare(((Number) left).longValue(), value));
+                }
+                return CompiledCondition.apply(operator, left, value);
+            }
+            case OPERAND_DOUBLE: {
+                double value = chunk.getDouble(p);
+                if (left instanceof Double || left instanceof Float || left instanceof Long || left instanceof Integer) {
+                    double d = ((Number) left).doubleValue();
+                    if (!Double.isNaN(d) && !Double.isNaN(value)) {
+                        return CompiledCondition.compare(operator, Double.compare(d, value));
+                    }
+                }
+                return CompiledCondition.apply(operator, left, value);
+            }
+            case OPERAND_BOOL: {
+                boolean value = chunk.get(p) != 0;
+                if (left instanceof Boolean && (operator == MyOperator.EQ || operator == MyOperator.NE)) {
+                    return (((Boolean) left) == value) == (operator == MyOperator.EQ);
+                }
+                return CompiledCondition.apply(operator, left, value);
+            }
+            case OPERAND_STRING: {
+                if (left instanceof String) {
+                    return CompiledCondition.compare(operator, compareChars((String) left, chunk, p));
+                }
+                return CompiledCondition.apply(operator, left, readString(chunk, p));
+            }
+            case OPERAND_PARAM:
+            case OPERAND_OBJECTPARAM:
+                return CompiledCondition.apply(operator, left, parameter(chunk, position, names, variables));
+            case OPERAND_LIST: {
+                int count = chunk.getInt(p);
+                int q = p + 4;
+                if (count > 0 && isParameter(chunk.get(q))) {
+                    // juel先计算列表中的全部参数再比较
+                    Object[] values = new Object[count];
+                    for (int i = 0; i < count; i++) {
+                        values[i] = parameter(chunk, q, names, variables);
+                        q = skipOperand(chunk, q);
+                    }
+                    if (operator == MyOperator.BETWEEN) {
+                        return CompiledCondition.apply(MyOperator.GE, left, values[0]) && CompiledCondition.apply(MyOperator.LE, left, values[1]);
+                    }
+                    boolean found = false;
+                    for (int i = 0; i < count && !found; i++) {
+                        found = CompiledCondition.apply(MyOperator.EQ, left, values[i]);
+                    }
+                    return operator == MyOperator.NOT_IN ? !found : found;
+                }
+                if (operator == MyOperator.BETWEEN) {
+                    return evaluateOperand(MyOperator.GE, left, chunk, q, names, variables)
+                            && evaluateOperand(MyOperator.LE, left, chunk, skipOperand(chunk, q), names, variables);
+                }
+                boolean found = false;
+                for (int i = 0; i < count && !found; i++) {
+                    found = evaluateOperand(MyOperator.EQ, left, chunk, q, names, variables);
+                    q = skipOperand(chunk, q);
+                }
+                return operator == MyOperator.NOT_IN ? !found : found;
+            }
+            default:
+                throw new IllegalStateException("无效的操作数类型：" + operand);
+        }
+    }
+
+    private static boolean isParameter(byte operand) {
+        return operand == OPERAND_PARAM || operand == OPERAND_OBJECTPARAM;
+    }
+
+    /**
+     * 参数、对象参数操作数的值：根变量不在变量表中时抛出PropertyNotFoundException
+     */
+    private static Object parameter(ByteBuffer chunk, int position, String[] names, Map<String, ?> variables) {
+        int p = position + 1;
+        Object base = CompiledCondition.variable(variables, names[chunk.getInt(p)]);
+        if (chunk.get(position) == OPERAND_PARAM) {
+            return base;
+        }
+        int count = chunk.get(p + 4);
+        for (int i = 0; i < count && base != null; i++) {
+            base = CompiledCondition.Atom.property(variables, base, names[chunk.getInt(p + 5 + i * 4)]);
+        }
+        return base;
+    }
+
+    private static int skipAtom(ByteBuffer chunk, int position) {
+        return skipOperand(chunk, position + 5);
+    }
+
+    private static int skipOperand(ByteBuffer chunk, int position) {
+        byte operand = chunk.get(position);
+        int p = position + 1;
+        switch (operand) {
+            case OPERAND_NULL:
+                return p;
+            case OPERAND_LONG:
+            case OPERAND_DOUBLE:
+                return p + 8;
+            case OPERAND_BOOL:
+                return p + 1;
+            case OPERAND_STRING:
+                return p + 4 + chunk.getInt(p) * 2;
+            case OPERAND_PARAM:
+                return p + 4;
+            case OPERAND_OBJECTPARAM:
+                return p + 5 + chunk.get(p + 4) * 4;
+            case OPERAND_LIST: {
+                int count = chunk.getInt(p);
+                int q = p + 4;
+                for (int i = 0; i < count; i++) {
+                    q = skipOperand(chunk, q);
+                }
+                return q;
+            }
+            default:
+                throw new IllegalStateException("无效的操作数类型：" + operand);
+        }
+    }
+
+    /**
+     * 与String.compareTo一致的逐字符比较，字符串字面量不需要还原
+     */
+    private static int compareChars(String left, ByteBuffer chunk, int p) {
+        int length = chunk.getInt(p);
+        int limit = Math.min(left.length(), length);
+        int base = p + 4;
+        for (int i = 0; i < limit; i++) {
+            char c1 = left.charAt(i);
+            char c2 = chunk.getChar(base + i * 2);
+            if (c1 != c2) {
+                return c1 - c2;
+            }
+        }
+        return left.length() - length;
+    }
+
+    private static String readString(ByteBuffer chunk, int p) {
+        int length = chunk.getInt(p);
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = chunk.getChar(p + 4 + i * 2);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * 规则：或公式数(4)，每个或公式：原子条件数(4) 字节长度(4) 原子条件...
+     */
+    private ByteBuffer encode(CompiledCondition condition) {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        buffer = ensure(buffer, 4);
+        buffer.putInt(condition.getClauseCount());
+        for (int c = 0; c < condition.getClauseCount(); c++) {
+            int[] clause = condition.getClause(c);
+            buffer = ensure(buffer, 8);
+            int header = buffer.position();
+            buffer.putInt(clause.length);
+            buffer.putInt(0);
+            for (int index : clause) {
+                buffer = encodeAtom(buffer, condition.getAtom(index));
+            }
+            buffer.putInt(header + 4, buffer.position() - header - 8);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private ByteBuffer encodeAtom(ByteBuffer buffer, CompiledCondition.Atom atom) {
+        buffer = ensure(buffer, 5);
+        buffer.put((byte) atom.getOperator().ordinal());
+        buffer.putInt(slot(atom.getVariable()));
+        CompiledCondition.ListValue list = atom.getList();
+        if (list != null) {
+            buffer = ensure(buffer, 5);
+            buffer.put(OPERAND_LIST);
+            buffer.putInt(list.size());
+            for (int i = 0; i < list.size(); i++) {
+                buffer = list.literals != null ? encodeLiteral(buffer, list.literals[i]) : encodePath(buffer, list.paths[i]);
+            }
+            return buffer;
+        }
+        if (!atom.isFixed()) {
+            return encodePath(buffer, atom.getPath());
+        }
+        return encodeLiteral(buffer, atom.getLiteral());
+    }
+
+    private ByteBuffer encodePath(ByteBuffer buffer, String[] path) {
+        if (path.length == 1) {
+            buffer = ensure(buffer, 5);
+            buffer.put(OPERAND_PARAM);
+            buffer.putInt(slot(path[0]));
+        } else {
+            buffer = ensure(buffer, 6 + (path.length - 1) * 4);
+            buffer.put(OPERAND_OBJECTPARAM);
+            buffer.putInt(slot(path[0]));
+            buffer.put((byte) (path.length - 1));
+            for (int i = 1; i < path.length; i++) {
+                buffer.putInt(slot(path[i]));
+            }
+        }
+        return buffer;
+    }
+
+    private static ByteBuffer encodeLiteral(ByteBuffer buffer, Object literal) {
+        buffer = ensure(buffer, 1);
+        if (literal == null) {
+            buffer.put(OPERAND_NULL);
+        } else if (literal instanceof Long) {
+            buffer.put(OPERAND_LONG);
+            buffer = ensure(buffer, 8);
+            buffer.putLong((Long) literal);
+        } else if (literal instanceof Double) {
+            buffer.put(OPERAND_DOUBLE);
+            buffer = ensure(buffer, 8);
+            buffer.putDouble((Double) literal);
+        } else if (literal instanceof Boolean) {
+            buffer.put(OPERAND_BOOL);
+            buffer = ensure(buffer, 1);
+            buffer.put((byte) ((Boolean) literal ? 1 : 0));
+        } else {
+            String text = literal.toString();
+            buffer.put(OPERAND_STRING);
+            buffer = ensure(buffer, 4 + text.length() * 2);
+            buffer.putInt(text.length());
+            for (int i = 0; i < text.length(); i++) {
+                buffer.putChar(text.charAt(i));
+            }
+        }
+        return buffer;
+    }
+
+    private static ByteBuffer ensure(ByteBuffer buffer, int bytes) {
+        if (buffer.remaining() >= bytes) {
+            return buffer;
+        }
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+
+    private int slot(String name) {
+        Integer slot = slotIndex.get(name);
+        if (slot == null) {
+            slot = slotCount++;
+            if (slot >= slots.length) {
+                slots = Arrays.copyOf(slots, slots.length * 2);
+            }
+            slots[slot] = name;
+            slotIndex.put(name, slot);
+        }
+        return slot;
+    }
+}
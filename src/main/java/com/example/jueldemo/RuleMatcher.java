@@ -0,0 +1,250 @@
+package com.example.jueldemo;
+
+import com.example.jueldemo.CompiledCondition.Atom;
+
+import java.util.*;
+
+/**
+ * 规则匹配器
+ * 一批编译后的条件（规则）一起求值，返回满足的规则：所有规则的原子条件按规范文本去重编号，一次匹配中每个原子条件最多计算一次；
+ * 固定值的范围条件进入区间索引，一次二分查找得到结果，每个或公式先检查索引过的原子条件，不满足的直接跳过，
+ * 其余原子条件按需计算。结果与逐个调用{@link CompiledCondition#evaluate(Map)}一致：
+ * 变量表缺少规则读取的变量时，这条规则按原来的顺序逐个求值，与juel在同样的位置抛出PropertyNotFoundException；
+ * 原子条件求值出错（取值类型不能转换）时同样按原来的顺序重新求值，juel先短路跳过这个原子条件时结果相同，否则抛出相同的异常。
+ * 构建后只读，线程安全
+ * @author hu
+ */
+public class RuleMatcher {
+
+    private final CompiledCondition[] rules;
+    // 全部规则去重后的原子条件
+    private final Atom[] atoms;
+    // 规则 -> 或公式 -> 原子条件编号，索引过的排在前面
+    private final int[][][] clauses;
+    private final IntervalIndex intervalIndex;
+    // 全部规则读取的变量名
+    private final String[] variables;
+
+    public RuleMatcher(List<CompiledCondition> rules) {
+        this.rules = rules.toArray(new CompiledCondition[0]);
+        Map<String, Integer> atomIndex = new HashMap<>();
+        List<Atom> atomList = new ArrayList<>();
+        Set<String> variables = new LinkedHashSet<>();
+        this.clauses = new int[this.rules.length][][];
+        for (int r = 0; r < this.rules.length; r++) {
+            CompiledCondition rule = this.rules[r];
+            variables.addAll(rule.getVariables());
+            clauses[r] = new int[rule.getClauseCount()][];
+            for (int c = 0; c < clauses[r].length; c++) {
+                int[] clause = rule.getClause(c);
+                for (int i = 0; i < clause.length; i++) {
+                    Atom atom = rule.getAtom(clause[i]);
+                    Integer id = atomIndex.get(atom.getKey());
+                    if (id == null) {
+                        id = atomList.size();
+                        atomIndex.put(atom.getKey(), id);
+                        atomList.add(atom);
+                    }
+                    clause[i] = id;
+                }
+                clauses[r][c] = clause;
+            }
+        }
+        this.atoms = atomList.toArray(new Atom[0]);
+        this.variables = variables.toArray(new String[0]);
+        this.intervalIndex = IntervalIndex.build(atoms);
+        for (int[][] ruleClauses : clauses) {
+            for (int[] clause : ruleClauses) {
+                indexedFirst(clause);
+            }
+        }
+    }
+
+    /**
+     * 稳定地把索引过的原子条件移到前面
+     */
+    private void indexedFirst(int[] clause) {
+        int[] sorted = new int[clause.length];
+        int position = 0;
+        for (int id : clause) {
+            if (intervalIndex.isIndexed(id)) {
+                sorted[position++] = id;
+            }
+        }
+        for (int id : clause) {
+            if (!intervalIndex.isIndexed(id)) {
+                sorted[position++] = id;
+            }
+        }
+        System.arraycopy(sorted, 0, clause, 0, clause.length);
+    }
+
+    /**
+     * 匹配变量表
+     * @param variables 变量表
+     * @return 满足的规则下标
+     */
+    public BitSet match(Map<String, ?> variables) {
+        Evaluation evaluation = new Evaluation(variables);
+        BitSet result = new BitSet(rules.length);
+        for (int r = 0; r < rules.length; r++) {
+            if (evaluation.test(r)) {
+                result.set(r);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 按规则顺序匹配，遇到第一个满足的规则就停止
+     * @param variables 变量表
+     * @return 第一个满足的规则下标，都不满足返回-1
+     */
+    public int matchFirst(Map<String, ?> variables) {
+        Evaluation evaluation = new Evaluation(variables);
+        for (int r = 0; r < rules.length; r++) {
+            if (evaluation.test(r)) {
+                return r;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 开始一次匹配，调用方按自己的顺序逐个测试规则，原子条件的结果在这次匹配内共用
+     * @param variables 变量表
+     * @return
+     */
+    public Evaluation begin(Map<String, ?> variables) {
+        return new Evaluation(variables);
+    }
+
+    /**
+     * 一次匹配的状态：区间索引的结果，按需计算过的原子条件和结果。非线程安全
+     */
+    public final class Evaluation {
+        private final Map<String, ?> variables;
+        private final BitSet satisfied = new BitSet(atoms.length);
+        private final BitSet unresolved = new BitSet();
+        private final BitSet evaluated = new BitSet(atoms.length);
+        private final BitSet values = new BitSet(atoms.length);
+        // 变量表包含全部规则读取的变量
+        private final boolean bound;
+
+        Evaluation(Map<String, ?> variables) {
+            this.variables = variables;
+            this.bound = CompiledCondition.containsAll(variables, RuleMatcher.this.variables);
+            intervalIndex.match(variables, satisfied, unresolved);
+        }
+
+        /**
+         * @param rule 规则下标
+         * @return 规则是否满足
+         * @throws javax.el.PropertyNotFoundException 求值用到的变量不在变量表中
+         * @throws javax.el.ELException 按原来的顺序求值时取值类型不能转换
+         */
+        public boolean test(int rule) {
+            if (!bound && !rules[rule].isBound(variables)) {
+                // 索引过的原子条件排在前面，缺少变量时按原来的顺序求值才能在juel的位置抛出异常
+                return rules[rule].evaluate(variables);
+            }
+            try {
+                for (int[] clause : clauses[rule]) {
+                    boolean matched = true;
+                    for (int id : clause) {
+                        if (!value(id)) {
+                            matched = false;
+                            break;
+                        }
+                    }
+                    if (matched) {
+                        return true;
+                    }
+                }
+                return false;
+            } catch (RuntimeException e) {
+                // 调整顺序后可能先算到juel短路跳过的原子条件
+                return rules[rule].evaluate(variables);
+            }
+        }
+
+        private boolean value(int id) {
+            if (intervalIndex.isIndexed(id) && !unresolved.get(id)) {
+                return satisfied.get(id);
+            }
+            if (!evaluated.get(id)) {
+                // 出错时不记录，其他规则用到时重新计算
+                if (atoms[id].test(variables)) {
+                    values.set(id);
+                }
+                evaluated.set(id);
+            }
+            return values.get(id);
+        }
+    }
+
+    public int size() {
+        return rules.length;
+    }
+
+    public CompiledCondition getRule(int index) {
+        return rules[index];
+    }
+
+    /**
+     * @return 全部规则去重后的原子条件数量
+     */
+    public int getAtomCount() {
+        return atoms.length;
+    }
+
+    public IntervalIndex getIntervalIndex() {
+        return intervalIndex;
+    }
+
+    /**
+     * 分档规则逐个求值与规则匹配器的耗时对比
+     * @param args 规则数量，默认100000
+     */
+    public static void main(String[] args) throws Exception {
+        int count = args != null && args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        Random random = new Random(1);
+        List<CompiledCondition> rules = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int low = random.nextInt(1000) * 10;
+            String expression = "${(amount>" + low + " && amount<=" + (low + 10 + random.nextInt(500) * 10) + " && region=='r" + i % 10 + "')"
+                    + " || (date3<'" + (2000 + random.nextInt(30)) + "-01-01' && level>=" + random.nextInt(10) + ")}";
+            rules.add(CompiledCondition.compile(SimpleConditionExpressionParser.parseSimpleExpression(expression)));
+        }
+        long start = System.nanoTime();
+        RuleMatcher matcher = new RuleMatcher(rules);
+        System.out.println("\n*****构建:\n规则=" + count + " 原子条件=" + matcher.getAtomCount() + " 分段=" + matcher.getIntervalIndex().getBandCount()
+                + " 耗时=" + (System.nanoTime() - start) / 1000000 + "ms");
+
+        List<Map<String, Object>> inputs = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Map<String, Object> variables = new HashMap<>();
+            variables.put("amount", random.nextInt(11000));
+            variables.put("region", "r" + random.nextInt(10));
+            variables.put("date3", (2000 + random.nextInt(30)) + "-06-01");
+            variables.put("level", random.nextInt(10));
+            inputs.add(variables);
+        }
+        long matched = 0;
+        start = System.nanoTime();
+        for (Map<String, Object> variables : inputs) {
+            for (CompiledCondition rule : rules) {
+                if (rule.evaluate(variables)) {
+                    matched++;
+                }
+            }
+        }
+        System.out.println("\n*****逐个求值:\n命中=" + matched + " 耗时=" + (System.nanoTime() - start) / 1000000 + "ms");
+        matched = 0;
+        start = System.nanoTime();
+        for (Map<String, Object> variables : inputs) {
+            matched += matcher.match(variables).cardinality();
+        }
+        System.out.println("\n*****规则匹配器:\n命中=" + matched + " 耗时=" + (System.nanoTime() - start) / 1000000 + "ms");
+    }
+}
@@ -17,8 +17,6 @@ package com.example.jueldemo;
 
 import de.odysseus.el.misc.LocalMessages;
 
-import java.util.HashMap;
-
 /**
  * Handcrafted scanner.
  *
@@ -107,16 +105,32 @@ public class Scanner {
 		}
 	}
 
-	private static final HashMap<String, Token> KEYMAP = new HashMap<String, Token>();
-	private static final HashMap<Symbol, Token> FIXMAP = new HashMap<Symbol, Token>();
+	// keyword tokens, looked up by keyword(String, int, int)
+	private static final Token KEY_NULL = new Token(Symbol.NULL, "null");
+	private static final Token KEY_TRUE = new Token(Symbol.TRUE, "true");
+	private static final Token KEY_FALSE = new Token(Symbol.FALSE, "false");
+	private static final Token KEY_EMPTY = new Token(Symbol.EMPTY, "empty");
+	private static final Token KEY_DIV = new Token(Symbol.DIV, "div");
+	private static final Token KEY_MOD = new Token(Symbol.MOD, "mod");
+	private static final Token KEY_NOT = new Token(Symbol.NOT, "not");
+	private static final Token KEY_AND = new Token(Symbol.AND, "and");
+	private static final Token KEY_OR = new Token(Symbol.OR, "or");
+	private static final Token KEY_LE = new Token(Symbol.LE, "le");
+	private static final Token KEY_LT = new Token(Symbol.LT, "lt");
+	private static final Token KEY_EQ = new Token(Symbol.EQ, "eq");
+	private static final Token KEY_NE = new Token(Symbol.NE, "ne");
+	private static final Token KEY_GE = new Token(Symbol.GE, "ge");
+	private static final Token KEY_GT = new Token(Symbol.GT, "gt");
+	private static final Token KEY_INSTANCEOF = new Token(Symbol.INSTANCEOF, "instanceof");
+
+	/**
+	 * Fixed tokens indexed by symbol ordinal (a plain array instead of a hash map, no hashing on lookup).
+	 */
+	private static final Token[] FIXED = new Token[Symbol.values().length];
 
 	private static void addFixToken(Token token) {
-		FIXMAP.put(token.getSymbol(), token);
+		FIXED[token.getSymbol().ordinal()] = token;
 	}
-
-	private static void addKeyToken(Token token) {
-		KEYMAP.put(token.getImage(), token);
-	}	
 	
 	static {
 		addFixToken(new Token(Symbol.PLUS, "+"));
@@ -145,28 +159,28 @@ public class Scanner {
 		addFixToken(new Token(Symbol.START_EVAL_DYNAMIC, "${"));
 		addFixToken(new Token(Symbol.END_EVAL, "}"));
 		addFixToken(new Token(Symbol.EOF, null, 0));
-		
-		addKeyToken(new Token(Symbol.NULL, "null"));
-		addKeyToken(new Token(Symbol.TRUE, "true"));
-		addKeyToken(new Token(Symbol.FALSE, "false"));
-		addKeyToken(new Token(Symbol.EMPTY, "empty"));
-		addKeyToken(new Token(Symbol.DIV, "div"));
-		addKeyToken(new Token(Symbol.MOD, "mod"));
-		addKeyToken(new Token(Symbol.NOT, "not"));
-		addKeyToken(new Token(Symbol.AND, "and"));
-		addKeyToken(new Token(Symbol.OR, "or"));
-		addKeyToken(new Token(Symbol.LE, "le"));
-		addKeyToken(new Token(Symbol.LT, "lt"));
-		addKeyToken(new Token(Symbol.EQ, "eq"));
-		addKeyToken(new Token(Symbol.NE, "ne"));
-		addKeyToken(new Token(Symbol.GE, "ge"));
-		addKeyToken(new Token(Symbol.GT, "gt"));
-		addKeyToken(new Token(Symbol.INSTANCEOF, "instanceof"));
 	}
 
+	// subclasses overriding keyword(String) before the range lookup existed, computed once per class
+	private static final ClassValue<Boolean> OVERRIDES_KEYWORD = new ClassValue<Boolean>() {
+		@Override
+		protected Boolean computeValue(Class<?> type) {
+			for (Class<?> c = type; c != Scanner.class; c = c.getSuperclass()) {
+				try {
+					c.getDeclaredMethod("keyword", String.class);
+					return true;
+				} catch (NoSuchMethodException e) {
+					// not declared in this class
+				}
+			}
+			return false;
+		}
+	};
+
 	private Token token;  // current token
  	private int position; // start position of current token
 	private final String input;
+	private final boolean stringKeywords; // nextEval() calls keyword(String)
 	
 	protected final StringBuilder builder = new StringBuilder();
 	
@@ -176,6 +190,7 @@ public class Scanner {
 	 */
 	protected Scanner(String input) {
 		this.input = input;
+		this.stringKeywords = OVERRIDES_KEYWORD.get(getClass());
 	}
 
 	public String getInput() {
@@ -204,11 +219,64 @@ public class Scanner {
 	}
 	
 	/**
+	 * Keyword lookup by name. If a subclass overrides this method, {@link #nextEval()} calls it
+	 * with the identifier substring instead of {@link #keyword(String, int, int)}.
 	 * @param s name
 	 * @return token for the given keyword or <code>null</code>
 	 */
 	protected Token keyword(String s) {
-		return KEYMAP.get(s);
+		return keyword(s, 0, s.length());
+	}
+
+	/**
+	 * Keyword lookup on a character range, used by {@link #nextEval()} so that identifiers
+	 * are checked without creating a substring or hashing. Candidates are selected by length
+	 * and first character, then compared with <code>regionMatches</code>.
+	 * Subclasses adding keywords should override this method.
+	 * @param input scanned text
+	 * @param start start index of the name (inclusive)
+	 * @param end end index of the name (exclusive)
+	 * @return token for the given keyword or <code>null</code>
+	 */
+	protected Token keyword(String input, int start, int end) {
+		Token candidate = null;
+		switch (end - start) {
+			case 2:
+				switch (input.charAt(start)) {
+					case 'o': candidate = KEY_OR; break;
+					case 'e': candidate = KEY_EQ; break;
+					case 'n': candidate = KEY_NE; break;
+					case 'l': candidate = input.charAt(start + 1) == 'e' ? KEY_LE : KEY_LT; break;
+					case 'g': candidate = input.charAt(start + 1) == 'e' ? KEY_GE : KEY_GT; break;
+				}
+				break;
+			case 3:
+				switch (input.charAt(start)) {
+					case 'a': candidate = KEY_AND; break;
+					case 'd': candidate = KEY_DIV; break;
+					case 'm': candidate = KEY_MOD; break;
+					case 'n': candidate = KEY_NOT; break;
+				}
+				break;
+			case 4:
+				switch (input.charAt(start)) {
+					case 'n': candidate = KEY_NULL; break;
+					case 't': candidate = KEY_TRUE; break;
+				}
+				break;
+			case 5:
+				switch (input.charAt(start)) {
+					case 'f': candidate = KEY_FALSE; break;
+					case 'e': candidate = KEY_EMPTY; break;
+				}
+				break;
+			case 10:
+				if (input.charAt(start) == 'i') {
+					candidate = KEY_INSTANCEOF;
+				}
+				break;
+		}
+		return candidate != null && input.regionMatches(start, candidate.getImage(), 0, end - start) ? candidate : null;
 	}
 	
 	/**
@@ -216,7 +284,7 @@ public class Scanner {
 	 * @return token for the given symbol
 	 */
 	protected Token fixed(Symbol symbol) {
-		return FIXMAP.get(symbol);
+		return FIXED[symbol.ordinal()];
 	}
 
 	protected Token token(Symbol symbol, String value, int length) {
@@ -411,9 +479,8 @@ public class Scanner {
 			while (i < l && Character.isJavaIdentifierPart(input.charAt(i))) {
 				i++;
 			}
-			String name = input.substring(position, i);
-			Token keyword = keyword(name);
-			return keyword == null ? token(Symbol.IDENTIFIER, name, i - position) : keyword;
+			Token keyword = stringKeywords ? keyword(input.substring(position, i)) : keyword(input, position, i);
+			return keyword == null ? token(Symbol.IDENTIFIER, input.substring(position, i), i - position) : keyword;
 		}
 
 		throw new ScanException(position, "invalid character '" + c1 + "'", "expression token");
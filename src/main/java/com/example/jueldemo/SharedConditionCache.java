@@ -0,0 +1,368 @@
+package com.example.jueldemo;
+
+import com.example.jueldemo.SimpleConditionExpressionParser.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 跨JVM共享的条件编译缓存
+ * 同一台主机上的多个JVM各自解析同一批条件表达式，这里把解析后的条件表单写进内存映射文件，按表达式内容哈希查找，
+ * 新启动的JVM映射同一个文件，兄弟进程已经解析过的表达式直接读取，不再经过juel解析，只需要{@link CompiledCondition#compile(List)}。
+ * 文件布局：头部（魔数、格式版本、槽位数、数据区末尾、条目数）、开放寻址的索引槽（每个8字节，条目偏移，0为空）、只追加的数据区。
+ * 条目：哈希(8) 表达式长度(4) 值长度(4) 表达式 值，按8字节对齐；值是条件表单，枚举按名称保存，不依赖枚举顺序。
+ * 写入先追加条目、推进数据区末尾，最后用release语义写索引槽，进程之间用文件锁、进程内用对象锁串行；
+ * 读取用acquire语义读索引槽，不加锁，读到的槽指向的条目一定已经写完。写入进程中途退出只会浪费一段数据区。
+ * 文件大小、槽位数在创建时确定，写满后不再写入。不能转换成条件表单的表达式不缓存。
+ * 线程安全
+ * @author hu
+ */
+public class SharedConditionCache implements AutoCloseable {
+
+    // 默认64MB，稀疏文件，不写入不占磁盘
+    public static final long DEFAULT_FILE_SIZE = 64L * 1024 * 1024;
+    public static final int DEFAULT_SLOT_COUNT = 1 << 16;
+
+    private static final int MAGIC = 0x4a554543;
+    private static final int FORMAT_VERSION = 1;
+
+    // 头部字段偏移
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int SLOT_COUNT_OFFSET = 8;
+    private static final int DATA_END_OFFSET = 16;
+    private static final int ENTRY_COUNT_OFFSET = 24;
+    private static final int HEADER_SIZE = 64;
+    private static final int ENTRY_HEADER_SIZE = 16;
+
+    // 按long原子读写映射缓冲区，带内存顺序
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int slotCount;
+    private final int dataStart;
+    private final int capacity;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+
+    private SharedConditionCache(FileChannel channel, MappedByteBuffer buffer, int slotCount) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.slotCount = slotCount;
+        this.dataStart = align(HEADER_SIZE + slotCount * Long.BYTES);
+        this.capacity = buffer.capacity();
+    }
+
+    /**
+     * 按默认大小打开，文件不存在时创建
+     * @param file 缓存文件
+     * @return
+     * @throws IOException
+     */
+    public static SharedConditionCache open(Path file) throws IOException {
+        return open(file, DEFAULT_FILE_SIZE, DEFAULT_SLOT_COUNT);
+    }
+
+    /**
+     * 打开缓存文件，文件不存在或为空时按参数创建；已有文件按文件头中的槽位数和文件大小映射
+     * @param file 缓存文件
+     * @param fileSize 创建时的文件大小，不超过2GB
+     * @param slotCount 创建时的索引槽位数，2的幂，条目数不超过槽位数的3/4
+     * @return
+     * @throws IOException
+     */
+    public static SharedConditionCache open(Path file, long fileSize, int slotCount) throws IOException {
+        if (Integer.bitCount(slotCount) != 1) {
+            throw new IllegalArgumentException("槽位数必须是2的幂：" + slotCount);
+        }
+        if (fileSize > Integer.MAX_VALUE || fileSize < align(HEADER_SIZE + (long) slotCount * Long.BYTES) + ENTRY_HEADER_SIZE) {
+            throw new IllegalArgumentException("文件大小超出范围：" + fileSize);
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            FileLock lock = channel.lock();
+            try {
+                if (channel.size() == 0) {
+                    // 新文件：写入末尾字节确定大小，头部最后写魔数
+                    channel.write(ByteBuffer.wrap(new byte[1]), fileSize - 1);
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+                    SharedConditionCache cache = new SharedConditionCache(channel, buffer, slotCount);
+                    buffer.putInt(VERSION_OFFSET, FORMAT_VERSION);
+                    buffer.putInt(SLOT_COUNT_OFFSET, slotCount);
+                    LONGS.setRelease(buffer, DATA_END_OFFSET, (long) cache.dataStart);
+                    LONGS.setRelease(buffer, ENTRY_COUNT_OFFSET, 0L);
+                    buffer.putInt(MAGIC_OFFSET, MAGIC);
+                    buffer.force();
+                    return cache;
+                }
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(channel.size(), Integer.MAX_VALUE));
+                if (buffer.getInt(MAGIC_OFFSET) != MAGIC || buffer.getInt(VERSION_OFFSET) != FORMAT_VERSION) {
+                    throw new IOException("不是条件编译缓存文件或格式版本不一致：" + file);
+                }
+                return new SharedConditionCache(channel, buffer, buffer.getInt(SLOT_COUNT_OFFSET));
+            } finally {
+                lock.release();
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 编译条件表达式，先查共享缓存，没有时解析后写入
+     * @param expression 条件表达式
+     * @return 编译后的条件，不能转换成条件表单时返回null
+     * @throws IOException 写入缓存失败
+     */
+    public CompiledCondition compile(String expression) throws IOException {
+        List<List<ConditionNode>> nodeList = get(expression);
+        if (nodeList == null) {
+            ConditionEvents.CacheMissEvent event = new ConditionEvents.CacheMissEvent();
+            event.begin();
+            nodeList = GatewayEvaluator.toNodeList(expression);
+            if (nodeList != null) {
+                put(expression, nodeList);
+            }
+            event.record("SharedConditionCache", expression);
+            if (nodeList == null) {
+                return null;
+            }
+        }
+        return CompiledCondition.compile(nodeList);
+    }
+
+    /**
+     * 查找解析后的条件表单，不加锁
+     * @param expression 条件表达式
+     * @return 没有缓存时返回null
+     */
+    public List<List<ConditionNode>> get(String expression) {
+        byte[] key = expression.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(key);
+        int offset = find(hash, key);
+        if (offset <= 0) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        ByteBuffer entry = buffer.duplicate();
+        entry.position(offset + ENTRY_HEADER_SIZE + key.length);
+        return decode(entry);
+    }
+
+    /**
+     * 写入解析后的条件表单，已经存在时不写入
+     * @param expression 条件表达式
+     * @param nodeList 条件表单
+     * @return 是否写入，已经存在或缓存已满时返回false
+     * @throws IOException
+     */
+    public boolean put(String expression, List<List<ConditionNode>> nodeList) throws IOException {
+        byte[] key = expression.getBytes(StandardCharsets.UTF_8);
+        byte[] value = encode(nodeList);
+        long hash = hash(key);
+        synchronized (this) {
+            FileLock lock = channel.lock();
+            try {
+                int slot = find(hash, key);
+                // 已经存在，或者槽位已满
+                if (slot >= 0) {
+                    return false;
+                }
+                long entryCount = (long) LONGS.getAcquire(buffer, ENTRY_COUNT_OFFSET);
+                long dataEnd = (long) LONGS.getAcquire(buffer, DATA_END_OFFSET);
+                int length = align(ENTRY_HEADER_SIZE + key.length + value.length);
+                if ((entryCount + 1) * 4 > slotCount * 3L || dataEnd + length > capacity) {
+                    return false;
+                }
+                int offset = (int) dataEnd;
+                ByteBuffer entry = buffer.duplicate();
+                entry.position(offset);
+                entry.putLong(hash).putInt(key.length).putInt(value.length).put(key).put(value);
+                // 先推进数据区末尾，再发布索引槽，中途退出不会让后来的写入覆盖已发布的条目
+                LONGS.setRelease(buffer, DATA_END_OFFSET, dataEnd + length);
+                LONGS.setRelease(buffer, -slot, (long) offset);
+                LONGS.setRelease(buffer, ENTRY_COUNT_OFFSET, entryCount + 1);
+                writes.increment();
+                return true;
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * 线性探测查找条目
+     * @return 找到时返回条目偏移（正数），没有时返回第一个空槽位置的相反数
+     */
+    private int find(long hash, byte[] key) {
+        int mask = slotCount - 1;
+        int index = (int) hash & mask;
+        for (int probe = 0; probe < slotCount; probe++) {
+            int slot = HEADER_SIZE + index * Long.BYTES;
+            long offset = (long) LONGS.getAcquire(buffer, slot);
+            if (offset == 0) {
+                return -slot;
+            }
+            if (buffer.getLong((int) offset) == hash && keyEquals((int) offset, key)) {
+                return (int) offset;
+            }
+            index = (index + 1) & mask;
+        }
+        return 0;
+    }
+
+    private boolean keyEquals(int offset, byte[] key) {
+        if (buffer.getInt(offset + 8) != key.length) {
+            return false;
+        }
+        int start = offset + ENTRY_HEADER_SIZE;
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(start + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 内容哈希：表达式UTF-8字节的SHA-256前8字节，0保留给空槽
+     */
+    private static long hash(byte[] key) {
+        try {
+            long hash = ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(key)).getLong();
+            return hash == 0 ? 1 : hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int align(long length) {
+        return (int) ((length + 7) & ~7L);
+    }
+
+    /**
+     * 条件表单编码：或公式数(4)，每个或公式：原子条件数(4)，每个原子条件5个可空字符串
+     */
+    private static byte[] encode(List<List<ConditionNode>> nodeList) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(nodeList.size());
+        for (List<ConditionNode> andNodes : nodeList) {
+            out.writeInt(andNodes.size());
+            for (ConditionNode node : andNodes) {
+                writeString(out, node.getVariable());
+                writeString(out, node.getOperator() == null ? null : node.getOperator().name());
+                writeString(out, node.getValue());
+                writeString(out, node.getConditionClass() == null ? null : node.getConditionClass().name());
+                writeString(out, node.getValueType() == null ? null : node.getValueType().name());
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static List<List<ConditionNode>> decode(ByteBuffer in) {
+        int clauseCount = in.getInt();
+        List<List<ConditionNode>> nodeList = new ArrayList<>(clauseCount);
+        for (int c = 0; c < clauseCount; c++) {
+            int atomCount = in.getInt();
+            List<ConditionNode> andNodes = new ArrayList<>(atomCount);
+            for (int a = 0; a < atomCount; a++) {
+                String variable = readString(in);
+                String operator = readString(in);
+                String value = readString(in);
+                String conditionClass = readString(in);
+                String valueType = readString(in);
+                andNodes.add(new ConditionNode(variable, operator == null ? null : MyOperator.valueOf(operator), value,
+                        conditionClass == null ? null : ConditionClass.valueOf(conditionClass),
+                        valueType == null ? null : ConditionValueType.valueOf(valueType)));
+            }
+            nodeList.add(andNodes);
+        }
+        return nodeList;
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return 缓存的表达式数，包括其他进程写入的
+     */
+    public long size() {
+        return (long) LONGS.getAcquire(buffer, ENTRY_COUNT_OFFSET);
+    }
+
+    /**
+     * @return 数据区已用字节数
+     */
+    public long usedBytes() {
+        return (long) LONGS.getAcquire(buffer, DATA_END_OFFSET) - dataStart;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return 本进程写入的条目数
+     */
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    /**
+     * 关闭文件，映射在缓冲区被回收后释放
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return "size=" + size() + " usedBytes=" + usedBytes() + " hits=" + getHits() + " misses=" + getMisses() + " writes=" + getWrites();
+    }
+}
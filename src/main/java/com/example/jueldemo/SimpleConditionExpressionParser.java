@@ -1,9 +1,10 @@
 package com.example.jueldemo;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import de.odysseus.el.ExpressionFactoryImpl;
 import de.odysseus.el.tree.ExpressionNode;
+import de.odysseus.el.tree.TreeStore;
+import de.odysseus.el.tree.impl.Cache;
 import de.odysseus.el.tree.impl.Builder;
 import de.odysseus.el.tree.impl.ast.AstNode;
 import de.odysseus.el.util.SimpleContext;
@@ -18,7 +19,6 @@ import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.regex.Pattern;
 
 /**
  * 简单条件表达式解析器
@@ -27,103 +27,198 @@ import java.util.regex.Pattern;
  */
 public class SimpleConditionExpressionParser {
 
-    // 测试条件表单json，用来生成条件表达式
-    public static List<List<ConditionNode>> raw_nodeList = new ArrayList<>();
-    // 测试条件表达式变量值集合，用来计算
-    public static List<ExpressionVariable> raw_variableList = new ArrayList<>();
-    // 变量传参
-    public static Map<String, Object> raw_objectParamMap = new HashMap<>();
-    // 日期校验格式
-    private static final String DATE_PATTERN = "^\\d{4}-\\d{1,2}-\\d{1,2}";
-
-    static {
-        List<ConditionNode> orExp_string = new ArrayList<>();
-        List<ConditionNode> orExp_number = new ArrayList<>();
-        List<ConditionNode> orExp_date = new ArrayList<>();
-        List<ConditionNode> orExp_bool = new ArrayList<>();
-
-        // 字符串：等于、空、非空
-        // 值类型：固定值
-        orExp_string.add(new ConditionNode("string1", MyOperator.EQ, "helloworld", ConditionClass.STRING, ConditionValueType.FIXED));
-        orExp_string.add(new ConditionNode("string1", MyOperator.EQ, null, ConditionClass.STRING, ConditionValueType.FIXED));
-        orExp_string.add(new ConditionNode("string1", MyOperator.NE, null, ConditionClass.STRING, ConditionValueType.FIXED));
-        // 值类型：参数
-        orExp_string.add(new ConditionNode("string1", MyOperator.EQ, "varhelloworld", ConditionClass.STRING, ConditionValueType.PARAM));
-        // 值类型：对象参数
-        orExp_string.add(new ConditionNode("string1", MyOperator.GT, "objectparam.string_var1", ConditionClass.STRING, ConditionValueType.OBJECTPARAM));
-
-        // 数值：大于、等于、小于、大于等于、小于等于、不等于、空、非空
-        // 值类型：固定值
-        orExp_number.add(new ConditionNode("number2", MyOperator.GT, "1", ConditionClass.NUMBER, ConditionValueType.FIXED));
-        orExp_number.add(new ConditionNode("number2", MyOperator.EQ, "6.0", ConditionClass.NUMBER, ConditionValueType.FIXED));
-        orExp_number.add(new ConditionNode("number2", MyOperator.LT, "7.001", ConditionClass.NUMBER, ConditionValueType.FIXED));
-        orExp_number.add(new ConditionNode("number2", MyOperator.GE, "6", ConditionClass.NUMBER, ConditionValueType.FIXED));
-        orExp_number.add(new ConditionNode("number2", MyOperator.LE, "6.000", ConditionClass.NUMBER, ConditionValueType.FIXED));
-        orExp_number.add(new ConditionNode("number2", MyOperator.NE, "-10.00010000", ConditionClass.NUMBER, ConditionValueType.FIXED));
-        orExp_number.add(new ConditionNode("number2", MyOperator.EQ, null, ConditionClass.NUMBER, ConditionValueType.FIXED));
-        orExp_number.add(new ConditionNode("number2", MyOperator.NE, null, ConditionClass.NUMBER, ConditionValueType.FIXED));
-        // 值类型：参数
-        orExp_number.add(new ConditionNode("number2", MyOperator.EQ, "varnumber", ConditionClass.NUMBER, ConditionValueType.PARAM));
-        // 值类型：对象参数
-        orExp_number.add(new ConditionNode("number2", MyOperator.EQ, "objectparam.num_var2", ConditionClass.NUMBER, ConditionValueType.OBJECTPARAM));
-
-        // 日期：指定某天、某天之前、某天之后、空、非空
-        // 值类型：固定值
-        orExp_date.add(new ConditionNode("date3", MyOperator.NE, null, ConditionClass.DATE, ConditionValueType.FIXED));
-        orExp_date.add(new ConditionNode("date3", MyOperator.EQ, null, ConditionClass.DATE, ConditionValueType.FIXED));
-        orExp_date.add(new ConditionNode("date3", MyOperator.EQ, "2021-08-11", ConditionClass.DATE, ConditionValueType.FIXED));
-        orExp_date.add(new ConditionNode("date3", MyOperator.LT, "2022-01-01", ConditionClass.DATE, ConditionValueType.FIXED));
-        orExp_date.add(new ConditionNode("date3", MyOperator.GT, "2021-01-01", ConditionClass.DATE, ConditionValueType.FIXED));
-        // 值类型：参数
-        orExp_date.add(new ConditionNode("date3", MyOperator.EQ, "vardate3", ConditionClass.DATE, ConditionValueType.PARAM));
-        // 值类型：对象参数
-        orExp_date.add(new ConditionNode("date3", MyOperator.EQ, "objectparam.date_var3", ConditionClass.DATE, ConditionValueType.OBJECTPARAM));
-
-        // 布尔：为真、为假
-        // 值类型：固定值
-        orExp_bool.add(new ConditionNode("bool4", MyOperator.EQ, "true", ConditionClass.BOOL, ConditionValueType.FIXED));
-        orExp_bool.add(new ConditionNode("bool4", MyOperator.EQ, "false", ConditionClass.BOOL, ConditionValueType.FIXED));
-        // 值类型：参数
-        orExp_bool.add(new ConditionNode("bool4", MyOperator.EQ, "varbool4", ConditionClass.BOOL, ConditionValueType.PARAM));
-        // 值类型：对象参数
-        orExp_bool.add(new ConditionNode("bool4", MyOperator.EQ, "objectparam.bool_var4", ConditionClass.BOOL, ConditionValueType.OBJECTPARAM));
-
-        raw_nodeList.add(orExp_string);
-        raw_nodeList.add(orExp_number);
-        raw_nodeList.add(orExp_date);
-        raw_nodeList.add(orExp_bool);
+    // 原来的公共字段保留兼容，是到Fixtures的视图，第一次访问内容时才构建演示数据
+    /**
+     * @deprecated 使用{@link Fixtures#raw_nodeList}
+     */
+    @Deprecated
+    public static List<List<ConditionNode>> raw_nodeList = new FixtureList<List<ConditionNode>>() {
+        @Override
+        List<List<ConditionNode>> delegate() {
+            return Fixtures.raw_nodeList;
+        }
+    };
+    /**
+     * @deprecated 使用{@link Fixtures#raw_variableList}
+     */
+    @Deprecated
+    public static List<ExpressionVariable> raw_variableList = new FixtureList<ExpressionVariable>() {
+        @Override
+        List<ExpressionVariable> delegate() {
+            return Fixtures.raw_variableList;
+        }
+    };
+    /**
+     * @deprecated 使用{@link Fixtures#raw_objectParamMap}
+     */
+    @Deprecated
+    public static Map<String, Object> raw_objectParamMap = new FixtureMap();
+
+    /**
+     * 演示、测试用的条件表单和变量，只在main中使用；放在单独的持有类里，生产代码加载解析器时不会构建
+     */
+    public static final class Fixtures {
 
+        // 测试条件表单json，用来生成条件表达式
+        public static final List<List<ConditionNode>> raw_nodeList = new ArrayList<>();
+        // 测试条件表达式变量值集合，用来计算
+        public static final List<ExpressionVariable> raw_variableList = new ArrayList<>();
         // 变量传参
-        raw_objectParamMap.put("string_var1", "Narcos Mexico");
-        raw_objectParamMap.put("num_var2", 60);
-        raw_objectParamMap.put("date_var3", "2027-12-31");
-        raw_objectParamMap.put("bool_var4", false);
-
-        raw_variableList.add(new ExpressionVariable("#{string1}", String.class, "helloworld"));
-        raw_variableList.add(new ExpressionVariable("#{number2}", Number.class, 6));
-        raw_variableList.add(new ExpressionVariable("#{date3}", LocalDate.class, LocalDate.now().plusYears(3)));
-        raw_variableList.add(new ExpressionVariable("#{bool4}", Boolean.class, true));
-        raw_variableList.add(new ExpressionVariable("#{varhelloworld}", String.class, "helloworld"));
-        raw_variableList.add(new ExpressionVariable("#{varnumber}", Number.class, -60.0010));
-        raw_variableList.add(new ExpressionVariable("#{vardate3}", String.class, "2048-01-01"));
-        raw_variableList.add(new ExpressionVariable("#{varbool4}", String.class, true));
-        raw_variableList.add(new ExpressionVariable("#{objectparam}", Map.class, raw_objectParamMap));
+        public static final Map<String, Object> raw_objectParamMap = new HashMap<>();
+
+        static {
+            List<ConditionNode> orExp_string = new ArrayList<>();
+            List<ConditionNode> orExp_number = new ArrayList<>();
+            List<ConditionNode> orExp_date = new ArrayList<>();
+            List<ConditionNode> orExp_bool = new ArrayList<>();
+
+            // 字符串：等于、空、非空
+            // 值类型：固定值
+            orExp_string.add(new ConditionNode("string1", MyOperator.EQ, "helloworld", ConditionClass.STRING, ConditionValueType.FIXED));
+            orExp_string.add(new ConditionNode("string1", MyOperator.EQ, null, ConditionClass.STRING, ConditionValueType.FIXED));
+            orExp_string.add(new ConditionNode("string1", MyOperator.NE, null, ConditionClass.STRING, ConditionValueType.FIXED));
+            // 值类型：参数
+            orExp_string.add(new ConditionNode("string1", MyOperator.EQ, "varhelloworld", ConditionClass.STRING, ConditionValueType.PARAM));
+            // 值类型：对象参数
+            orExp_string.add(new ConditionNode("string1", MyOperator.GT, "objectparam.string_var1", ConditionClass.STRING, ConditionValueType.OBJECTPARAM));
+
+            // 数值：大于、等于、小于、大于等于、小于等于、不等于、空、非空
+            // 值类型：固定值
+            orExp_number.add(new ConditionNode("number2", MyOperator.GT, "1", ConditionClass.NUMBER, ConditionValueType.FIXED));
+            orExp_number.add(new ConditionNode("number2", MyOperator.EQ, "6.0", ConditionClass.NUMBER, ConditionValueType.FIXED));
+            orExp_number.add(new ConditionNode("number2", MyOperator.LT, "7.001", ConditionClass.NUMBER, ConditionValueType.FIXED));
+            orExp_number.add(new ConditionNode("number2", MyOperator.GE, "6", ConditionClass.NUMBER, ConditionValueType.FIXED));
+            orExp_number.add(new ConditionNode("number2", MyOperator.LE, "6.000", ConditionClass.NUMBER, ConditionValueType.FIXED));
+            orExp_number.add(new ConditionNode("number2", MyOperator.NE, "-10.00010000", ConditionClass.NUMBER, ConditionValueType.FIXED));
+            orExp_number.add(new ConditionNode("number2", MyOperator.EQ, null, ConditionClass.NUMBER, ConditionValueType.FIXED));
+            orExp_number.add(new ConditionNode("number2", MyOperator.NE, null, ConditionClass.NUMBER, ConditionValueType.FIXED));
+            // 值类型：参数
+            orExp_number.add(new ConditionNode("number2", MyOperator.EQ, "varnumber", ConditionClass.NUMBER, ConditionValueType.PARAM));
+            // 值类型：对象参数
+            orExp_number.add(new ConditionNode("number2", MyOperator.EQ, "objectparam.num_var2", ConditionClass.NUMBER, ConditionValueType.OBJECTPARAM));
+
+            // 日期：指定某天、某天之前、某天之后、空、非空
+            // 值类型：固定值
+            orExp_date.add(new ConditionNode("date3", MyOperator.NE, null, ConditionClass.DATE, ConditionValueType.FIXED));
+            orExp_date.add(new ConditionNode("date3", MyOperator.EQ, null, ConditionClass.DATE, ConditionValueType.FIXED));
+            orExp_date.add(new ConditionNode("date3", MyOperator.EQ, "2021-08-11", ConditionClass.DATE, ConditionValueType.FIXED));
+            orExp_date.add(new ConditionNode("date3", MyOperator.LT, "2022-01-01", ConditionClass.DATE, ConditionValueType.FIXED));
+            orExp_date.add(new ConditionNode("date3", MyOperator.GT, "2021-01-01", ConditionClass.DATE, ConditionValueType.FIXED));
+            // 值类型：参数
+            orExp_date.add(new ConditionNode("date3", MyOperator.EQ, "vardate3", ConditionClass.DATE, ConditionValueType.PARAM));
+            // 值类型：对象参数
+            orExp_date.add(new ConditionNode("date3", MyOperator.EQ, "objectparam.date_var3", ConditionClass.DATE, ConditionValueType.OBJECTPARAM));
+
+            // 布尔：为真、为假
+            // 值类型：固定值
+            orExp_bool.add(new ConditionNode("bool4", MyOperator.EQ, "true", ConditionClass.BOOL, ConditionValueType.FIXED));
+            orExp_bool.add(new ConditionNode("bool4", MyOperator.EQ, "false", ConditionClass.BOOL, ConditionValueType.FIXED));
+            // 值类型：参数
+            orExp_bool.add(new ConditionNode("bool4", MyOperator.EQ, "varbool4", ConditionClass.BOOL, ConditionValueType.PARAM));
+            // 值类型：对象参数
+            orExp_bool.add(new ConditionNode("bool4", MyOperator.EQ, "objectparam.bool_var4", ConditionClass.BOOL, ConditionValueType.OBJECTPARAM));
+
+            raw_nodeList.add(orExp_string);
+            raw_nodeList.add(orExp_number);
+            raw_nodeList.add(orExp_date);
+            raw_nodeList.add(orExp_bool);
+
+            // 变量传参
+            raw_objectParamMap.put("string_var1", "Narcos Mexico");
+            raw_objectParamMap.put("num_var2", 60);
+            raw_objectParamMap.put("date_var3", "2027-12-31");
+            raw_objectParamMap.put("bool_var4", false);
+
+            raw_variableList.add(new ExpressionVariable("#{string1}", String.class, "helloworld"));
+            raw_variableList.add(new ExpressionVariable("#{number2}", Number.class, 6));
+            raw_variableList.add(new ExpressionVariable("#{date3}", LocalDate.class, LocalDate.now().plusYears(3)));
+            raw_variableList.add(new ExpressionVariable("#{bool4}", Boolean.class, true));
+            raw_variableList.add(new ExpressionVariable("#{varhelloworld}", String.class, "helloworld"));
+            raw_variableList.add(new ExpressionVariable("#{varnumber}", Number.class, -60.0010));
+            raw_variableList.add(new ExpressionVariable("#{vardate3}", String.class, "2048-01-01"));
+            raw_variableList.add(new ExpressionVariable("#{varbool4}", String.class, true));
+            raw_variableList.add(new ExpressionVariable("#{objectparam}", Map.class, raw_objectParamMap));
+        }
+    }
+
+    /**
+     * 延迟到Fixtures的列表视图
+     */
+    private abstract static class FixtureList<E> extends AbstractList<E> {
+
+        abstract List<E> delegate();
+
+        @Override
+        public E get(int index) {
+            return delegate().get(index);
+        }
+
+        @Override
+        public int size() {
+            return delegate().size();
+        }
+
+        @Override
+        public E set(int index, E element) {
+            return delegate().set(index, element);
+        }
+
+        @Override
+        public void add(int index, E element) {
+            delegate().add(index, element);
+        }
+
+        @Override
+        public E remove(int index) {
+            return delegate().remove(index);
+        }
+    }
+
+    /**
+     * 延迟到Fixtures的变量传参视图
+     */
+    private static final class FixtureMap extends AbstractMap<String, Object> {
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return Fixtures.raw_objectParamMap.entrySet();
+        }
+
+        @Override
+        public Object get(Object key) {
+            return Fixtures.raw_objectParamMap.get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return Fixtures.raw_objectParamMap.containsKey(key);
+        }
+
+        @Override
+        public Object put(String key, Object value) {
+            return Fixtures.raw_objectParamMap.put(key, value);
+        }
+
+        @Override
+        public Object remove(Object key) {
+            return Fixtures.raw_objectParamMap.remove(key);
+        }
     }
 
     public static void main(String[] args) throws Exception {
-        System.out.println("\n*****条件表单数据:\n" + new ObjectMapper().writeValueAsString(raw_nodeList));
+        System.out.println("\n*****条件表单数据:\n" + ConditionJson.write(Fixtures.raw_nodeList));
         // 解析1.0条件表单生成简单条件表达式
-        String expression = SimpleConditionExpressionParser.generateSimpleExpression(raw_nodeList);
+        String expression = SimpleConditionExpressionParser.generateSimpleExpression(Fixtures.raw_nodeList);
         System.out.println("\n*****条件表单生成条件表达式:\n" + expression);
         // 计算1.0简单条件表达式的值
-        String expressionValue = SimpleConditionExpressionParser.getExpressionValue(raw_variableList, expression);
+        String expressionValue = SimpleConditionExpressionParser.getExpressionValue(Fixtures.raw_variableList, expression);
         System.out.println("\n*****条件表达式求值:\n" + expressionValue);
         // 通过语法树解析生成1.0条件表单，todo
 //        List<List<ConditionNode>> conditionNodeList = parseSimpleExpressionByTree(expression);
 //        System.out.println("conditionNodeList:" + new ObjectMapper().writeValueAsString(conditionNodeList));
         // 通过简单条件表达式生成1.0条件表单
         List<List<ConditionNode>> conditionNodeList = SimpleConditionExpressionParser.parseSimpleExpression(expression);
-        System.out.println("\n*****条件表达式解析成条件表单:\n" + new ObjectMapper().writeValueAsString(conditionNodeList));
+        System.out.println("\n*****条件表达式解析成条件表单:\n" + ConditionJson.write(conditionNodeList));
         // 验证生成的1.0条件表单是否符合条件表达式规则
         String parsedExpression = SimpleConditionExpressionParser.generateSimpleExpression(conditionNodeList);
         System.out.println("\n*****解析后的不完整条件表单再次生成条件表达式:\n" + parsedExpression);
@@ -132,20 +227,62 @@ public class SimpleConditionExpressionParser {
     }
 
     /**
-     * 计算1.0简单条件表达式的值
+     * 表达式工厂线程安全，语法树按表达式文本缓存。EXPRESSION_FACTORY与juel的语法相同；
+     * CONDITION_EXPRESSION_FACTORY使用条件表达式解析器，支持in、not in、between。
+     * 持有类在第一次求值时才初始化，只做条件表单解析、生成的进程不创建工厂
+     */
+    private static final class FactoryHolder {
+        static final ExpressionFactory EXPRESSION_FACTORY = new ExpressionFactoryImpl(new TreeStore(
+                new ConditionParser.TreeBuilder(false, Builder.Feature.METHOD_INVOCATIONS, Builder.Feature.VARARGS), new Cache(1000)));
+        static final ExpressionFactory CONDITION_EXPRESSION_FACTORY = new ExpressionFactoryImpl(new TreeStore(
+                new ConditionParser.TreeBuilder(true, Builder.Feature.METHOD_INVOCATIONS, Builder.Feature.VARARGS), new Cache(1000)));
+    }
+
+    static ExpressionFactory expressionFactory() {
+        return FactoryHolder.EXPRESSION_FACTORY;
+    }
+
+    static ExpressionFactory conditionExpressionFactory() {
+        return FactoryHolder.CONDITION_EXPRESSION_FACTORY;
+    }
+
+    /**
+     * 计算1.0简单条件表达式的值，语法与juel相同，in、between可以作变量名
      * @param params
      * @param expression
      * @return
      * @throws NoSuchMethodException
      */
-    public static String getExpressionValue(List<ExpressionVariable> params, String expression) throws Exception {
-        ExpressionFactory factory = new ExpressionFactoryImpl();
-        SimpleContext context = new SimpleContext(new SimpleResolver());
-        for (ExpressionVariable exp:params) {
-            factory.createValueExpression(context, exp.getVariable(), exp.getValueClass()).setValue(context, exp.getValue());
-        }
-        ValueExpression testExp = factory.createValueExpression(context, expression, boolean.class);
-        return testExp.getValue(context).toString();
+    public static <V extends ExpressionVariable<?>> String getExpressionValue(List<V> params, String expression) throws Exception {
+        return getExpressionValue(expressionFactory(), params, expression);
+    }
+
+    /**
+     * 计算条件表达式的值，支持in、not in、between，in、between是关键字，不能作变量名
+     * @param params
+     * @param expression
+     * @return
+     * @throws Exception
+     */
+    public static <V extends ExpressionVariable<?>> String getConditionExpressionValue(List<V> params, String expression) throws Exception {
+        return getExpressionValue(conditionExpressionFactory(), params, expression);
+    }
+
+    private static <V extends ExpressionVariable<?>> String getExpressionValue(ExpressionFactory factory, List<V> params, String expression) throws Exception {
+        ConditionEvents.EvaluateEvent event = new ConditionEvents.EvaluateEvent();
+        event.begin();
+        Boolean result = null;
+        try {
+            SimpleContext context = FunctionRegistry.DEFAULT.bindTo(new SimpleContext(new SimpleResolver()));
+            for (ExpressionVariable<?> exp:params) {
+                factory.createValueExpression(context, exp.getVariable(), exp.getValueClass()).setValue(context, exp.getValue());
+            }
+            ValueExpression testExp = factory.createValueExpression(context, expression, boolean.class);
+            result = (Boolean) testExp.getValue(context);
+            return result.toString();
+        } finally {
+            event.record(expression, result);
+        }
     }
 
     /**
@@ -155,86 +292,195 @@ public class SimpleConditionExpressionParser {
      * @throws Exception
      */
     public static String generateSimpleExpression(List<List<ConditionNode>> nodeList) throws Exception {
-        StringJoiner stringJoiner = new StringJoiner("");
+        StringBuilder builder = new StringBuilder(64 * nodeList.size());
+        generateSimpleExpression(nodeList, builder);
+        return builder.toString();
+    }
+
+    // 预先计算好的分隔符
+    // 按序号顺序尝试匹配的操作符，常量数组代替每次创建EnumSet
+    private static final MyOperator[] OPERATORS = MyOperator.values();
+
+    private static final String START_EVAL_TEXT = MySymbol.START_EVAL_DYNAMIC.toString();
+    private static final String END_EVAL_TEXT = MySymbol.END_EVAL.toString();
+    private static final String OR_TEXT = MySymbol.SPACE.toString() + MySymbol.OR + MySymbol.SPACE;
+    private static final String AND_TEXT = MySymbol.SPACE.toString() + MySymbol.AND + MySymbol.SPACE;
+    private static final char LPAREN_CHAR = MySymbol.LPAREN.toString().charAt(0);
+    private static final char RPAREN_CHAR = MySymbol.RPAREN.toString().charAt(0);
+    private static final char SQUOT_CHAR = MySymbol.SQUOT.toString().charAt(0);
+    private static final String LIST_SEPARATOR_TEXT = MySymbol.COMMA.toString() + MySymbol.SPACE;
+
+    /**
+     * 解析1.0条件表单生成简单条件表达式，直接写入调用方提供的缓冲区，可重复使用同一个StringBuilder
+     * 输出与{@link #generateSimpleExpression(List)}逐字节一致
+     * @param nodeList
+     * @param out
+     * @throws Exception
+     */
+    public static void generateSimpleExpression(List<List<ConditionNode>> nodeList, Appendable out) throws Exception {
         // ${
-        stringJoiner.add(MySymbol.START_EVAL_DYNAMIC.toString());
+        out.append(START_EVAL_TEXT);
 
         // ()
         for (int i = 0; i < nodeList.size(); i++) {
             List<ConditionNode> or_i = nodeList.get(i);
-            if (i !=0 ) {
-                stringJoiner.add(MySymbol.SPACE.toString());
-                stringJoiner.add(MySymbol.OR.toString());
-                stringJoiner.add(MySymbol.SPACE.toString());
+            if (i != 0) {
+                out.append(OR_TEXT);
             }
-            stringJoiner.add(MySymbol.LPAREN.toString());
+            out.append(LPAREN_CHAR);
             for (int j = 0; j < or_i.size(); j++) {
                 ConditionNode node = or_i.get(j);
                 if (j != 0) {
-                    stringJoiner.add(MySymbol.SPACE.toString());
-                    stringJoiner.add(MySymbol.AND.toString());
-                    stringJoiner.add(MySymbol.SPACE.toString());
+                    out.append(AND_TEXT);
                 }
-                stringJoiner.add(node.getVariable());
-                stringJoiner.add(node.getOperator().toString());
+                out.append(node.getVariable());
+                out.append(node.getOperator().toString());
 
-                if (node.getValue() == null) {
-                    stringJoiner.add("null");
+                if (node.getOperator().isList()) {
+                    appendList(out, node);
+                } else if (node.getValue() == null) {
+                    out.append("null");
                 } else {
-                    switch (node.getValueType()) {
-                        case FIXED:
-                            switch (node.getConditionClass()) {
-                                case NUMBER:
-                                    String numText = node.getValue();
-                                    if (StringUtils.isNumeric(numText)) {
-                                        BigDecimal bigDecimal = new BigDecimal(numText);
-                                        if (bigDecimal.scale() > 0) {
-                                            numText = bigDecimal.toString();
-                                        } else {
-                                            numText = bigDecimal.toBigInteger().toString();
-                                        }
-                                    }
-                                    stringJoiner.add(numText);
-                                    break;
-                                case STRING:
-                                    stringJoiner.add(MySymbol.SQUOT.toString());
-                                    stringJoiner.add(node.getValue());
-                                    stringJoiner.add(MySymbol.SQUOT.toString());
-                                    break;
-                                case BOOL:
-                                    boolean aBoolean = Boolean.FALSE;
-                                    try {
-                                        aBoolean = Boolean.parseBoolean(node.getValue());
-                                    } catch (Exception e) {
-                                        e.printStackTrace();
-                                    }
-                                    String boolText = aBoolean ? "true" : "false";
-                                    stringJoiner.add(boolText);
-                                    break;
-                                case DATE:
-                                    LocalDate aDate = LocalDate.parse(node.getValue());
-                                    String dateText = aDate.format(DateTimeFormatter.ISO_DATE);
-                                    stringJoiner.add(MySymbol.SQUOT.toString());
-                                    stringJoiner.add(dateText);
-                                    stringJoiner.add(MySymbol.SQUOT.toString());
-                                    break;
-                                default:
-                                    break;
-                            }
-                            break;
-                        default:
-                            stringJoiner.add(node.getValue());
-                            break;
-                    }
+                    appendValue(out, node.getValueType(), node.getConditionClass(), node.getValue());
                 }
 
             }
-            stringJoiner.add(MySymbol.RPAREN.toString());
+            out.append(RPAREN_CHAR);
         }
 
         // }
-        stringJoiner.add(MySymbol.END_EVAL.toString());
-        return stringJoiner.toString();
+        out.append(END_EVAL_TEXT);
+    }
+
+    private static void appendValue(Appendable out, ConditionValueType valueType, ConditionClass conditionClass, String value) throws Exception {
+        switch (valueType) {
+            case FIXED:
+                switch (conditionClass) {
+                    case NUMBER:
+                        appendNumber(out, value);
+                        break;
+                    case STRING:
+                        out.append(SQUOT_CHAR);
+                        out.append(value);
+                        out.append(SQUOT_CHAR);
+                        break;
+                    case BOOL:
+                        out.append(Boolean.parseBoolean(value) ? "true" : "false");
+                        break;
+                    case DATE:
+                        out.append(SQUOT_CHAR);
+                        appendDate(out, value);
+                        out.append(SQUOT_CHAR);
+                        break;
+                    default:
+                        break;
+                }
+                break;
+            default:
+                out.append(value);
+                break;
+        }
+    }
+
+    /**
+     * 集合、区间运算的值列表：(v1, v2, ...)，空值输出()
+     */
+    private static void appendList(Appendable out, ConditionNode node) throws Exception {
+        out.append(LPAREN_CHAR);
+        if (node.getValue() != null) {
+            List<String> values = splitValues(node.getValue(), node.getConditionClass());
+            for (int k = 0; k < values.size(); k++) {
+                if (k != 0) {
+                    out.append(LIST_SEPARATOR_TEXT);
+                }
+                appendValue(out, node.getValueType(), node.getConditionClass(), values.get(k));
+            }
+        }
+        out.append(RPAREN_CHAR);
+    }
+
+    /**
+     * 拆分集合、区间运算的值，多个值以逗号分隔，值里的逗号、反斜杠用反斜杠转义，字符串以外的值去掉首尾空白
+     * @param value
+     * @param conditionClass
+     * @return
+     */
+    public static List<String> splitValues(String value, ConditionClass conditionClass) {
+        List<String> result = new ArrayList<>();
+        StringBuilder item = new StringBuilder();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                item.append(value.charAt(++i));
+            } else if (c == ',') {
+                result.add(conditionClass == ConditionClass.STRING ? item.toString() : item.toString().trim());
+                item.setLength(0);
+            } else {
+                item.append(c);
+            }
+        }
+        result.add(conditionClass == ConditionClass.STRING ? item.toString() : item.toString().trim());
+        return result;
+    }
+
+    /**
+     * 以逗号连接集合、区间运算的值，与{@link #splitValues(String, ConditionClass)}对应
+     * @param values
+     * @return
+     */
+    public static String joinValues(Collection<String> values) {
+        StringBuilder builder = new StringBuilder();
+        boolean first = true;
+        for (String item : values) {
+            if (!first) {
+                builder.append(',');
+            }
+            first = false;
+            for (int i = 0; i < item.length(); i++) {
+                char c = item.charAt(i);
+                if (c == ',' || c == '\\') {
+                    builder.append('\\');
+                }
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 纯数字去掉前导0，其余原样输出；只有ASCII数字时不创建BigDecimal
+     */
+    private static void appendNumber(Appendable out, String numText) throws Exception {
+        if (!StringUtils.isNumeric(numText)) {
+            out.append(numText);
+            return;
+        }
+        int length = numText.length();
+        int start = 0;
+        for (int k = 0; k < length; k++) {
+            char c = numText.charAt(k);
+            if (c < '0' || c > '9') {
+                // 非ASCII数字，按原来的方式规范化
+                BigDecimal bigDecimal = new BigDecimal(numText);
+                out.append(bigDecimal.scale() > 0 ? bigDecimal.toString() : bigDecimal.toBigInteger().toString());
+                return;
+            }
+            if (c == '0' && start == k && k < length - 1) {
+                start++;
+            }
+        }
+        out.append(numText, start, length);
+    }
+
+    /**
+     * 规范的yyyy-MM-dd日期原样输出，其余经过LocalDate规范化（非法日期照常抛出异常）
+     */
+    private static void appendDate(Appendable out, String dateText) throws Exception {
+        if (DateLiterals.isCanonical(dateText)) {
+            out.append(dateText);
+        } else {
+            out.append(LocalDate.parse(dateText).format(DateTimeFormatter.ISO_DATE));
+        }
     }
 
     /**
@@ -247,16 +493,25 @@ public class SimpleConditionExpressionParser {
         List<String> orNodeList = Arrays.asList(StringUtils.split(nodesText, MySymbol.OR.toString()));
         List<List<ConditionNode>> orNodeArr = new ArrayList<>();
         for (String orNode:orNodeList) {
-            String andNodeText = StringUtils.substringBetween(orNode, MySymbol.LPAREN.toString(), MySymbol.RPAREN.toString());
+            // 最外层括号之间，集合、区间运算的值列表也带括号
+            String andNodeText = StringUtils.substringBeforeLast(StringUtils.substringAfter(orNode, MySymbol.LPAREN.toString()), MySymbol.RPAREN.toString());
             List<String> andNodeTextList = Arrays.asList(StringUtils.split(andNodeText, MySymbol.AND.toString()));
             List<ConditionNode> andNodeArray = new ArrayList<>();
             for (String andNode:andNodeTextList) {
                 andNode = andNode.trim();
-                Iterator<MyOperator> iterator = MyOperator.enumSet().iterator();
+                ConditionNode listNode = parseListNode(andNode);
+                if (listNode != null) {
+                    andNodeArray.add(listNode);
+                    continue;
+                }
+                Iterator<MyOperator> iterator = Arrays.asList(OPERATORS).iterator();
                 String variable = null;
                 String value = null;
                 while (iterator.hasNext()) {
                     MyOperator operator = iterator.next();
+                    if (operator.isList()) {
+                        continue;
+                    }
                     if (andNode.contains(operator.toString())) {
                         variable = StringUtils.substringBefore(andNode, operator.toString());
                         value = StringUtils.substringAfter(andNode, operator.toString());
@@ -275,7 +530,7 @@ public class SimpleConditionExpressionParser {
                         if (value.startsWith(MySymbol.SQUOT.toString()) && value.endsWith(MySymbol.SQUOT.toString())) {
                             value = StringUtils.substringBetween(value, MySymbol.SQUOT.toString(), MySymbol.SQUOT.toString());
                             // 日期
-                            if (Pattern.matches(DATE_PATTERN, value)) {
+                            if (DateLiterals.matchesPattern(value)) {
                                 andNodeArray.add(new ConditionNode(variable, operator, value, ConditionClass.DATE, ConditionValueType.FIXED));
                                 break;
                             }
@@ -309,6 +564,128 @@ public class SimpleConditionExpressionParser {
         return orNodeArr;
     }
 
+    /**
+     * 解析集合、区间条件：变量 in (...)、变量 not in (...)、变量 between (...)
+     * 值的类型判断与单值条件一致，多个值以逗号连接；值列表只能是同一类：字符串（含日期）、布尔值、数值或参数
+     * @param andNode
+     * @return 不是集合、区间条件返回null
+     * @throws IllegalArgumentException 值列表混合了不同类的值，条件表单无法表示
+     */
+    private static ConditionNode parseListNode(String andNode) {
+        int end = 0;
+        while (end < andNode.length() && Character.isJavaIdentifierPart(andNode.charAt(end))) {
+            end++;
+        }
+        int start = skipSpaces(andNode, end);
+        if (end == 0 || start == end) {
+            return null;
+        }
+        MyOperator operator;
+        int next;
+        if ((next = matchWord(andNode, start, "in")) > 0) {
+            operator = MyOperator.IN;
+        } else if ((next = matchWord(andNode, start, "between")) > 0) {
+            operator = MyOperator.BETWEEN;
+        } else if ((next = matchWord(andNode, start, "not")) > 0 && (next = matchWord(andNode, skipSpaces(andNode, next), "in")) > 0) {
+            operator = MyOperator.NOT_IN;
+        } else {
+            return null;
+        }
+        String listText = andNode.substring(next).trim();
+        if (!listText.startsWith(MySymbol.LPAREN.toString()) || !listText.endsWith(MySymbol.RPAREN.toString())) {
+            return null;
+        }
+        String variable = andNode.substring(0, end);
+        List<String> items = splitList(listText.substring(1, listText.length() - 1));
+        if (items.isEmpty()) {
+            return new ConditionNode(variable, operator, null, ConditionClass.UNKNOWN, ConditionValueType.FIXED);
+        }
+        boolean quoted = true;
+        boolean dates = true;
+        boolean bools = true;
+        boolean numbers = true;
+        boolean params = true;
+        boolean objectParam = false;
+        for (String item : items) {
+            boolean isQuoted = item.length() >= 2 && item.startsWith(MySymbol.SQUOT.toString()) && item.endsWith(MySymbol.SQUOT.toString());
+            quoted &= isQuoted;
+            dates &= isQuoted && DateLiterals.matchesPattern(item.substring(1, item.length() - 1));
+            bools &= StringUtils.equals(item, "true") || StringUtils.equals(item, "false");
+            numbers &= NumberUtils.isParsable(item);
+            params &= !isQuoted && !NumberUtils.isParsable(item)
+                    && !StringUtils.equals(item, "true") && !StringUtils.equals(item, "false") && !StringUtils.equals(item, "null");
+            objectParam |= item.contains(MySymbol.DOT.toString());
+        }
+        if (!quoted && !bools && !numbers && !params) {
+            throw new IllegalArgumentException("值列表混合了不同类型的值：" + andNode);
+        }
+        List<String> values = new ArrayList<>(items.size());
+        for (String item : items) {
+            if (numbers) {
+                BigDecimal decimal = NumberUtils.createBigDecimal(item);
+                values.add(decimal.scale() > 0 ? decimal.toString() : decimal.toBigInteger().toString());
+            } else if (item.length() >= 2 && item.startsWith(MySymbol.SQUOT.toString()) && item.endsWith(MySymbol.SQUOT.toString())) {
+                values.add(item.substring(1, item.length() - 1));
+            } else {
+                values.add(item);
+            }
+        }
+        String value = joinValues(values);
+        if (quoted) {
+            return new ConditionNode(variable, operator, value, dates ? ConditionClass.DATE : ConditionClass.STRING, ConditionValueType.FIXED);
+        }
+        if (bools) {
+            return new ConditionNode(variable, operator, value, ConditionClass.BOOL, ConditionValueType.FIXED);
+        }
+        if (numbers) {
+            return new ConditionNode(variable, operator, value, ConditionClass.NUMBER, ConditionValueType.FIXED);
+        }
+        return new ConditionNode(variable, operator, value, ConditionClass.UNKNOWN, objectParam ? ConditionValueType.OBJECTPARAM : ConditionValueType.PARAM);
+    }
+
+    private static int skipSpaces(String text, int from) {
+        while (from < text.length() && Character.isWhitespace(text.charAt(from))) {
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * 单词后面必须是空白或左括号
+     * @return 单词之后的下标，不匹配返回-1
+     */
+    private static int matchWord(String text, int from, String word) {
+        int end = from + word.length();
+        if (!text.startsWith(word, from) || end >= text.length()) {
+            return -1;
+        }
+        char c = text.charAt(end);
+        return Character.isWhitespace(c) || c == LPAREN_CHAR ? end : -1;
+    }
+
+    /**
+     * 按逗号拆分值列表，单引号内的逗号不拆分
+     */
+    private static List<String> splitList(String text) {
+        List<String> items = new ArrayList<>();
+        if (StringUtils.isBlank(text)) {
+            return items;
+        }
+        boolean inQuote = false;
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == SQUOT_CHAR) {
+                inQuote = !inQuote;
+            } else if (c == ',' && !inQuote) {
+                items.add(text.substring(start, i).trim());
+                start = i + 1;
+            }
+        }
+        items.add(text.substring(start).trim());
+        return items;
+    }
+
     /**
      * @Deprecated
      * 通过语法树解析简单条件表达式生成1.0条件表单
@@ -345,21 +722,49 @@ public class SimpleConditionExpressionParser {
 
     @Deprecated
     private static void extractNodeListFromTree(List<ConditionNode> andNodeList, JuelParser.ExpLeafNode leafNode) throws Exception {
-        ConditionNode conditionNode = new ConditionNode();
-        if (leafNode.getLeftNode() != null) {
-            extractNodeListFromTree(andNodeList, leafNode.getLeftNode());
-        } else {
-            conditionNode.setVariable(leafNode.getLeftLeaf());
-        }
-        conditionNode.setOperator(MyOperator.find(leafNode.getOperator()));
-        if (leafNode.getRightNode() != null) {
-            extractNodeListFromTree(andNodeList, leafNode.getRightNode());
-        } else {
-            conditionNode.setValue(leafNode.getRightLeaf());
+        // 显式栈后序遍历，栈中是待展开的树节点或待输出的条件节点
+        Deque<Object> stack = new ArrayDeque<>();
+        stack.push(leafNode);
+        while (!stack.isEmpty()) {
+            Object item = stack.pop();
+            if (item instanceof ConditionNode) {
+                andNodeList.add((ConditionNode) item);
+                continue;
+            }
+            JuelParser.ExpLeafNode node = (JuelParser.ExpLeafNode) item;
+            if (node.isJunction()) {
+                // 与原来左深二叉树的输出顺序一致：第一个操作数，之后每个操作数后跟一个连接符节点
+                List<JuelParser.ExpLeafNode> children = node.getChildren();
+                for (int i = children.size() - 1; i >= 0; i--) {
+                    if (i > 0) {
+                        ConditionNode junctionNode = new ConditionNode();
+                        junctionNode.setOperator(MyOperator.find(node.getOperator()));
+                        stack.push(junctionNode);
+                    }
+                    if (children.get(i) != null) {
+                        stack.push(children.get(i));
+                    }
+                }
+                continue;
+            }
+            ConditionNode conditionNode = new ConditionNode();
+            if (node.getLeftNode() == null) {
+                conditionNode.setVariable(node.getLeftLeaf());
+            }
+            conditionNode.setOperator(MyOperator.find(node.getOperator()));
+            if (node.getRightNode() == null) {
+                conditionNode.setValue(node.getRightLeaf());
+            }
+//            conditionNode.setValueType();
+//            conditionNode.setConditionClass();
+            stack.push(conditionNode);
+            if (node.getRightNode() != null) {
+                stack.push(node.getRightNode());
+            }
+            if (node.getLeftNode() != null) {
+                stack.push(node.getLeftNode());
+            }
         }
-//        conditionNode.setValueType();
-//        conditionNode.setConditionClass();
-        andNodeList.add(conditionNode);
     }
 
     /**
@@ -426,7 +831,7 @@ public class SimpleConditionExpressionParser {
         @Override
         public String toString() {
             try {
-                return new ObjectMapper().writeValueAsString(this);
+                return ConditionJson.write(this);
             } catch (JsonProcessingException e) {
                 e.printStackTrace();
                 return null;
@@ -469,6 +874,7 @@ public class SimpleConditionExpressionParser {
         DOT("."),
         SQUOT("'"),
         SPACE(" "),
+        COMMA(","),
         ;
 
         private final String string;
@@ -497,6 +903,10 @@ public class SimpleConditionExpressionParser {
         EQ("=="),
         NE("!="),
         UNKNOWN,
+        // 集合、区间运算，值是逗号分隔的多个值；追加在末尾，保持已有操作符的序号不变（堆外规则存储按序号编码）
+        IN(" in "),
+        NOT_IN(" not in "),
+        BETWEEN(" between "),
         ;
 
         private final String string;
@@ -513,26 +923,40 @@ public class SimpleConditionExpressionParser {
             return this.string == null ? "<" + this.name() + ">" : this.string;
         }
 
+        /**
+         * 值是否为逗号分隔的多个值
+         * @return
+         */
+        public boolean isList() {
+            return this == IN || this == NOT_IN || this == BETWEEN;
+        }
+
         public static EnumSet<MyOperator> enumSet() {
             EnumSet<MyOperator> myOperators = EnumSet.allOf(MyOperator.class);
             return myOperators;
         }
 
-        private static final Map<String, MyOperator> lookup = new HashMap<>();
-
-
-        static {
-            for(MyOperator e:MyOperator.enumSet()){
-                lookup.put(e.string, e);
-            }
-        }
-
+        /**
+         * 按操作符文本查找，忽略首尾空格；用switch代替静态查找表，加载枚举时不需要构建
+         * @param operator
+         * @return 不能识别返回UNKNOWN
+         */
         public static MyOperator find(String operator){
-            MyOperator value = lookup.get(operator);
-            if(value == null){
+            if (operator == null) {
                 return MyOperator.UNKNOWN;
             }
-            return value;
+            switch (operator.trim()) {
+                case "<=": return LE;
+                case "<": return LT;
+                case ">=": return GE;
+                case ">": return GT;
+                case "==": return EQ;
+                case "!=": return NE;
+                case "in": return IN;
+                case "not in": return NOT_IN;
+                case "between": return BETWEEN;
+                default: return MyOperator.UNKNOWN;
+            }
         }
 
     }
@@ -0,0 +1,355 @@
+package com.example.jueldemo;
+
+import de.odysseus.el.misc.TypeConverter;
+import de.odysseus.el.tree.Bindings;
+import de.odysseus.el.tree.Tree;
+import de.odysseus.el.tree.impl.Builder;
+import de.odysseus.el.tree.impl.ast.AstComposite;
+import de.odysseus.el.tree.impl.ast.AstNode;
+import de.odysseus.el.tree.impl.ast.AstText;
+import de.odysseus.el.util.SimpleContext;
+import de.odysseus.el.util.SimpleResolver;
+
+import javax.el.*;
+import java.beans.FeatureDescriptor;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * 文本模板渲染
+ * 通知文本是普通文本加若干${...}/#{...}的组合表达式，每秒渲染成千上万次。原来每次经过ValueExpression求值，
+ * AstComposite先把每段转换成字符串再拼接。这里把组合表达式预编译成文本段和求值槽，渲染时文本段直接写出，
+ * 求值结果按juel的字符串转换规则（null为空串）直接追加到Writer/StringBuilder，整数、布尔值追加到StringBuilder时不生成中间字符串；
+ * 按以前渲染的平均长度预估结果长度，一次分配缓冲区。编译后的模板按文本缓存。
+ * 变量从变量表读取，属性访问、函数调用与juel一致。模板构建后只读，线程安全
+ * @author hu
+ */
+public class TemplateRenderer {
+
+    public static final int DEFAULT_CACHE_SIZE = 1000;
+
+    private static final TypeConverter CONVERTER = TypeConverter.DEFAULT;
+
+    private final LinkedHashMap<String, Template> cache;
+    private long hits;
+    private long misses;
+
+    public TemplateRenderer() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param cacheSize 缓存的模板数上限
+     */
+    public TemplateRenderer(int cacheSize) {
+        if (cacheSize <= 0) {
+            throw new IllegalArgumentException("缓存条目上限必须大于0：" + cacheSize);
+        }
+        this.cache = new LinkedHashMap<String, Template>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Template> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * 取缓存的模板，没有时编译
+     * @param text 模板文本
+     * @return
+     */
+    public Template compile(String text) {
+        synchronized (cache) {
+            Template template = cache.get(text);
+            if (template != null) {
+                hits++;
+                return template;
+            }
+            misses++;
+        }
+        ConditionEvents.CacheMissEvent event = new ConditionEvents.CacheMissEvent();
+        event.begin();
+        Template template = parse(text);
+        synchronized (cache) {
+            cache.put(text, template);
+        }
+        event.record("TemplateRenderer", text);
+        return template;
+    }
+
+    /**
+     * 渲染模板
+     * @param text 模板文本
+     * @param variables 变量表
+     * @return
+     */
+    public String render(String text, Map<String, ?> variables) {
+        return compile(text).render(variables);
+    }
+
+    /**
+     * 编译模板，不使用缓存
+     * @param text 模板文本
+     * @return
+     */
+    public static Template parse(String text) {
+        Tree tree;
+        try {
+            tree = new ConditionParser(new Builder(Builder.Feature.METHOD_INVOCATIONS, Builder.Feature.VARARGS), text).tree();
+        } catch (Scanner.ScanException | JuelParser.ParseException e) {
+            throw new ELException("模板解析失败：" + text, e);
+        }
+        // 只绑定函数，标识符不绑定变量，求值时由变量表解析，同一个绑定可以共用
+        FunctionMapper functions = FunctionRegistry.DEFAULT.bindTo(new SimpleContext()).getFunctionMapper();
+        Bindings bindings = tree.bind(functions, null, CONVERTER);
+        AstNode root = (AstNode) tree.getRoot();
+        List<AstNode> nodes = new ArrayList<>();
+        if (root instanceof AstComposite) {
+            for (int i = 0; i < root.getCardinality(); i++) {
+                nodes.add((AstNode) root.getChild(i));
+            }
+        } else {
+            nodes.add(root);
+        }
+        String[] texts = new String[nodes.size()];
+        AstNode[] slots = new AstNode[nodes.size()];
+        int literalLength = 0;
+        for (int i = 0; i < nodes.size(); i++) {
+            AstNode node = nodes.get(i);
+            if (node instanceof AstText) {
+                texts[i] = (String) node.eval(bindings, null);
+                literalLength += texts[i].length();
+            } else {
+                slots[i] = node;
+            }
+        }
+        return new Template(text, texts, slots, bindings, literalLength);
+    }
+
+    /**
+     * @return 缓存的模板数
+     */
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public long getHits() {
+        synchronized (cache) {
+            return hits;
+        }
+    }
+
+    public long getMisses() {
+        synchronized (cache) {
+            return misses;
+        }
+    }
+
+    /**
+     * 编译后的模板：按顺序排列的段，每段是文本或求值槽
+     */
+    public static final class Template {
+        private final String text;
+        // 段 -> 文本，求值槽为null
+        private final String[] texts;
+        // 段 -> 求值节点，文本段为null
+        private final AstNode[] slots;
+        private final Bindings bindings;
+        private final int literalLength;
+        private final int slotCount;
+        // 渲染结果长度估计，按渲染结果滑动更新，向上取整，偏大不超过几个字符
+        private volatile int lengthEstimate;
+
+        private Template(String text, String[] texts, AstNode[] slots, Bindings bindings, int literalLength) {
+            this.text = text;
+            this.texts = texts;
+            this.slots = slots;
+            this.bindings = bindings;
+            this.literalLength = literalLength;
+            int count = 0;
+            for (AstNode slot : slots) {
+                count += slot == null ? 0 : 1;
+            }
+            this.slotCount = count;
+            // 还没有渲染过时每个求值槽按16个字符估计
+            this.lengthEstimate = literalLength + count * 16;
+        }
+
+        /**
+         * 渲染到调用方的缓冲区或Writer
+         * @param variables 变量表
+         * @param out
+         * @throws IOException
+         */
+        public void render(Map<String, ?> variables, Appendable out) throws IOException {
+            ELContext context = slotCount == 0 ? null : new VariablesContext(variables);
+            for (int i = 0; i < texts.length; i++) {
+                if (texts[i] != null) {
+                    out.append(texts[i]);
+                } else {
+                    append(out, slots[i].eval(bindings, context));
+                }
+            }
+        }
+
+        /**
+         * 渲染成字符串，缓冲区按预估长度一次分配
+         * @param variables 变量表
+         * @return
+         */
+        public String render(Map<String, ?> variables) {
+            StringBuilder builder = new StringBuilder(estimateSize());
+            try {
+                render(variables, builder);
+            } catch (IOException e) {
+                // StringBuilder不会抛出IOException
+                throw new IllegalStateException(e);
+            }
+            if (slotCount > 0) {
+                lengthEstimate = (lengthEstimate * 3 + builder.length() + 3) / 4;
+            }
+            return builder.toString();
+        }
+
+        /**
+         * @return 预估的渲染结果长度：按以前渲染结果长度的滑动平均，没有求值槽时是文本长度
+         */
+        public int estimateSize() {
+            return lengthEstimate;
+        }
+
+        /**
+         * 按juel的字符串转换规则追加求值结果，常见类型追加到StringBuilder时不生成中间字符串
+         */
+        private void append(Appendable out, Object value) throws IOException {
+            if (value == null) {
+                return;
+            }
+            if (value instanceof String) {
+                out.append((String) value);
+            } else if (out instanceof StringBuilder && (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte)) {
+                ((StringBuilder) out).append(((Number) value).longValue());
+            } else if (out instanceof StringBuilder && value instanceof Boolean) {
+                ((StringBuilder) out).append(((Boolean) value).booleanValue());
+            } else if (out instanceof StringBuilder && value instanceof Character) {
+                ((StringBuilder) out).append(((Character) value).charValue());
+            } else {
+                out.append(bindings.convert(value, String.class));
+            }
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * @return 段数，文本段和求值槽
+         */
+        public int getSegmentCount() {
+            return texts.length;
+        }
+
+        public int getSlotCount() {
+            return slotCount;
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    /**
+     * 渲染上下文：根标识符从变量表读取，属性访问等交给juel默认的解析器链
+     */
+    private static final class VariablesContext extends ELContext {
+        private final ELResolver resolver;
+
+        VariablesContext(Map<String, ?> variables) {
+            this.resolver = new VariablesResolver(variables);
+        }
+
+        @Override
+        public ELResolver getELResolver() {
+            return resolver;
+        }
+
+        @Override
+        public FunctionMapper getFunctionMapper() {
+            return null;
+        }
+
+        @Override
+        public VariableMapper getVariableMapper() {
+            return null;
+        }
+    }
+
+    /**
+     * 根标识符按变量表解析，其余委托给默认解析器链
+     */
+    private static final class VariablesResolver extends ELResolver {
+        // SimpleResolver的默认链：数组、列表、Map、资源包、bean，只读
+        private static final ELResolver DELEGATE = new SimpleResolver(true);
+
+        private final Map<String, ?> variables;
+
+        VariablesResolver(Map<String, ?> variables) {
+            this.variables = variables;
+        }
+
+        @Override
+        public Object getValue(ELContext context, Object base, Object property) {
+            if (base == null) {
+                // 变量表里没有的不标记为已解析，由juel按原来的规则报错
+                String name = String.valueOf(property);
+                Object value = variables.get(name);
+                context.setPropertyResolved(value != null || variables.containsKey(name));
+                return value;
+            }
+            return DELEGATE.getValue(context, base, property);
+        }
+
+        @Override
+        public Class<?> getType(ELContext context, Object base, Object property) {
+            if (base == null) {
+                String name = String.valueOf(property);
+                Object value = variables.get(name);
+                context.setPropertyResolved(value != null || variables.containsKey(name));
+                return value == null ? null : value.getClass();
+            }
+            return DELEGATE.getType(context, base, property);
+        }
+
+        @Override
+        public void setValue(ELContext context, Object base, Object property, Object value) {
+            throw new PropertyNotWritableException("模板渲染不能修改变量：" + property);
+        }
+
+        @Override
+        public boolean isReadOnly(ELContext context, Object base, Object property) {
+            if (base == null) {
+                context.setPropertyResolved(true);
+                return true;
+            }
+            return DELEGATE.isReadOnly(context, base, property);
+        }
+
+        @Override
+        public Iterator<FeatureDescriptor> getFeatureDescriptors(ELContext context, Object base) {
+            return DELEGATE.getFeatureDescriptors(context, base);
+        }
+
+        @Override
+        public Class<?> getCommonPropertyType(ELContext context, Object base) {
+            return base == null ? String.class : DELEGATE.getCommonPropertyType(context, base);
+        }
+
+        @Override
+        public Object invoke(ELContext context, Object base, Object method, Class<?>[] paramTypes, Object[] params) {
+            return DELEGATE.invoke(context, base, method, paramTypes, params);
+        }
+    }
+}
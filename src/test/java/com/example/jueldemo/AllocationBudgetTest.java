@@ -0,0 +1,130 @@
+package com.example.jueldemo;
+
+import com.example.jueldemo.SimpleConditionExpressionParser.*;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 热点路径分配预算检查
+ * 热点路径去掉分配后需要防止回退：每条路径声明每次操作允许分配的字节数，预热后用线程分配计数
+ * （com.sun.management.ThreadMXBean）测量每次操作的平均分配字节数，超出预算时测试失败。
+ * JVM不支持线程分配计数时跳过
+ * @author hu
+ */
+public class AllocationBudgetTest {
+
+    private static final int WARMUP = 200_000;
+    private static final int ITERATIONS = 1_000_000;
+
+    private static com.sun.management.ThreadMXBean bean;
+
+    private Map<String, Object> variables;
+
+    /**
+     * 一次操作，返回值防止被优化掉
+     */
+    interface Operation {
+        int run() throws Exception;
+    }
+
+    @BeforeClass
+    public static void enableAllocationCounting() {
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue("JVM不支持线程分配计数", threadBean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported());
+        bean = (com.sun.management.ThreadMXBean) threadBean;
+        bean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Before
+    public void setUp() {
+        variables = new HashMap<>();
+        variables.put("amount", 3000L);
+        variables.put("level", 4);
+        variables.put("region", "east");
+        variables.put("vip", Boolean.TRUE);
+        variables.put("date3", "2021-08-11");
+    }
+
+    /**
+     * 命中时只分配缓存键：变量值数组和键对象
+     */
+    @Test
+    public void cachedEvaluation() throws Exception {
+        EvaluationCache cache = new EvaluationCache(100);
+        cache.register("flow1", "${(amount>1000 && region=='east') || (level>=3 && vip==true)}");
+        cache.evaluate("flow1", variables);
+        assertBudget("缓存命中求值", 64, () -> cache.evaluate("flow1", variables) ? 1 : 0);
+    }
+
+    /**
+     * 字面量预先转换好类型，整数、日期直接比较
+     */
+    @Test
+    public void compiledEvaluation() throws Exception {
+        CompiledCondition compiled = CompiledCondition.compile(
+                "${(amount>1000 && amount<=5000 && region=='east') || (level>=3 && vip==true) || (date3<'2022-01-01' && level!=0)}");
+        assertBudget("编译后条件求值", 0, () -> compiled.evaluate(variables) ? 1 : 0);
+    }
+
+    /**
+     * 标识符、数字、字符串生成新的token，运算符、关键字使用共享的token
+     */
+    @Test
+    public void scanner() throws Exception {
+        String expression = "${(amount>1000 && amount<=5000 && region=='east') || (level>=3 && vip==true) || (date3<'2022-01-01' && owner==objectparam.owner)}";
+        assertBudget("Scanner分词", 2048, () -> {
+            Scanner scanner = new Scanner(expression);
+            int count = 0;
+            while (scanner.next().getSymbol() != Scanner.Symbol.EOF) {
+                count++;
+            }
+            return count;
+        });
+    }
+
+    @Test
+    public void generateIntoReusedBuffer() throws Exception {
+        List<List<ConditionNode>> nodeList = SimpleConditionExpressionParser.parseSimpleExpression(
+                "${(amount>1000 && amount<=5000 && region=='east') || (level>=3 && vip==true) || (date3<'2022-01-01' && owner==objectparam.owner)}");
+        StringBuilder buffer = new StringBuilder(1024);
+        assertBudget("generateSimpleExpression写入复用缓冲区", 0, () -> {
+            buffer.setLength(0);
+            SimpleConditionExpressionParser.generateSimpleExpression(nodeList, buffer);
+            return buffer.length();
+        });
+    }
+
+    private static void assertBudget(String name, long budget, Operation operation) throws Exception {
+        double bytes = measure(operation);
+        // 计数本身的少量分配均摊到每次操作后不到1字节
+        assertTrue(String.format("%s 每次分配 %.1f 字节，超出预算 %d", name, bytes, budget), bytes < budget + 1);
+    }
+
+    /**
+     * @return 每次操作平均分配的字节数
+     */
+    private static double measure(Operation operation) throws Exception {
+        long threadId = Thread.currentThread().getId();
+        int sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            sink += operation.run();
+        }
+        long before = bean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += operation.run();
+        }
+        long allocated = bean.getThreadAllocatedBytes(threadId) - before;
+        if (sink == Integer.MIN_VALUE) {
+            System.out.println(sink);
+        }
+        return (double) allocated / ITERATIONS;
+    }
+}
@@ -0,0 +1,394 @@
+package com.example.jueldemo;
+
+import com.example.jueldemo.SimpleConditionExpressionParser.*;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 各编译求值路径与juel的差异测试
+ * 随机生成1.0简单条件表达式和嵌套条件表达式，变量随机取不同类型的值（整数、小数、数字字符串、日期、布尔、null），
+ * 随机去掉一部分变量，in、between既作运算又作变量名；每条求值路径的结果或抛出的异常类型必须与
+ * {@link SimpleConditionExpressionParser#getExpressionValue}一致，含in、not in、between运算时与
+ * {@link SimpleConditionExpressionParser#getConditionExpressionValue}一致。
+ * 调整了原子条件顺序的路径（规则匹配器、决策图、析取范式、增量求值）在juel因取值类型不能转换抛出异常时，
+ * 可能没有测试出错的原子条件而得到结果，这种情况只要求不抛出其他异常
+ * @author hu
+ */
+public class CompiledConditionDifferentialTest {
+
+    private static final String[] VARIABLES = {"amount", "level", "region", "date3", "vip", "in", "between"};
+    private static final String[] OPERATORS = {"<", "<=", ">", ">=", "==", "!="};
+    private static final String[] LITERALS = {"0", "3", "3.5", "-1", "1000", "'east'", "'3'", "'2021-08-11'", "'2022-01-01'", "true", "false", "null"};
+    private static final Object[] VALUES = {null, 1, 3, 3L, 3.5, new BigDecimal("3"), "3", "east", "2021-08-11", LocalDate.of(2021, 8, 11), true, false};
+    // in、between作变量名
+    private static final Pattern KEYWORD_IDENTIFIER = Pattern.compile("\\b(in|between)\\b(?! \\()");
+
+    private static final List<String> SIMPLE = new ArrayList<>();
+    private static final List<String> NESTED = new ArrayList<>();
+    // 按条件表达式语法解析的路径（析取范式规范化、缓存、注册表、增量求值）能处理的表达式：in、between不作变量名
+    private static final List<String> CONDITION_GRAMMAR = new ArrayList<>();
+    private static final List<Map<String, Object>> INPUTS = new ArrayList<>();
+
+    interface Call {
+        Object run() throws Exception;
+    }
+
+    @BeforeClass
+    public static void generate() throws Exception {
+        Random random = new Random(20211);
+        while (SIMPLE.size() < 200) {
+            String expression = simpleExpression(random);
+            // 只保留1.0解析器按原样识别的表达式
+            if (expression.equals(SimpleConditionExpressionParser.generateSimpleExpression(SimpleConditionExpressionParser.parseSimpleExpression(expression)))) {
+                SIMPLE.add(expression);
+            }
+        }
+        while (NESTED.size() < 60) {
+            NESTED.add("${" + nested(random, 3) + "}");
+        }
+        for (String expression : SIMPLE) {
+            if (!KEYWORD_IDENTIFIER.matcher(expression).find()) {
+                CONDITION_GRAMMAR.add(expression);
+            }
+        }
+        CONDITION_GRAMMAR.addAll(NESTED);
+        for (int i = 0; i < 120; i++) {
+            Map<String, Object> variables = new HashMap<>();
+            for (String name : VARIABLES) {
+                // 大约六分之一的变量不在变量表中
+                if (random.nextInt(6) > 0) {
+                    variables.put(name, VALUES[random.nextInt(VALUES.length)]);
+                }
+            }
+            if (random.nextInt(6) > 0) {
+                variables.put("objectparam", random.nextBoolean() ? null : Collections.singletonMap("k", VALUES[random.nextInt(VALUES.length)]));
+            }
+            INPUTS.add(variables);
+        }
+    }
+
+    private static String simpleExpression(Random random) {
+        StringBuilder expression = new StringBuilder("${");
+        boolean operators = random.nextInt(3) == 0;
+        int clauses = 1 + random.nextInt(3);
+        for (int c = 0; c < clauses; c++) {
+            expression.append(c == 0 ? "(" : " || (");
+            int atoms = 1 + random.nextInt(3);
+            for (int a = 0; a < atoms; a++) {
+                if (a > 0) {
+                    expression.append(" && ");
+                }
+                expression.append(atom(random, operators));
+            }
+            expression.append(')');
+        }
+        return expression.append('}').toString();
+    }
+
+    /**
+     * @param operators 使用in、not in、between运算，这时in、between不作变量名
+     */
+    private static String atom(Random random, boolean operators) {
+        String variable = variable(random, operators);
+        if (operators && random.nextBoolean()) {
+            switch (random.nextInt(5)) {
+                case 0:
+                    return variable + " in (1, 3, 3.5)";
+                case 1:
+                    return variable + " in ('east', '3')";
+                case 2:
+                    return variable + " not in ('east', 'west')";
+                case 3:
+                    return variable + " between (1, 5)";
+                default:
+                    return variable + " between ('2021-01-01', '2022-01-01')";
+            }
+        }
+        String operator = OPERATORS[random.nextInt(OPERATORS.length)];
+        switch (random.nextInt(5)) {
+            case 0:
+                return variable + operator + variable(random, operators);
+            case 1:
+                return variable + operator + "objectparam.k";
+            default:
+                return variable + operator + LITERALS[random.nextInt(LITERALS.length)];
+        }
+    }
+
+    private static String variable(Random random, boolean operators) {
+        return VARIABLES[random.nextInt(operators ? VARIABLES.length - 2 : VARIABLES.length)];
+    }
+
+    /**
+     * 嵌套括号、!、and/or/not
+     */
+    private static String nested(Random random, int depth) {
+        if (depth == 0 || random.nextInt(3) == 0) {
+            return atom(random, true);
+        }
+        String left = nested(random, depth - 1);
+        String right = nested(random, depth - 1);
+        switch (random.nextInt(5)) {
+            case 0:
+                return "!(" + left + " || " + right + ")";
+            case 1:
+                return "not (" + left + " and " + right + ")";
+            case 2:
+                return "(" + left + " or " + right + ")";
+            default:
+                return "(" + left + " && " + right + ")";
+        }
+    }
+
+    /**
+     * juel的求值结果：含in、not in、between运算时按条件表达式语法，这时in、between是关键字，不能作变量传入
+     */
+    private static String expected(String expression, Map<String, Object> variables) {
+        boolean conditionOperators = expression.contains(" in (") || expression.contains(" between (");
+        List<ExpressionVariable<?>> params = new ArrayList<>();
+        for (Map.Entry<String, Object> entry : variables.entrySet()) {
+            if (!conditionOperators || !KEYWORD_IDENTIFIER.matcher(entry.getKey()).matches()) {
+                params.add(new ExpressionVariable<>("#{" + entry.getKey() + "}", Object.class, entry.getValue()));
+            }
+        }
+        return result(() -> conditionOperators
+                ? SimpleConditionExpressionParser.getConditionExpressionValue(params, expression)
+                : SimpleConditionExpressionParser.getExpressionValue(params, expression));
+    }
+
+    private static String result(Call call) {
+        try {
+            return String.valueOf(call.run());
+        } catch (Exception e) {
+            return e.getClass().getSimpleName();
+        }
+    }
+
+    /**
+     * @param reordered 求值路径是否调整了原子条件的顺序
+     */
+    private static boolean same(String expected, String actual, boolean reordered) {
+        if (expected.equals(actual)) {
+            return true;
+        }
+        boolean typeError = !expected.equals("true") && !expected.equals("false") && !expected.equals("PropertyNotFoundException");
+        return reordered && typeError && (actual.equals("true") || actual.equals("false"));
+    }
+
+    /**
+     * 逐个表达式、逐个输入与juel比较，记录前几个不一致
+     */
+    private static void assertSameAsJuel(String path, List<String> expressions, boolean reordered, Evaluator evaluator) throws Exception {
+        List<String> mismatches = new ArrayList<>();
+        int count = 0;
+        for (int i = 0; i < expressions.size(); i++) {
+            String expression = expressions.get(i);
+            for (Map<String, Object> variables : INPUTS) {
+                int index = i;
+                String expected = expected(expression, variables);
+                String actual = result(() -> evaluator.evaluate(index, expression, variables));
+                count++;
+                if (!same(expected, actual, reordered) && mismatches.size() < 5) {
+                    mismatches.add(expression + " " + variables + " juel=" + expected + " " + path + "=" + actual);
+                }
+            }
+        }
+        assertTrue(count > 0);
+        assertEquals(path + "与juel不一致：" + mismatches, Collections.emptyList(), mismatches);
+    }
+
+    interface Evaluator {
+        boolean evaluate(int index, String expression, Map<String, Object> variables) throws Exception;
+    }
+
+    private static List<CompiledCondition> compileAll() throws Exception {
+        List<CompiledCondition> conditions = new ArrayList<>(SIMPLE.size());
+        for (String expression : SIMPLE) {
+            conditions.add(CompiledCondition.compile(expression));
+        }
+        return conditions;
+    }
+
+    @Test
+    public void compiledCondition() throws Exception {
+        List<CompiledCondition> conditions = compileAll();
+        assertSameAsJuel("CompiledCondition", SIMPLE, false, (index, expression, variables) -> conditions.get(index).evaluate(variables));
+    }
+
+    @Test
+    public void ruleMatcher() throws Exception {
+        RuleMatcher matcher = new RuleMatcher(compileAll());
+        assertSameAsJuel("RuleMatcher", SIMPLE, true, (index, expression, variables) -> matcher.begin(variables).test(index));
+    }
+
+    @Test
+    public void offHeapRuleStore() throws Exception {
+        OffHeapRuleStore store = new OffHeapRuleStore();
+        for (CompiledCondition condition : compileAll()) {
+            store.add(condition);
+        }
+        assertSameAsJuel("OffHeapRuleStore", SIMPLE, false, (index, expression, variables) -> store.evaluate(index, variables));
+    }
+
+    @Test
+    public void decisionDiagram() throws Exception {
+        List<DecisionDiagram> diagrams = new ArrayList<>();
+        for (CompiledCondition condition : compileAll()) {
+            diagrams.add(DecisionDiagram.compile(condition, DecisionDiagram.DEFAULT_NODE_LIMIT));
+        }
+        assertSameAsJuel("DecisionDiagram", SIMPLE, true, (index, expression, variables) -> diagrams.get(index).evaluate(variables));
+    }
+
+    @Test
+    public void evaluationCache() throws Exception {
+        EvaluationCache cache = new EvaluationCache(1000);
+        List<String> expressions = CONDITION_GRAMMAR;
+        for (int i = 0; i < expressions.size(); i++) {
+            cache.register("c" + i, expressions.get(i));
+        }
+        assertSameAsJuel("EvaluationCache", expressions, true, (index, expression, variables) -> cache.evaluate("c" + index, variables));
+    }
+
+    @Test
+    public void gatewayEvaluator() throws Exception {
+        List<String> expressions = new ArrayList<>(SIMPLE);
+        expressions.addAll(NESTED);
+        assertSameAsJuel("GatewayEvaluator", expressions, true, (index, expression, variables) ->
+                !new GatewayEvaluator(Collections.singletonMap("flow", expression)).evaluate(GatewayEvaluator.Mode.ALL_MATCHES, variables).isEmpty());
+    }
+
+    @Test
+    public void gatewayEvaluatorParams() throws Exception {
+        GatewayEvaluator gateway = new GatewayEvaluator(Collections.singletonMap("flow", SIMPLE.get(0)));
+        for (Map<String, Object> variables : INPUTS) {
+            List<ExpressionVariable<?>> params = new ArrayList<>();
+            for (Map.Entry<String, Object> entry : variables.entrySet()) {
+                params.add(new ExpressionVariable<>("${" + entry.getKey() + "}", Object.class, entry.getValue()));
+            }
+            assertEquals(expected(SIMPLE.get(0), variables), result(() -> gateway.firstMatch(params) != null));
+        }
+    }
+
+    @Test
+    public void dnfNormalizer() throws Exception {
+        List<String> expressions = CONDITION_GRAMMAR;
+        assertSameAsJuel("DnfNormalizer", expressions, true, (index, expression, variables) -> DnfNormalizer.compile(expression).evaluate(variables));
+    }
+
+    @Test
+    public void incrementalEvaluator() throws Exception {
+        List<String> expressions = CONDITION_GRAMMAR;
+        assertSameAsJuel("IncrementalEvaluator", expressions, true, (index, expression, variables) ->
+                new IncrementalEvaluator(Collections.singletonMap("c", expression)).newInstance(variables).isSatisfied("c"));
+    }
+
+    /**
+     * 从全部变量都有值的快照开始，逐个变量改成目标值，每次变更后与juel按当前变量表的结果比较；
+     * 变更抛出异常时实例恢复原来的变量，快照也不改。快照依次取全部为3、全部为日期字符串、全部为null，用第一个求值不出错的
+     */
+    @Test
+    public void incrementalEvaluatorChanges() throws Exception {
+        List<String> expressions = CONDITION_GRAMMAR;
+        List<Map<String, Object>> snapshots = new ArrayList<>();
+        for (Object value : new Object[]{3, "2021-08-11", null}) {
+            Map<String, Object> snapshot = new HashMap<>();
+            for (String name : VARIABLES) {
+                snapshot.put(name, value);
+            }
+            snapshot.put("objectparam", Collections.singletonMap("k", value));
+            snapshots.add(snapshot);
+        }
+        List<String> mismatches = new ArrayList<>();
+        int tested = 0;
+        for (String expression : expressions) {
+            IncrementalEvaluator evaluator = new IncrementalEvaluator(Collections.singletonMap("c", expression));
+            Map<String, Object> initial = null;
+            for (Map<String, Object> snapshot : snapshots) {
+                String expected = expected(expression, snapshot);
+                String created = result(() -> evaluator.newInstance(snapshot).isSatisfied("c"));
+                if (!same(expected, created, true) && mismatches.size() < 5) {
+                    mismatches.add(expression + " " + snapshot + " juel=" + expected + " incremental=" + created);
+                }
+                if (initial == null && (created.equals("true") || created.equals("false"))) {
+                    initial = snapshot;
+                }
+            }
+            if (initial == null) {
+                continue;
+            }
+            tested++;
+            for (Map<String, Object> target : INPUTS) {
+                IncrementalEvaluator.Instance instance = evaluator.newInstance(initial);
+                Map<String, Object> variables = new HashMap<>(initial);
+                for (Map.Entry<String, Object> entry : target.entrySet()) {
+                    Map<String, Object> changed = new HashMap<>(variables);
+                    changed.put(entry.getKey(), entry.getValue());
+                    String expected = expected(expression, changed);
+                    String actual = result(() -> {
+                        instance.variableChanged(entry.getKey(), entry.getValue());
+                        return instance.isSatisfied("c");
+                    });
+                    if (!same(expected, actual, true) && mismatches.size() < 5) {
+                        mismatches.add(expression + " " + changed + " juel=" + expected + " incremental=" + actual);
+                    }
+                    if (actual.equals("true") || actual.equals("false")) {
+                        variables = changed;
+                    }
+                    assertEquals(variables, instance.getVariables());
+                }
+            }
+        }
+        assertTrue(tested > expressions.size() / 2);
+        assertEquals("IncrementalEvaluator变量变化后与juel不一致：" + mismatches, Collections.emptyList(), mismatches);
+    }
+
+    @Test
+    public void conditionRegistry() throws Exception {
+        List<String> expressions = CONDITION_GRAMMAR;
+        Map<String, String> conditions = new LinkedHashMap<>();
+        for (int i = 0; i < expressions.size(); i++) {
+            conditions.put("c" + i, expressions.get(i));
+        }
+        ConditionRegistry registry = new ConditionRegistry();
+        ConditionRegistry.Definition definition = registry.deploy("differential", conditions);
+        assertSameAsJuel("ConditionRegistry", expressions, true, (index, expression, variables) -> definition.evaluate("c" + index, variables));
+    }
+
+    /**
+     * 缺少变量时与juel一样抛出PropertyNotFoundException，null值与缺少变量不同
+     */
+    @Test
+    public void missingVariable() throws Exception {
+        String expression = "${(amount>1000 && region=='east') || (level>=3)}";
+        CompiledCondition condition = CompiledCondition.compile(expression);
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("amount", 3000);
+        variables.put("region", "west");
+        assertEquals("PropertyNotFoundException", expected(expression, variables));
+        assertEquals("PropertyNotFoundException", result(() -> condition.evaluate(variables)));
+        variables.put("level", null);
+        assertEquals("false", expected(expression, variables));
+        assertEquals("false", result(() -> condition.evaluate(variables)));
+    }
+
+    /**
+     * in、between不是运算时可以作变量名
+     */
+    @Test
+    public void inAndBetweenAsIdentifiers() throws Exception {
+        CompiledCondition condition = CompiledCondition.compile("${(in==1 && between>=2)}");
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("in", 1);
+        variables.put("between", 5L);
+        assertEquals("true", expected("${(in==1 && between>=2)}", variables));
+        assertEquals("true", result(() -> condition.evaluate(variables)));
+    }
+}